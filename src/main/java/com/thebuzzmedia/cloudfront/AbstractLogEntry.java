@@ -17,18 +17,27 @@ package com.thebuzzmedia.cloudfront;
 
 public abstract class AbstractLogEntry implements ILogEntry {
 	protected Type type;
+	protected LogSchema schema;
 	protected char[][] values;
 
-	public AbstractLogEntry(Type type, char[][] values)
-			throws IllegalArgumentException {
-		if (type == null)
-			throw new IllegalArgumentException("type cannot be null");
-		if (values == null || values.length == 0)
-			throw new IllegalArgumentException(
-					"values cannot be null or empty and must represent an array of one char[] instance for each field value.");
+	/**
+	 * Lazily populated cache of the decoded values; <code>hasDecoded</code>
+	 * lets {@link #reset()} skip clearing it for the (common) entries nobody
+	 * asked to decode.
+	 */
+	protected char[][] decodedValues;
+	protected boolean hasDecoded;
+
+	public AbstractLogEntry(LogSchema schema) throws IllegalArgumentException {
+		if (schema == null)
+			throw new IllegalArgumentException("schema cannot be null");
+
+		this.type = schema.getType();
+		this.schema = schema;
+		this.values = new char[0][];
+		this.decodedValues = values;
 
-		this.type = type;
-		this.values = values;
+		ensureCapacity();
 	}
 
 	public String toString() {
@@ -52,16 +61,62 @@ public abstract class AbstractLogEntry implements ILogEntry {
 	public void reset() {
 		for (int i = 0; i < values.length; i++)
 			values[i] = null;
+
+		if (hasDecoded) {
+			for (int i = 0; i < decodedValues.length; i++)
+				decodedValues[i] = null;
+
+			hasDecoded = false;
+		}
 	}
 
 	public Type getType() {
 		return type;
 	}
 
+	public LogSchema getSchema() {
+		return schema;
+	}
+
 	public int getFieldCount() {
 		return values.length;
 	}
 
+	public String[] getFieldNames() {
+		String[] names = schema.getFieldNames();
+
+		// The schema may have grown since this entry was last resized.
+		if (names.length > values.length) {
+			String[] trimmed = new String[values.length];
+			System.arraycopy(names, 0, trimmed, 0, values.length);
+			names = trimmed;
+		}
+
+		return names;
+	}
+
+	public int getFieldIndex(String fieldName) {
+		FieldHandle handle = schema.getFieldHandle(fieldName);
+		return (handle == null || handle.getIndex() >= values.length ? INVALID_INDEX
+				: handle.getIndex());
+	}
+
+	public char[] getFieldValue(String fieldName) {
+		int index = getFieldIndex(fieldName);
+		return (index == INVALID_INDEX ? null : values[index]);
+	}
+
+	public char[] getFieldValue(FieldHandle handle)
+			throws IllegalArgumentException {
+		if (!schema.contains(handle))
+			throw new IllegalArgumentException("handle [" + handle
+					+ "] cannot be null and must belong to the " + type
+					+ " schema");
+
+		int index = handle.getIndex();
+		return (index < values.length ? values[index] : null);
+	}
+
 	public char[] getFieldValue(int fieldIndex) throws IllegalArgumentException {
 		if (fieldIndex < 0 || fieldIndex >= values.length)
 			throw new IllegalArgumentException("fieldIndex [" + fieldIndex
@@ -75,6 +130,60 @@ public abstract class AbstractLogEntry implements ILogEntry {
 		return values;
 	}
 
+	public char[] getDecodedFieldValue(int fieldIndex)
+			throws IllegalArgumentException {
+		if (fieldIndex < 0 || fieldIndex >= values.length)
+			throw new IllegalArgumentException("fieldIndex [" + fieldIndex
+					+ "] must be >= 0 and < getFieldCount() [" + values.length
+					+ "]");
+
+		char[] decoded = decodedValues[fieldIndex];
+
+		if (decoded == null && values[fieldIndex] != null) {
+			decoded = PercentDecodingUtils.decode(values[fieldIndex],
+					getDecodePassCount(fieldIndex));
+			decodedValues[fieldIndex] = decoded;
+			hasDecoded = true;
+		}
+
+		return decoded;
+	}
+
+	public char[] getDecodedFieldValue(String fieldName) {
+		int index = getFieldIndex(fieldName);
+		return (index == INVALID_INDEX ? null : getDecodedFieldValue(index));
+	}
+
+	public char[] getDecodedFieldValue(FieldHandle handle)
+			throws IllegalArgumentException {
+		// Validates the handle for us
+		if (getFieldValue(handle) == null)
+			return null;
+
+		return getDecodedFieldValue(handle.getIndex());
+	}
+
+	/**
+	 * Used to grow this entry so it can hold a value for every field currently
+	 * defined by its schema. The {@link LogParser} calls this after every
+	 * <code>#Fields:</code> directive (which may have added fields to the
+	 * schema) so no resizing is ever done while parsing log lines.
+	 */
+	protected void ensureCapacity() {
+		int count = schema.getFieldCount();
+
+		if (count <= values.length)
+			return;
+
+		char[][] grown = new char[count][];
+		System.arraycopy(values, 0, grown, 0, values.length);
+		values = grown;
+
+		grown = new char[count][];
+		System.arraycopy(decodedValues, 0, grown, 0, decodedValues.length);
+		decodedValues = grown;
+	}
+
 	public void setFieldValue(int fieldIndex, char[] value)
 			throws IllegalArgumentException {
 		if (fieldIndex < 0 || fieldIndex >= values.length)
@@ -88,5 +197,17 @@ public abstract class AbstractLogEntry implements ILogEntry {
 			value = null;
 
 		values[fieldIndex] = value;
+		decodedValues[fieldIndex] = null;
+	}
+
+	/**
+	 * Used to determine how many times the value of the given field was
+	 * percent-encoded by CloudFront. Subclasses override this for fields that
+	 * are encoded more than once.
+	 * 
+	 * @return <code>1</code> by default.
+	 */
+	protected int getDecodePassCount(int fieldIndex) {
+		return 1;
 	}
 }
\ No newline at end of file
@@ -0,0 +1,378 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.cloudfront;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Class used as the base for callbacks that export every parsed log entry to
+ * a text format (see {@link CSVLogExporter} and {@link JSONLogExporter}).
+ * <p/>
+ * Exporters write straight from the <code>char[]</code> field values of the
+ * {@link ILogEntry} into a single re-used byte buffer that is flushed to the
+ * underlying {@link OutputStream} whenever it fills up; no
+ * <code>String</code>s or builders are created per line or per field.
+ * Percent-decoding (if enabled) and the format's escaping happen in the same
+ * pass over each value; values CloudFront double-encodes (e.g.
+ * <code>cs(User-Agent)</code>) are fully decoded in that pass as well.
+ * <p/>
+ * The exported fields are either the ones named when the exporter was created
+ * or, by default, the ones named by the <code>#Fields:</code> directive of the
+ * log being parsed; they are re-resolved (and the format's header re-written)
+ * only when that directive actually changes.
+ * <p/>
+ * Exporters are not thread-safe and must be flushed or closed when the export
+ * is done.
+ */
+public abstract class AbstractLogExporter implements IRawLogParserCallback {
+	public static final int DEFAULT_BUFFER_SIZE = 65536;
+
+	/**
+	 * The most bytes a single value <code>char</code> can be written as (a
+	 * six byte JSON unicode escape).
+	 */
+	protected static final int MAX_ESCAPE_LENGTH = 6;
+
+	private static final byte[] REPLACEMENT_CHAR_BYTES = { (byte) 0xEF,
+			(byte) 0xBF, (byte) 0xBD };
+
+	private static final byte[] FIELDS = toBytes("#Fields:");
+
+	protected OutputStream out;
+	protected boolean decode;
+
+	protected byte[] buffer;
+	protected int length;
+
+	/**
+	 * Escape sequence to write instead of each byte value, <code>null</code>
+	 * for bytes that are written as-is.
+	 */
+	private byte[][] escapes;
+
+	/**
+	 * Bytes that make {@link #writeValue(char[], int)} report that the value
+	 * needs special handling (e.g. quoting); may be <code>null</code>.
+	 */
+	private boolean[] triggers;
+
+	private String[] fieldNames;
+	private String[] directiveFieldNames;
+
+	protected ILogEntry.Type type;
+	protected FieldHandle[] handles;
+	protected int[] decodePassCounts;
+
+	/**
+	 * Create a new exporter.
+	 * 
+	 * @param out
+	 *            The stream to write to.
+	 * @param decode
+	 *            <code>true</code> to percent-decode the exported values,
+	 *            <code>false</code> to export them exactly as they appear in
+	 *            the log.
+	 * @param fieldNames
+	 *            The names of the fields to export, in order, or
+	 *            <code>null</code> to export the fields named by the
+	 *            <code>#Fields:</code> directive. Names the schema of the log
+	 *            doesn't define fail the first entry with an
+	 *            <code>IllegalArgumentException</code>.
+	 * @param escapes
+	 *            The escape table of the format, indexed by byte value.
+	 * @param triggers
+	 *            The bytes that require special handling, indexed by byte
+	 *            value, or <code>null</code>.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>out</code> is <code>null</code> or
+	 *             <code>fieldNames</code> is empty.
+	 */
+	protected AbstractLogExporter(OutputStream out, boolean decode,
+			String[] fieldNames, byte[][] escapes, boolean[] triggers)
+			throws IllegalArgumentException {
+		if (out == null)
+			throw new IllegalArgumentException("out cannot be null");
+		if (fieldNames != null && fieldNames.length == 0)
+			throw new IllegalArgumentException(
+					"fieldNames cannot be empty, use null to export every field");
+
+		this.out = out;
+		this.decode = decode;
+		this.fieldNames = fieldNames;
+		this.escapes = escapes;
+		this.triggers = triggers;
+
+		buffer = new byte[DEFAULT_BUFFER_SIZE];
+	}
+
+	public String toString() {
+		return this.getClass().getName() + "@" + hashCode() + "[type=" + type
+				+ ", decode=" + decode + ", bufferSize=" + buffer.length
+				+ ", length=" + length + "]";
+	}
+
+	public void directiveParsed(byte[] line, int index, int length) {
+		if (fieldNames != null || !startsWith(line, index, length, FIELDS))
+			return;
+
+		List<String> names = new ArrayList<String>();
+
+		// Field names are plain ASCII separated by the usual delimiters.
+		for (int i = index + FIELDS.length, end = index + length; i < end;) {
+			while (i < end && line[i] <= ' ')
+				i++;
+
+			int start = i;
+
+			while (i < end && line[i] > ' ')
+				i++;
+
+			if (i > start) {
+				char[] name = new char[i - start];
+
+				for (int j = 0; j < name.length; j++)
+					name[j] = (char) line[start + j];
+
+				names.add(new String(name));
+			}
+		}
+
+		String[] parsedNames = names.toArray(new String[names.size()]);
+
+		// Same fields as before (e.g. the next file of a batch), nothing to do
+		if (!Arrays.equals(parsedNames, directiveFieldNames)) {
+			directiveFieldNames = parsedNames;
+			type = null;
+		}
+	}
+
+	public void logEntryParsed(ILogEntry entry, byte[] line, int index,
+			int length) {
+		logEntryParsed(entry);
+	}
+
+	public void logEntryParsed(ILogEntry entry) {
+		// Resolve the exported fields for every new type of log.
+		if (entry.getType() != type)
+			resolveFields(entry);
+
+		writeEntry(entry);
+
+		// Only hand full-ish buffers to the stream.
+		if (length > buffer.length / 2) {
+			try {
+				flushBuffer();
+			} catch (IOException e) {
+				throw new RuntimeException(
+						"An exception occurred while writing exported log entries to the underlying stream.",
+						e);
+			}
+		}
+	}
+
+	/**
+	 * Used to write any buffered content to, and flush, the underlying stream.
+	 */
+	public void flush() throws IOException {
+		flushBuffer();
+		out.flush();
+	}
+
+	/**
+	 * Used to flush and then close the underlying stream.
+	 */
+	public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Called with the names of the exported fields the first time an entry
+	 * of a new type is exported, before that entry is written.
+	 */
+	protected abstract void writeHeader(String[] names);
+
+	/**
+	 * Called to write a single entry using the resolved {@link #handles}.
+	 */
+	protected abstract void writeEntry(ILogEntry entry);
+
+	/**
+	 * Used to make sure there is room for at least <code>count</code> more
+	 * bytes in the buffer, flushing (or growing) it as needed.
+	 */
+	protected void ensureCapacity(int count) {
+		if (length + count <= buffer.length)
+			return;
+
+		try {
+			flushBuffer();
+		} catch (IOException e) {
+			throw new RuntimeException(
+					"An exception occurred while writing exported log entries to the underlying stream.",
+					e);
+		}
+
+		if (count > buffer.length) {
+			byte[] grown = new byte[Math.max(count, buffer.length * 2)];
+			System.arraycopy(buffer, 0, grown, 0, length);
+			buffer = grown;
+		}
+	}
+
+	protected void writeByte(byte b) {
+		ensureCapacity(1);
+		buffer[length++] = b;
+	}
+
+	protected void writeBytes(byte[] bytes) {
+		ensureCapacity(bytes.length);
+		System.arraycopy(bytes, 0, buffer, length, bytes.length);
+		length += bytes.length;
+	}
+
+	/**
+	 * Used to write the given value, decoding (if enabled) and escaping it in
+	 * a single pass.
+	 * 
+	 * @param value
+	 *            The value to write.
+	 * @param decodePasses
+	 *            The number of times the value was percent-encoded.
+	 * 
+	 * @return <code>true</code> if any of the format's trigger bytes were
+	 *         written.
+	 */
+	protected boolean writeValue(char[] value, int decodePasses) {
+		ensureCapacity(value.length * MAX_ESCAPE_LENGTH);
+
+		byte[] buffer = this.buffer;
+		int length = this.length;
+		boolean triggered = false;
+
+		for (int i = 0, end = value.length; i < end; i++) {
+			char c = value[i];
+
+			// Non-ASCII bytes were decoded as U+FFFD by the parser
+			if (c >= 0x80) {
+				System.arraycopy(REPLACEMENT_CHAR_BYTES, 0, buffer, length, 3);
+				length += 3;
+				continue;
+			}
+
+			int b = c;
+			int hex;
+
+			if (decode && c == PercentDecodingUtils.ESCAPE_CHAR && i + 2 < end
+					&& (hex = PercentDecodingUtils.hexValue(value[i + 1],
+							value[i + 2])) != -1) {
+				b = hex;
+				i += 2;
+
+				// e.g. %2520 -> %20 -> ' '
+				for (int pass = 1; pass < decodePasses
+						&& b == PercentDecodingUtils.ESCAPE_CHAR && i + 2 < end
+						&& (hex = PercentDecodingUtils.hexValue(value[i + 1],
+								value[i + 2])) != -1; pass++) {
+					b = hex;
+					i += 2;
+				}
+			}
+
+			byte[] escape = escapes[b];
+
+			if (escape == null)
+				buffer[length++] = (byte) b;
+			else {
+				System.arraycopy(escape, 0, buffer, length, escape.length);
+				length += escape.length;
+			}
+
+			if (triggers != null && triggers[b])
+				triggered = true;
+		}
+
+		this.length = length;
+		return triggered;
+	}
+
+	protected static byte[] toBytes(String value) {
+		try {
+			return value.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			// UTF-8 support is required of every JVM, this can't happen.
+			throw new RuntimeException(e);
+		}
+	}
+
+	private void resolveFields(ILogEntry entry) {
+		LogSchema schema = entry.getSchema();
+		String[] names = fieldNames;
+
+		// No fields given and no directive seen, export the whole schema.
+		if (names == null)
+			names = (directiveFieldNames == null ? entry.getFieldNames()
+					: directiveFieldNames);
+
+		handles = new FieldHandle[names.length];
+		decodePassCounts = new int[names.length];
+
+		for (int i = 0; i < names.length; i++) {
+			handles[i] = schema.getFieldHandle(names[i]);
+
+			if (handles[i] == null)
+				throw new IllegalArgumentException("Field [" + names[i]
+						+ "] is not defined by the " + schema.getType()
+						+ " schema.");
+
+			decodePassCounts[i] = (entry instanceof AbstractLogEntry ? ((AbstractLogEntry) entry)
+					.getDecodePassCount(handles[i].getIndex())
+					: 1);
+		}
+
+		type = entry.getType();
+		writeHeader(names);
+	}
+
+	private static boolean startsWith(byte[] line, int index, int length,
+			byte[] prefix) {
+		if (length < prefix.length)
+			return false;
+
+		for (int i = 0; i < prefix.length; i++) {
+			if (line[index + i] != prefix[i])
+				return false;
+		}
+
+		return true;
+	}
+
+	private void flushBuffer() throws IOException {
+		if (length > 0) {
+			out.write(buffer, 0, length);
+			length = 0;
+		}
+	}
+}
\ No newline at end of file
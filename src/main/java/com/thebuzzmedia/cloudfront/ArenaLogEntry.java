@@ -0,0 +1,223 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.cloudfront;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Class used to provide a flyweight, read-only {@link ILogEntry} view over
+ * the entries stored in an {@link EntryArena}.
+ * <p/>
+ * A view holds nothing but the handle of the entry it currently points at;
+ * {@link #setHandle(long)} re-points it at another entry without allocating,
+ * so a single view can be used to walk millions of retained entries. Values
+ * are read out of the arena every time they are asked for, each call
+ * returning a new copy.
+ * <p/>
+ * {@link #setFieldValue(int, char[])} is not supported and {@link #reset()}
+ * only detaches the view from its entry. A view is invalid once its arena is
+ * cleared or closed.
+ */
+public class ArenaLogEntry implements ILogEntry {
+	/**
+	 * Used to get the number of decode passes each type of entry does for its
+	 * fields (see {@link AbstractLogEntry#getDecodePassCount(int)}).
+	 */
+	private static final AbstractLogEntry DOWNLOAD_PROTOTYPE = new DownloadLogEntry();
+	private static final AbstractLogEntry STREAMING_PROTOTYPE = new StreamingLogEntry();
+
+	private EntryArena arena;
+
+	private long handle = -1;
+	private ByteBuffer chunk;
+	private int offset;
+	private LogSchema schema;
+	private Type type;
+
+	ArenaLogEntry(EntryArena arena) {
+		this.arena = arena;
+	}
+
+	public String toString() {
+		StringBuilder params = new StringBuilder();
+
+		if (chunk != null) {
+			int count = EntryArena.getStoredFieldCount(chunk, offset);
+
+			for (int i = 0; i < count; i++) {
+				char[] v = EntryArena.readValue(chunk, offset, i);
+
+				if (v != null)
+					params.append(v);
+
+				if (i < count - 1)
+					params.append(',');
+			}
+		}
+
+		return this.getClass().getName() + "@" + hashCode() + "[handle="
+				+ handle + ", type=" + type + ", values={" + params.toString()
+				+ "}]";
+	}
+
+	/**
+	 * Used to point this view at the given entry of its arena. Only handles
+	 * outside of the memory currently in use are detected; a handle returned
+	 * before the arena was cleared may silently point at a newer entry.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>handle</code> doesn't point into the memory
+	 *             currently used by the arena.
+	 * @throws IllegalStateException
+	 *             if the arena has been closed.
+	 */
+	public void setHandle(long handle) throws IllegalArgumentException,
+			IllegalStateException {
+		chunk = arena.getChunk(handle);
+		offset = (int) handle;
+		schema = arena.getSchema(chunk, offset);
+		type = schema.getType();
+		this.handle = handle;
+	}
+
+	/**
+	 * @return the handle of the entry this view points at or <code>-1</code>
+	 *         if it doesn't point at any.
+	 */
+	public long getHandle() {
+		return handle;
+	}
+
+	public EntryArena getArena() {
+		return arena;
+	}
+
+	public void reset() {
+		handle = -1;
+		chunk = null;
+		schema = null;
+		type = null;
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * @return the schema of the entry this view points at (the one it had
+	 *         when it was added to the arena) or <code>null</code>.
+	 */
+	public LogSchema getSchema() {
+		return schema;
+	}
+
+	public int getFieldCount() {
+		return (schema == null ? 0 : schema.getFieldCount());
+	}
+
+	public String[] getFieldNames() {
+		return (schema == null ? new String[0] : schema.getFieldNames());
+	}
+
+	public int getFieldIndex(String fieldName) {
+		if (schema == null)
+			return INVALID_INDEX;
+
+		FieldHandle field = schema.getFieldHandle(fieldName);
+		return (field == null ? INVALID_INDEX : field.getIndex());
+	}
+
+	public char[] getFieldValue(int fieldIndex) throws IllegalArgumentException {
+		checkIndex(fieldIndex);
+		return EntryArena.readValue(chunk, offset, fieldIndex);
+	}
+
+	public char[] getFieldValue(String fieldName) {
+		int index = getFieldIndex(fieldName);
+		return (index == INVALID_INDEX ? null : EntryArena.readValue(chunk,
+				offset, index));
+	}
+
+	public char[] getFieldValue(FieldHandle handle)
+			throws IllegalArgumentException {
+		checkHandle(handle);
+		return EntryArena.readValue(chunk, offset, handle.getIndex());
+	}
+
+	public char[][] getFieldValues() {
+		char[][] values = new char[getFieldCount()][];
+
+		for (int i = 0; i < values.length; i++)
+			values[i] = EntryArena.readValue(chunk, offset, i);
+
+		return values;
+	}
+
+	public char[] getDecodedFieldValue(int fieldIndex)
+			throws IllegalArgumentException {
+		checkIndex(fieldIndex);
+		return decode(fieldIndex);
+	}
+
+	public char[] getDecodedFieldValue(String fieldName) {
+		int index = getFieldIndex(fieldName);
+		return (index == INVALID_INDEX ? null : decode(index));
+	}
+
+	public char[] getDecodedFieldValue(FieldHandle handle)
+			throws IllegalArgumentException {
+		checkHandle(handle);
+		return decode(handle.getIndex());
+	}
+
+	/**
+	 * Always throws; entries stored in an arena are read-only.
+	 */
+	public void setFieldValue(int fieldIndex, char[] value)
+			throws UnsupportedOperationException {
+		throw new UnsupportedOperationException(
+				"entries stored in an EntryArena are read-only");
+	}
+
+	private char[] decode(int fieldIndex) {
+		char[] value = EntryArena.readValue(chunk, offset, fieldIndex);
+
+		if (value == null)
+			return null;
+
+		AbstractLogEntry prototype = (type == Type.DOWNLOAD ? DOWNLOAD_PROTOTYPE
+				: STREAMING_PROTOTYPE);
+
+		return PercentDecodingUtils.decode(value,
+				prototype.getDecodePassCount(fieldIndex));
+	}
+
+	private void checkIndex(int fieldIndex) throws IllegalArgumentException {
+		int count = getFieldCount();
+
+		if (fieldIndex < 0 || fieldIndex >= count)
+			throw new IllegalArgumentException("fieldIndex [" + fieldIndex
+					+ "] must be >= 0 and < getFieldCount() [" + count + "]");
+	}
+
+	private void checkHandle(FieldHandle handle)
+			throws IllegalArgumentException {
+		if (schema == null || !schema.contains(handle))
+			throw new IllegalArgumentException("handle [" + handle
+					+ "] cannot be null and must belong to the " + type
+					+ " schema");
+	}
+}
\ No newline at end of file
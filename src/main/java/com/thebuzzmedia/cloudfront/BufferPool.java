@@ -0,0 +1,181 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.cloudfront;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class used to pool the <code>byte[]</code> buffers used by
+ * {@link LogParser}s (read buffers and GZIP buffers) so workers that create
+ * thousands of short-lived parsers don't allocate (and collect) a new set of
+ * buffers for every file.
+ * <p/>
+ * Buffers are pooled by size class; every size is rounded up to a power of 2
+ * so a buffer that grew to fit a long line can be re-used by any request of
+ * that class. Buffers larger than {@link #MAX_POOLED_SIZE} are never pooled
+ * and at most <code>maxPooledPerSize</code> buffers are kept per size class;
+ * anything beyond that is left to the GC.
+ * <p/>
+ * Instances are thread-safe; by default every parser shares
+ * {@link #getSharedPool()}.
+ */
+public class BufferPool {
+	public static final String MAX_POOLED_PER_SIZE_PROPERTY_NAME = "cloudfront.logparser.maxPooledBuffers";
+
+	/**
+	 * Number of buffers kept per size class by the shared pool.
+	 */
+	public static final int MAX_POOLED_PER_SIZE = Integer.getInteger(
+			MAX_POOLED_PER_SIZE_PROPERTY_NAME, 64);
+
+	/**
+	 * Largest buffer that is pooled (16MB).
+	 */
+	public static final int MAX_POOLED_SIZE = 1 << 24;
+
+	private static final BufferPool SHARED_POOL = new BufferPool(
+			MAX_POOLED_PER_SIZE);
+
+	private int maxPooledPerSize;
+
+	private ConcurrentLinkedQueue<byte[]>[] pools;
+	private AtomicInteger[] counts;
+
+	/**
+	 * @return the pool shared by every parser that wasn't given its own.
+	 */
+	public static BufferPool getSharedPool() {
+		return SHARED_POOL;
+	}
+
+	/**
+	 * Create a new pool.
+	 * 
+	 * @param maxPooledPerSize
+	 *            The most buffers kept per size class; <code>0</code> turns
+	 *            pooling off.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>maxPooledPerSize</code> is &lt; 0.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public BufferPool(int maxPooledPerSize) throws IllegalArgumentException {
+		if (maxPooledPerSize < 0)
+			throw new IllegalArgumentException("maxPooledPerSize ["
+					+ maxPooledPerSize + "] must be >= 0");
+
+		this.maxPooledPerSize = maxPooledPerSize;
+
+		int classCount = Integer.numberOfTrailingZeros(MAX_POOLED_SIZE) + 1;
+		pools = new ConcurrentLinkedQueue[classCount];
+		counts = new AtomicInteger[classCount];
+
+		for (int i = 0; i < classCount; i++) {
+			pools[i] = new ConcurrentLinkedQueue<byte[]>();
+			counts[i] = new AtomicInteger();
+		}
+	}
+
+	public String toString() {
+		return this.getClass().getName() + "@" + hashCode()
+				+ "[maxPooledPerSize=" + maxPooledPerSize + ", pooledCount="
+				+ getPooledCount() + "]";
+	}
+
+	/**
+	 * Used to get a buffer of at least the given size; its contents are
+	 * undefined.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>size</code> is &lt; 1.
+	 */
+	public byte[] acquire(int size) throws IllegalArgumentException {
+		if (size < 1)
+			throw new IllegalArgumentException("size [" + size
+					+ "] must be >= 1");
+
+		if (size > MAX_POOLED_SIZE)
+			return new byte[size];
+
+		int sizeClass = getSizeClass(size);
+		byte[] buffer = pools[sizeClass].poll();
+
+		if (buffer == null)
+			return new byte[1 << sizeClass];
+
+		counts[sizeClass].decrementAndGet();
+		return buffer;
+	}
+
+	/**
+	 * Used to return a buffer to the pool. The caller must not use the buffer
+	 * again after releasing it. <code>null</code> is ignored.
+	 */
+	public void release(byte[] buffer) {
+		if (buffer == null || buffer.length > MAX_POOLED_SIZE
+				|| Integer.bitCount(buffer.length) != 1)
+			return;
+
+		int sizeClass = Integer.numberOfTrailingZeros(buffer.length);
+
+		if (counts[sizeClass].incrementAndGet() > maxPooledPerSize)
+			counts[sizeClass].decrementAndGet();
+		else
+			pools[sizeClass].offer(buffer);
+	}
+
+	/**
+	 * @return the number of buffers currently held by the pool.
+	 */
+	public int getPooledCount() {
+		int count = 0;
+
+		for (int i = 0; i < counts.length; i++)
+			count += counts[i].get();
+
+		return count;
+	}
+
+	/**
+	 * Used to drop every pooled buffer.
+	 */
+	public void clear() {
+		for (int i = 0; i < pools.length; i++) {
+			while (pools[i].poll() != null)
+				counts[i].decrementAndGet();
+		}
+	}
+
+	/**
+	 * @return the length of the buffer {@link #acquire(int)} returns for the
+	 *         given size.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>size</code> is &lt; 1.
+	 */
+	public static int getBufferSize(int size) throws IllegalArgumentException {
+		if (size < 1)
+			throw new IllegalArgumentException("size [" + size
+					+ "] must be >= 1");
+
+		return (size > MAX_POOLED_SIZE ? size : 1 << getSizeClass(size));
+	}
+
+	private static int getSizeClass(int size) {
+		return 32 - Integer.numberOfLeadingZeros(size - 1);
+	}
+}
\ No newline at end of file
@@ -0,0 +1,103 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.cloudfront;
+
+import java.io.OutputStream;
+
+/**
+ * Exporter used to write parsed log entries out as CSV (RFC 4180, with
+ * <code>\n</code> line endings).
+ * <p/>
+ * A header row with the field names is written before the first entry (and
+ * again if the type of log being exported changes). Empty values are written
+ * as empty columns. Values are only quoted when they contain a comma, a quote
+ * or a line break.
+ */
+public class CSVLogExporter extends AbstractLogExporter {
+	private static final byte[][] ESCAPES = new byte[256][];
+	private static final boolean[] TRIGGERS = new boolean[256];
+
+	static {
+		ESCAPES['"'] = new byte[] { '"', '"' };
+
+		TRIGGERS[','] = true;
+		TRIGGERS['"'] = true;
+		TRIGGERS['\r'] = true;
+		TRIGGERS['\n'] = true;
+	}
+
+	public CSVLogExporter(OutputStream out) throws IllegalArgumentException {
+		this(out, true, null);
+	}
+
+	/**
+	 * @see AbstractLogExporter#AbstractLogExporter(OutputStream, boolean,
+	 *      String[], byte[][], boolean[])
+	 */
+	public CSVLogExporter(OutputStream out, boolean decode, String[] fieldNames)
+			throws IllegalArgumentException {
+		super(out, decode, fieldNames, ESCAPES, TRIGGERS);
+	}
+
+	protected void writeHeader(String[] names) {
+		boolean decode = this.decode;
+
+		// Field names are never encoded
+		this.decode = false;
+
+		for (int i = 0; i < names.length; i++) {
+			if (i > 0)
+				writeByte((byte) ',');
+
+			writeColumn(names[i].toCharArray(), 1);
+		}
+
+		this.decode = decode;
+		writeByte((byte) '\n');
+	}
+
+	protected void writeEntry(ILogEntry entry) {
+		for (int i = 0; i < handles.length; i++) {
+			if (i > 0)
+				writeByte((byte) ',');
+
+			char[] value = entry.getFieldValue(handles[i]);
+
+			if (value != null)
+				writeColumn(value, decodePassCounts[i]);
+		}
+
+		writeByte((byte) '\n');
+	}
+
+	private void writeColumn(char[] value, int decodePasses) {
+		// Reserve room for the quotes up front so nothing flushes mid-column
+		ensureCapacity(value.length * MAX_ESCAPE_LENGTH + 2);
+		int start = length;
+
+		/*
+		 * Optimistically write the value unquoted; in the rare case it
+		 * contained a char that requires quoting, shift it over to make room
+		 * for the opening quote and close it.
+		 */
+		if (writeValue(value, decodePasses)) {
+			System.arraycopy(buffer, start, buffer, start + 1, length - start);
+			buffer[start] = '"';
+			buffer[++length] = '"';
+			length++;
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,268 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.cloudfront;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Class used to represent an ad-hoc query over parsed log entries, compiled
+ * once against the {@link LogSchema} of the type of log it runs on, e.g.:
+ * 
+ * <pre>
+ * CompiledQuery query = CompiledQuery
+ * 		.compile(&quot;SELECT count(*), sum(bytes) WHERE status &gt;= 500 AND host = 'x' GROUP BY edge&quot;);
+ * QueryResult result = query.execute(new FileInputStream(file));
+ * </pre>
+ * 
+ * See {@link QueryCompiler} for the full grammar. Field names are resolved to
+ * {@link FieldHandle}s, comparisons to predicates specialized for their kind
+ * of comparison with the literal pre-converted, and the AND/OR operands are
+ * ordered cheapest first; per entry, the filter and aggregates run as a few
+ * array accesses over the entry's <code>char[]</code> values. The fields the
+ * query touches become the {@link LogParser#setProjection(FieldHandle[])
+ * projection} of the parser that executes it, so values of every other field
+ * are never copied out of the read buffer. Use {@link #explain()} to see the
+ * resulting plan.
+ * <p/>
+ * Comparisons are made against the raw values as they appear in the log
+ * (still percent-encoded); missing ('-') values only match
+ * <code>= NULL</code> and <code>!= NULL</code>.
+ * <p/>
+ * Instances are immutable and thread-safe; each execution accumulates into
+ * its own {@link QueryCallback}.
+ */
+public final class CompiledQuery {
+	static final int COUNT = 0;
+	static final int SUM = 1;
+	static final int MIN = 2;
+	static final int MAX = 3;
+	static final int AVG = 4;
+
+	static final String[] AGGREGATE_NAMES = { "count", "sum", "min", "max",
+			"avg" };
+
+	private String query;
+	private ILogEntry.Type type;
+
+	QueryPredicate filter;
+	FieldHandle groupBy;
+	int[] aggregateKinds;
+	FieldHandle[] aggregateFields;
+
+	private String[] columnNames;
+	private FieldHandle[] projection;
+
+	CompiledQuery(String query, ILogEntry.Type type, QueryPredicate filter,
+			FieldHandle groupBy, int[] aggregateKinds,
+			FieldHandle[] aggregateFields, String[] columnNames,
+			FieldHandle[] fields) {
+		this.query = query;
+		this.type = type;
+		this.filter = filter;
+		this.groupBy = groupBy;
+		this.aggregateKinds = aggregateKinds;
+		this.aggregateFields = aggregateFields;
+		this.columnNames = columnNames;
+
+		/*
+		 * A COUNT(*) with no filter needs no values at all; project down to
+		 * the first column so lines aren't tokenized past it.
+		 */
+		if (fields.length == 0)
+			fields = new FieldHandle[] { LogSchema.getSchema(type)
+					.getFieldHandle(0) };
+
+		// Schema order, which is usually the column order too.
+		for (int i = 1; i < fields.length; i++) {
+			FieldHandle field = fields[i];
+			int j = i - 1;
+
+			for (; j >= 0 && fields[j].getIndex() > field.getIndex(); j--)
+				fields[j + 1] = fields[j];
+
+			fields[j + 1] = field;
+		}
+
+		projection = fields;
+	}
+
+	/**
+	 * Used to compile the given query against the DOWNLOAD log schema.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>query</code> is <code>null</code> or malformed.
+	 */
+	public static CompiledQuery compile(String query)
+			throws IllegalArgumentException {
+		return compile(query, ILogEntry.Type.DOWNLOAD);
+	}
+
+	/**
+	 * Used to compile the given query against the schema of the given type
+	 * of log.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>query</code> or <code>type</code> is
+	 *             <code>null</code> or the query is malformed or refers to
+	 *             fields the schema doesn't have.
+	 */
+	public static CompiledQuery compile(String query, ILogEntry.Type type)
+			throws IllegalArgumentException {
+		if (query == null)
+			throw new IllegalArgumentException("query cannot be null");
+		if (type == null)
+			throw new IllegalArgumentException("type cannot be null");
+
+		return QueryCompiler.compile(query, type);
+	}
+
+	public String toString() {
+		return this.getClass().getName() + "@" + hashCode() + "[type=" + type
+				+ ", query=" + query + "]";
+	}
+
+	/**
+	 * Used to run the query over a single GZIP-compressed log file.
+	 */
+	public QueryResult execute(InputStream stream)
+			throws IllegalArgumentException, IOException,
+			MalformedContentException {
+		return execute(stream, new LogParser());
+	}
+
+	/**
+	 * Used to run the query over a single GZIP-compressed log file with the
+	 * given parser. The parser's projection is replaced for the duration of
+	 * the call.
+	 */
+	public QueryResult execute(InputStream stream, LogParser parser)
+			throws IllegalArgumentException, IOException,
+			MalformedContentException {
+		if (parser == null)
+			throw new IllegalArgumentException("parser cannot be null");
+
+		QueryCallback callback = createCallback();
+		FieldHandle[] previous = parser.getProjection();
+
+		parser.setProjection(projection);
+
+		try {
+			parser.parse(stream, callback);
+		} finally {
+			parser.setProjection(previous);
+		}
+
+		return callback.getResult();
+	}
+
+	/**
+	 * Used to create a new callback that evaluates the query against every
+	 * entry it is given, e.g. to run one query over many files (or a
+	 * {@link LogMerger}) and get a single result. Set {@link #getProjection()}
+	 * on the parser(s) feeding it to get the same performance as
+	 * {@link #execute(InputStream)}.
+	 */
+	public QueryCallback createCallback() {
+		return new QueryCallback(this);
+	}
+
+	/**
+	 * @return a description of how the query will be executed.
+	 */
+	public String explain() {
+		StringBuilder builder = new StringBuilder();
+
+		builder.append("Query: ").append(query);
+		builder.append("\nSchema: ").append(type);
+
+		builder.append("\nProjection: ");
+		appendNames(builder, projection);
+
+		builder.append("\nFilter: ");
+
+		if (filter == null)
+			builder.append("<none>");
+		else
+			filter.explain(builder);
+
+		builder.append("\nGroup by: ").append(
+				groupBy == null ? "<none>" : groupBy.getName());
+
+		builder.append("\nAggregates: ");
+
+		for (int i = 0; i < columnNames.length; i++) {
+			if (i > 0)
+				builder.append(", ");
+
+			builder.append(columnNames[i]);
+		}
+
+		return builder.toString();
+	}
+
+	public String getQuery() {
+		return query;
+	}
+
+	public ILogEntry.Type getType() {
+		return type;
+	}
+
+	/**
+	 * @return the names of the aggregate columns, e.g.
+	 *         <code>count(*)</code>.
+	 */
+	public String[] getColumnNames() {
+		return columnNames.clone();
+	}
+
+	/**
+	 * @return the field the results are grouped by or <code>null</code>.
+	 */
+	public FieldHandle getGroupBy() {
+		return groupBy;
+	}
+
+	/**
+	 * @return every field the query reads.
+	 */
+	public FieldHandle[] getProjection() {
+		return projection.clone();
+	}
+
+	static int getAggregateKind(String name) {
+		for (int i = 0; i < AGGREGATE_NAMES.length; i++) {
+			if (AGGREGATE_NAMES[i].equalsIgnoreCase(name))
+				return i;
+		}
+
+		return -1;
+	}
+
+	private static void appendNames(StringBuilder builder, FieldHandle[] fields) {
+		builder.append('[');
+
+		for (int i = 0; i < fields.length; i++) {
+			if (i > 0)
+				builder.append(", ");
+
+			builder.append(fields[i].getName());
+		}
+
+		builder.append(']');
+	}
+}
\ No newline at end of file
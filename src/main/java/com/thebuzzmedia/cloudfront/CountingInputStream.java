@@ -0,0 +1,60 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.cloudfront;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Simple pass-through stream used to count the number of bytes the parser
+ * pulls from the raw (compressed) source stream.
+ */
+class CountingInputStream extends FilterInputStream {
+	private LogParserMetrics metrics;
+
+	CountingInputStream(InputStream in, LogParserMetrics metrics) {
+		super(in);
+		this.metrics = metrics;
+	}
+
+	public int read() throws IOException {
+		int b = in.read();
+
+		if (b != -1)
+			metrics.compressedBytes++;
+
+		return b;
+	}
+
+	public int read(byte[] b, int off, int len) throws IOException {
+		int count = in.read(b, off, len);
+
+		if (count > 0)
+			metrics.compressedBytes += count;
+
+		return count;
+	}
+
+	public long skip(long n) throws IOException {
+		long count = in.skip(n);
+
+		if (count > 0)
+			metrics.compressedBytes += count;
+
+		return count;
+	}
+}
\ No newline at end of file
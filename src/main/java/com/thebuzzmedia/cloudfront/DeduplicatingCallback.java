@@ -0,0 +1,90 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.cloudfront;
+
+/**
+ * Class used to wrap another callback, only passing along log entries that a
+ * {@link RequestIdDeduplicator} has not seen before.
+ * <p/>
+ * Raw line bytes and directives are passed through to the wrapped callback if
+ * it is an {@link IRawLogParserCallback} (e.g. a
+ * {@link PartitionedLogWriter}), so this can be dropped in front of any
+ * existing callback. The same deduplicator can be shared across the parse
+ * operations of many files (but not across threads).
+ */
+public class DeduplicatingCallback implements IRawLogParserCallback {
+	private ILogParserCallback callback;
+	private IRawLogParserCallback rawCallback;
+	private RequestIdDeduplicator deduplicator;
+
+	public DeduplicatingCallback(ILogParserCallback callback)
+			throws IllegalArgumentException {
+		this(callback, new RequestIdDeduplicator());
+	}
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             if <code>callback</code> or <code>deduplicator</code> is
+	 *             <code>null</code>.
+	 */
+	public DeduplicatingCallback(ILogParserCallback callback,
+			RequestIdDeduplicator deduplicator) throws IllegalArgumentException {
+		if (callback == null)
+			throw new IllegalArgumentException("callback cannot be null");
+		if (deduplicator == null)
+			throw new IllegalArgumentException("deduplicator cannot be null");
+
+		this.callback = callback;
+		this.deduplicator = deduplicator;
+
+		if (callback instanceof IRawLogParserCallback)
+			rawCallback = (IRawLogParserCallback) callback;
+	}
+
+	public String toString() {
+		return this.getClass().getName() + "@" + hashCode() + "[callback="
+				+ callback + ", deduplicator=" + deduplicator + "]";
+	}
+
+	public void directiveParsed(byte[] line, int index, int length) {
+		if (rawCallback != null)
+			rawCallback.directiveParsed(line, index, length);
+	}
+
+	public void logEntryParsed(ILogEntry entry, byte[] line, int index,
+			int length) {
+		if (deduplicator.isDuplicate(entry))
+			return;
+
+		if (rawCallback != null)
+			rawCallback.logEntryParsed(entry, line, index, length);
+		else
+			callback.logEntryParsed(entry);
+	}
+
+	public void logEntryParsed(ILogEntry entry) {
+		if (!deduplicator.isDuplicate(entry))
+			callback.logEntryParsed(entry);
+	}
+
+	public ILogParserCallback getCallback() {
+		return callback;
+	}
+
+	public RequestIdDeduplicator getDeduplicator() {
+		return deduplicator;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,141 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.cloudfront;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Class used to build an index of every delimiter (space, tab, CR and LF)
+ * position in a read buffer in a single pass.
+ * <p/>
+ * Instead of testing one byte at a time against each of the
+ * {@link LogParser#DELIMITERS}, the scanner loads 8 bytes at a time into a
+ * <code>long</code> and uses SWAR (SIMD Within A Register) arithmetic to test
+ * all 8 bytes against all 4 delimiters with a handful of ALU operations. Only
+ * the positions of actual delimiters are then visited, so the per-byte cost of
+ * the scan is close to constant no matter how long the field values are.
+ * <p/>
+ * The resulting index is sorted in ascending order and is consumed by the
+ * {@link LogParser} to find line boundaries (the positions holding
+ * {@link LogParser#LF}) and field boundaries (everything else) without
+ * looking at the bytes in between again.
+ * <p/>
+ * Instances are not thread-safe and are meant to be owned by a single
+ * {@link LogParser}.
+ */
+final class DelimiterScanner {
+	private static final long ONES = 0x0101010101010101L;
+	private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+
+	private static final long SPACE_PATTERN = ONES * ' ';
+	private static final long TAB_PATTERN = ONES * '\t';
+	private static final long CR_PATTERN = ONES * '\r';
+	private static final long LF_PATTERN = ONES * '\n';
+
+	private static final int DEFAULT_CAPACITY = 4096;
+
+	int[] positions;
+	int size;
+
+	private byte[] wrappedBuffer;
+	private ByteBuffer longView;
+
+	DelimiterScanner() {
+		positions = new int[DEFAULT_CAPACITY];
+	}
+
+	/**
+	 * Scan the bytes in the given range of the buffer, replacing the current
+	 * contents of the index with the positions of every delimiter found.
+	 */
+	void scan(byte[] buffer, int index, int length) {
+		size = 0;
+
+		// Re-wrap only when the parser swaps in a different buffer.
+		if (buffer != wrappedBuffer) {
+			wrappedBuffer = buffer;
+			longView = ByteBuffer.wrap(buffer).order(ByteOrder.LITTLE_ENDIAN);
+		}
+
+		int i = index;
+		int end = index + length;
+
+		// Process 8 bytes at a time.
+		for (int wordEnd = end - 7; i < wordEnd; i += 8) {
+			long word = longView.getLong(i);
+
+			long mask = zeroBytes(word ^ SPACE_PATTERN)
+					| zeroBytes(word ^ TAB_PATTERN)
+					| zeroBytes(word ^ CR_PATTERN)
+					| zeroBytes(word ^ LF_PATTERN);
+
+			/*
+			 * Each matching byte has its high bit set in the mask; because the
+			 * view is little-endian the lowest set bit is the first match.
+			 */
+			while (mask != 0) {
+				add(i + (Long.numberOfTrailingZeros(mask) >>> 3));
+				mask &= (mask - 1);
+			}
+		}
+
+		// Finish up any trailing bytes that didn't fill a whole word.
+		for (; i < end; i++) {
+			switch (buffer[i]) {
+			case ' ':
+			case '\t':
+			case '\r':
+			case '\n':
+				add(i);
+				break;
+			}
+		}
+	}
+
+	/**
+	 * @return the position (in the index) of the last delimiter holding the
+	 *         given byte value or <code>-1</code> if none was found.
+	 */
+	int lastIndexOf(byte value, byte[] buffer) {
+		for (int i = size - 1; i >= 0; i--) {
+			if (buffer[positions[i]] == value)
+				return i;
+		}
+
+		return -1;
+	}
+
+	private void add(int position) {
+		if (size == positions.length) {
+			int[] grown = new int[positions.length * 2];
+			System.arraycopy(positions, 0, grown, 0, size);
+			positions = grown;
+		}
+
+		positions[size++] = position;
+	}
+
+	/**
+	 * Exact (no false positives) test for zero bytes: the high bit of every
+	 * byte that was 0 in the given word is set in the result, all other bits
+	 * are cleared.
+	 */
+	private static long zeroBytes(long word) {
+		long t = (word & LOW_BITS) + LOW_BITS;
+		return ~(t | word | LOW_BITS);
+	}
+}
\ No newline at end of file
@@ -0,0 +1,108 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.cloudfront;
+
+/**
+ * Class used to hold a snapshot of the queue of a single distribution in a
+ * {@link ParseScheduler}.
+ */
+public class DistributionMetrics {
+	String name;
+	int weight;
+	boolean realtime;
+
+	int queueDepth;
+	long queuedCost;
+	long lagMillis;
+	int runningCount;
+
+	long completedCount;
+	long failedCount;
+	long totalWaitMillis;
+
+	public String toString() {
+		return this.getClass().getName() + "@" + hashCode() + "[name=" + name
+				+ ", weight=" + weight + ", realtime=" + realtime
+				+ ", queueDepth=" + queueDepth + ", queuedCost=" + queuedCost
+				+ ", lagMillis=" + lagMillis + ", runningCount="
+				+ runningCount + ", completedCount=" + completedCount
+				+ ", failedCount=" + failedCount + ", averageWaitMillis="
+				+ getAverageWaitMillis() + "]";
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getWeight() {
+		return weight;
+	}
+
+	/**
+	 * @return <code>true</code> if the distribution's jobs are served from
+	 *         the priority lane.
+	 */
+	public boolean isRealtime() {
+		return realtime;
+	}
+
+	/**
+	 * @return the number of jobs waiting to run.
+	 */
+	public int getQueueDepth() {
+		return queueDepth;
+	}
+
+	/**
+	 * @return the total cost (e.g. bytes) of the jobs waiting to run.
+	 */
+	public long getQueuedCost() {
+		return queuedCost;
+	}
+
+	/**
+	 * @return how long the oldest waiting job has been queued for or
+	 *         <code>0</code> if none are.
+	 */
+	public long getLagMillis() {
+		return lagMillis;
+	}
+
+	/**
+	 * @return the number of jobs currently running on a worker.
+	 */
+	public int getRunningCount() {
+		return runningCount;
+	}
+
+	public long getCompletedCount() {
+		return completedCount;
+	}
+
+	/**
+	 * @return the number of completed jobs that threw an exception.
+	 */
+	public long getFailedCount() {
+		return failedCount;
+	}
+
+	/**
+	 * @return the average time completed jobs waited in the queue.
+	 */
+	public long getAverageWaitMillis() {
+		return (completedCount == 0 ? 0 : totalWaitMillis / completedCount);
+	}
+}
\ No newline at end of file
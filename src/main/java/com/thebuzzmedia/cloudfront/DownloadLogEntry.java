@@ -15,39 +15,84 @@
  */
 package com.thebuzzmedia.cloudfront;
 
-import java.util.HashMap;
-import java.util.Map;
-
 public class DownloadLogEntry extends AbstractLogEntry {
-	protected static final String[] FIELD_NAMES = { "date", "time",
-			"x-edge-location", "sc-bytes", "c-ip", "cs-method", "cs(Host)",
-			"cs-uri-stem", "sc-status", "cs(Referer)", "cs(User-Agent)",
-			"cs-uri-query", "cs(Cookie)", "x-edge-result-type",
-			"x-edge-request-id" };
-
-	protected static final Map<String, Integer> FIELD_INDEX_MAP = new HashMap<String, Integer>(
-			MAX_DOWNLOAD_FIELDS * 5);
+	public static final LogSchema SCHEMA = LogSchema.DOWNLOAD;
 
-	static {
-		for (int i = 0; i < FIELD_NAMES.length; i++)
-			FIELD_INDEX_MAP.put(FIELD_NAMES[i], i);
-	}
+	public static final FieldHandle DATE = SCHEMA.getFieldHandle("date");
+	public static final FieldHandle TIME = SCHEMA.getFieldHandle("time");
+	public static final FieldHandle EDGE_LOCATION = SCHEMA
+			.getFieldHandle("x-edge-location");
+	public static final FieldHandle BYTES = SCHEMA.getFieldHandle("sc-bytes");
+	public static final FieldHandle CLIENT_IP = SCHEMA.getFieldHandle("c-ip");
+	public static final FieldHandle METHOD = SCHEMA.getFieldHandle("cs-method");
+	public static final FieldHandle HOST = SCHEMA.getFieldHandle("cs(Host)");
+	public static final FieldHandle URI_STEM = SCHEMA
+			.getFieldHandle("cs-uri-stem");
+	public static final FieldHandle STATUS = SCHEMA.getFieldHandle("sc-status");
+	public static final FieldHandle REFERER = SCHEMA
+			.getFieldHandle("cs(Referer)");
+	public static final FieldHandle USER_AGENT = SCHEMA
+			.getFieldHandle("cs(User-Agent)");
+	public static final FieldHandle URI_QUERY = SCHEMA
+			.getFieldHandle("cs-uri-query");
+	public static final FieldHandle COOKIE = SCHEMA.getFieldHandle("cs(Cookie)");
+	public static final FieldHandle EDGE_RESULT_TYPE = SCHEMA
+			.getFieldHandle("x-edge-result-type");
+	public static final FieldHandle EDGE_REQUEST_ID = SCHEMA
+			.getFieldHandle("x-edge-request-id");
+	public static final FieldHandle HOST_HEADER = SCHEMA
+			.getFieldHandle("x-host-header");
+	public static final FieldHandle PROTOCOL = SCHEMA
+			.getFieldHandle("cs-protocol");
+	public static final FieldHandle REQUEST_BYTES = SCHEMA
+			.getFieldHandle("cs-bytes");
+	public static final FieldHandle TIME_TAKEN = SCHEMA
+			.getFieldHandle("time-taken");
+	public static final FieldHandle FORWARDED_FOR = SCHEMA
+			.getFieldHandle("x-forwarded-for");
+	public static final FieldHandle SSL_PROTOCOL = SCHEMA
+			.getFieldHandle("ssl-protocol");
+	public static final FieldHandle SSL_CIPHER = SCHEMA
+			.getFieldHandle("ssl-cipher");
+	public static final FieldHandle EDGE_RESPONSE_RESULT_TYPE = SCHEMA
+			.getFieldHandle("x-edge-response-result-type");
+	public static final FieldHandle PROTOCOL_VERSION = SCHEMA
+			.getFieldHandle("cs-protocol-version");
+	public static final FieldHandle FLE_STATUS = SCHEMA
+			.getFieldHandle("fle-status");
+	public static final FieldHandle FLE_ENCRYPTED_FIELDS = SCHEMA
+			.getFieldHandle("fle-encrypted-fields");
+	public static final FieldHandle CLIENT_PORT = SCHEMA
+			.getFieldHandle("c-port");
+	public static final FieldHandle TIME_TO_FIRST_BYTE = SCHEMA
+			.getFieldHandle("time-to-first-byte");
+	public static final FieldHandle EDGE_DETAILED_RESULT_TYPE = SCHEMA
+			.getFieldHandle("x-edge-detailed-result-type");
+	public static final FieldHandle CONTENT_TYPE = SCHEMA
+			.getFieldHandle("sc-content-type");
+	public static final FieldHandle CONTENT_LENGTH = SCHEMA
+			.getFieldHandle("sc-content-len");
+	public static final FieldHandle RANGE_START = SCHEMA
+			.getFieldHandle("sc-range-start");
+	public static final FieldHandle RANGE_END = SCHEMA
+			.getFieldHandle("sc-range-end");
 
 	public DownloadLogEntry() throws IllegalArgumentException {
-		super(Type.DOWNLOAD, new char[MAX_DOWNLOAD_FIELDS][]);
-	}
-
-	public String[] getFieldNames() {
-		return FIELD_NAMES;
+		super(SCHEMA);
 	}
 
-	public int getFieldIndex(String fieldName) {
-		Integer index = FIELD_INDEX_MAP.get(fieldName);
-		return (index == null ? INVALID_INDEX : index.intValue());
+	/**
+	 * Used by the {@link LogParser} to create entries of its own extension of
+	 * {@link #SCHEMA}.
+	 */
+	DownloadLogEntry(LogSchema schema) throws IllegalArgumentException {
+		super(schema);
 	}
 
-	public char[] getFieldValue(String fieldName) {
-		Integer index = FIELD_INDEX_MAP.get(fieldName);
-		return (index == null ? null : values[index.intValue()]);
+	/**
+	 * CloudFront URL-encodes the cs(User-Agent) value twice.
+	 */
+	protected int getDecodePassCount(int fieldIndex) {
+		return (fieldIndex == USER_AGENT.getIndex() ? 2 : 1);
 	}
 }
\ No newline at end of file
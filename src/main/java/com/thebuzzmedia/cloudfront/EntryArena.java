@@ -0,0 +1,456 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.cloudfront;
+
+import java.nio.ByteBuffer;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Class used to retain large numbers of parsed log entries outside of the Java
+ * heap.
+ * <p/>
+ * The {@link ILogEntry} given to a callback is re-used for the next line, so
+ * retaining entries normally means copying every <code>char[]</code> value
+ * onto the heap; millions of entries become tens of millions of small objects
+ * for the GC to trace. Instead, {@link #add(ILogEntry)} packs all the values
+ * of an entry into a single contiguous record (one byte per char) in a large
+ * direct {@link ByteBuffer} chunk and returns a <code>long</code> handle for
+ * it. Handles can be kept in a <code>long[]</code> and read back through a
+ * flyweight {@link ArenaLogEntry} view (see {@link #createView()}) that can
+ * be pointed at any handle, or with {@link #getFieldValue(long, FieldHandle)}.
+ * <p/>
+ * A record is laid out as:
+ * 
+ * <pre>
+ * schema (2 bytes) | flags (1 byte) | field count (2 bytes) | null bitmap |
+ * end offset of each value (2 or 4 bytes each) | value bytes
+ * </pre>
+ * 
+ * The schema is an index into a small per-arena table of the
+ * {@link LogSchema}s of the entries added, so fields a parser learned from a
+ * <code>#Fields:</code> directive (see {@link LogSchema#getBase()}) can be
+ * read back through the views like any other.
+ * 
+ * Trailing empty fields are not stored at all. Chars outside of the ASCII
+ * range (which the parser only produces for undecodable bytes, as U+FFFD) are
+ * stored as a single marker byte and read back as U+FFFD.
+ * <p/>
+ * Memory is only ever released in bulk: {@link #clear()} keeps the chunks to
+ * be re-filled and {@link #close()} drops them all (the direct memory is freed
+ * when the few chunk buffers are collected). Handles are invalid after either
+ * call.
+ * <p/>
+ * Instances are not thread-safe.
+ */
+public class EntryArena {
+	/**
+	 * Default chunk size (4MB); records larger than the chunk size get a
+	 * chunk of their own.
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 4 * 1024 * 1024;
+
+	static final int HEADER_SIZE = 5;
+	static final int WIDE_FLAG = 1;
+
+	/**
+	 * Byte stored for any char outside of the ASCII range.
+	 */
+	static final byte NON_ASCII_MARKER = (byte) 0xFF;
+
+	private static final int MAX_SCHEMA_COUNT = 0xFFFF;
+
+	private int chunkSize;
+
+	private ByteBuffer[] chunks;
+	private int[] chunkUsage;
+	private int chunkCount;
+
+	/**
+	 * The chunk records are currently appended to; oversized records are
+	 * written to chunks of their own without changing it.
+	 */
+	private int currentChunk = -1;
+
+	private long entryCount;
+	private long memoryUsage;
+	private boolean closed;
+
+	private byte[] scratch;
+
+	private LogSchema[] schemas;
+	private int schemaCount;
+	private Map<LogSchema, Integer> schemaIndexes;
+
+	public EntryArena() {
+		this(DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             if <code>chunkSize</code> is &lt; 1024.
+	 */
+	public EntryArena(int chunkSize) throws IllegalArgumentException {
+		if (chunkSize < 1024)
+			throw new IllegalArgumentException("chunkSize [" + chunkSize
+					+ "] must be >= 1024");
+
+		this.chunkSize = chunkSize;
+
+		chunks = new ByteBuffer[16];
+		chunkUsage = new int[16];
+		scratch = new byte[1024];
+
+		schemas = new LogSchema[4];
+		schemaIndexes = new IdentityHashMap<LogSchema, Integer>();
+	}
+
+	public String toString() {
+		return this.getClass().getName() + "@" + hashCode() + "[chunkSize="
+				+ chunkSize + ", chunkCount=" + chunkCount + ", entryCount="
+				+ entryCount + ", memoryUsage=" + memoryUsage + ", closed="
+				+ closed + "]";
+	}
+
+	/**
+	 * Used to copy the values of the given entry into the arena.
+	 * 
+	 * @return the handle of the copy.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>entry</code> is <code>null</code>.
+	 * @throws IllegalStateException
+	 *             if the arena has been closed or already holds entries of
+	 *             65535 different schemas.
+	 */
+	public long add(ILogEntry entry) throws IllegalArgumentException,
+			IllegalStateException {
+		if (entry == null)
+			throw new IllegalArgumentException("entry cannot be null");
+
+		ensureOpen();
+
+		int schema = getSchemaIndex(entry.getSchema());
+		char[][] values = entry.getFieldValues();
+		int fieldCount = values.length;
+
+		// Trailing empty fields aren't worth storing.
+		while (fieldCount > 0 && values[fieldCount - 1] == null)
+			fieldCount--;
+
+		int dataLength = 0;
+
+		for (int i = 0; i < fieldCount; i++) {
+			if (values[i] != null)
+				dataLength += values[i].length;
+		}
+
+		boolean wide = (dataLength > 0xFFFF);
+		int offsetWidth = (wide ? 4 : 2);
+		int bitmapLength = (fieldCount + 7) >>> 3;
+		int tableStart = HEADER_SIZE + bitmapLength;
+		int dataStart = tableStart + fieldCount * offsetWidth;
+		int recordLength = dataStart + dataLength;
+
+		if (scratch.length < recordLength)
+			scratch = new byte[Math.max(recordLength, scratch.length * 2)];
+
+		byte[] record = scratch;
+
+		record[0] = (byte) (schema >>> 8);
+		record[1] = (byte) schema;
+		record[2] = (byte) (wide ? WIDE_FLAG : 0);
+		record[3] = (byte) (fieldCount >>> 8);
+		record[4] = (byte) fieldCount;
+
+		for (int i = 0; i < bitmapLength; i++)
+			record[HEADER_SIZE + i] = 0;
+
+		// Build the whole record on the heap, then copy it off-heap at once.
+		for (int i = 0, end = 0, t = tableStart, d = dataStart; i < fieldCount; i++) {
+			char[] value = values[i];
+
+			if (value == null)
+				record[HEADER_SIZE + (i >>> 3)] |= (byte) (1 << (i & 7));
+			else {
+				for (int j = 0; j < value.length; j++) {
+					char c = value[j];
+					record[d++] = (c < 0x80 ? (byte) c : NON_ASCII_MARKER);
+				}
+
+				end += value.length;
+			}
+
+			if (wide) {
+				record[t++] = (byte) (end >>> 24);
+				record[t++] = (byte) (end >>> 16);
+			}
+
+			record[t++] = (byte) (end >>> 8);
+			record[t++] = (byte) end;
+		}
+
+		int index = allocate(recordLength);
+		int offset = chunkUsage[index];
+		ByteBuffer chunk = chunks[index];
+
+		chunk.position(offset);
+		chunk.put(record, 0, recordLength);
+		chunkUsage[index] += recordLength;
+
+		entryCount++;
+		return ((long) index << 32) | offset;
+	}
+
+	/**
+	 * Used to create a new view that can be pointed at any of the entries in
+	 * this arena.
+	 */
+	public ArenaLogEntry createView() {
+		return new ArenaLogEntry(this);
+	}
+
+	/**
+	 * Convenience method used to create a new view of the given entry.
+	 */
+	public ArenaLogEntry view(long handle) throws IllegalArgumentException,
+			IllegalStateException {
+		ArenaLogEntry view = new ArenaLogEntry(this);
+		view.setHandle(handle);
+		return view;
+	}
+
+	/**
+	 * Used to read a single value of the given entry without a view.
+	 * 
+	 * @return a copy of the value or <code>null</code> if it is empty.
+	 */
+	public char[] getFieldValue(long handle, FieldHandle field)
+			throws IllegalArgumentException, IllegalStateException {
+		if (field == null)
+			throw new IllegalArgumentException("field cannot be null");
+
+		ByteBuffer chunk = getChunk(handle);
+		int offset = (int) handle;
+
+		if (!getSchema(chunk, offset).contains(field))
+			throw new IllegalArgumentException("field [" + field.getName()
+					+ "] does not belong to the schema of entry [" + handle
+					+ "]");
+
+		return readValue(chunk, offset, field.getIndex());
+	}
+
+	/**
+	 * Used to drop every entry, keeping the chunks allocated so far to be
+	 * re-filled. Every handle handed out before is invalid afterwards.
+	 */
+	public void clear() throws IllegalStateException {
+		ensureOpen();
+
+		for (int i = 0; i < chunkCount; i++)
+			chunkUsage[i] = 0;
+
+		currentChunk = -1;
+		entryCount = 0;
+		clearSchemas();
+	}
+
+	/**
+	 * Used to drop all the chunks held by the arena at once; their direct
+	 * memory is freed when the GC collects them. Every handle and view is
+	 * invalid afterwards.
+	 */
+	public void close() {
+		for (int i = 0; i < chunkCount; i++) {
+			chunks[i] = null;
+			chunkUsage[i] = 0;
+		}
+
+		chunkCount = 0;
+		currentChunk = -1;
+		entryCount = 0;
+		memoryUsage = 0;
+		closed = true;
+		clearSchemas();
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	public long getEntryCount() {
+		return entryCount;
+	}
+
+	public int getChunkCount() {
+		return chunkCount;
+	}
+
+	/**
+	 * @return the direct (off-heap) memory held, in bytes.
+	 */
+	public long getMemoryUsage() {
+		return memoryUsage;
+	}
+
+	ByteBuffer getChunk(long handle) throws IllegalArgumentException,
+			IllegalStateException {
+		ensureOpen();
+
+		int chunk = (int) (handle >>> 32);
+		int offset = (int) handle;
+
+		if (handle < 0 || chunk >= chunkCount || offset >= chunkUsage[chunk])
+			throw new IllegalArgumentException("handle [" + handle
+					+ "] is not a valid handle for this arena");
+
+		return chunks[chunk];
+	}
+
+	/**
+	 * @return the schema of the entry the record at the given offset was
+	 *         copied from.
+	 */
+	LogSchema getSchema(ByteBuffer chunk, int offset) {
+		return schemas[((chunk.get(offset) & 0xFF) << 8)
+				| (chunk.get(offset + 1) & 0xFF)];
+	}
+
+	static int getStoredFieldCount(ByteBuffer chunk, int offset) {
+		return ((chunk.get(offset + 3) & 0xFF) << 8)
+				| (chunk.get(offset + 4) & 0xFF);
+	}
+
+	/**
+	 * Used to decode a single value of the record at the given offset.
+	 */
+	static char[] readValue(ByteBuffer chunk, int offset, int fieldIndex) {
+		int fieldCount = getStoredFieldCount(chunk, offset);
+
+		if (fieldIndex >= fieldCount
+				|| (chunk.get(offset + HEADER_SIZE + (fieldIndex >>> 3)) & (1 << (fieldIndex & 7))) != 0)
+			return null;
+
+		boolean wide = (chunk.get(offset + 2) & WIDE_FLAG) != 0;
+		int tableStart = offset + HEADER_SIZE + ((fieldCount + 7) >>> 3);
+		int dataStart = tableStart + fieldCount * (wide ? 4 : 2);
+
+		int start = (fieldIndex == 0 ? 0 : readOffset(chunk, tableStart,
+				fieldIndex - 1, wide));
+		int end = readOffset(chunk, tableStart, fieldIndex, wide);
+
+		char[] value = new char[end - start];
+
+		for (int i = 0, p = dataStart + start; i < value.length; i++, p++) {
+			byte b = chunk.get(p);
+			value[i] = (b == NON_ASCII_MARKER ? '\uFFFD' : (char) b);
+		}
+
+		return value;
+	}
+
+	private static int readOffset(ByteBuffer chunk, int tableStart,
+			int fieldIndex, boolean wide) {
+		return (wide ? chunk.getInt(tableStart + fieldIndex * 4) : chunk
+				.getShort(tableStart + fieldIndex * 2) & 0xFFFF);
+	}
+
+	/**
+	 * Used to find a chunk with room for a record of the given length,
+	 * moving on to (or allocating) the next chunk if the current one is full.
+	 * 
+	 * @return the index of the chunk.
+	 */
+	private int allocate(int recordLength) {
+		if (recordLength > chunkSize) {
+			// Re-use an empty oversized chunk kept by clear() if one fits.
+			for (int i = 0; i < chunkCount; i++) {
+				if (chunkUsage[i] == 0 && i != currentChunk
+						&& chunks[i].capacity() >= recordLength)
+					return i;
+			}
+
+			return addChunk(recordLength);
+		}
+
+		if (currentChunk != -1
+				&& chunks[currentChunk].capacity() - chunkUsage[currentChunk] >= recordLength)
+			return currentChunk;
+
+		// Re-use the chunks kept by clear() first.
+		for (int i = currentChunk + 1; i < chunkCount; i++) {
+			if (chunkUsage[i] == 0)
+				return (currentChunk = i);
+		}
+
+		return (currentChunk = addChunk(chunkSize));
+	}
+
+	private int addChunk(int capacity) {
+		if (chunkCount == chunks.length) {
+			ByteBuffer[] grown = new ByteBuffer[chunks.length * 2];
+			System.arraycopy(chunks, 0, grown, 0, chunkCount);
+			chunks = grown;
+
+			int[] grownUsage = new int[grown.length];
+			System.arraycopy(chunkUsage, 0, grownUsage, 0, chunkCount);
+			chunkUsage = grownUsage;
+		}
+
+		ByteBuffer chunk = ByteBuffer.allocateDirect(capacity);
+
+		chunks[chunkCount] = chunk;
+		memoryUsage += chunk.capacity();
+
+		return chunkCount++;
+	}
+
+	private int getSchemaIndex(LogSchema schema) throws IllegalStateException {
+		Integer index = schemaIndexes.get(schema);
+
+		if (index != null)
+			return index.intValue();
+
+		if (schemaCount == MAX_SCHEMA_COUNT)
+			throw new IllegalStateException("arena already holds entries of "
+					+ MAX_SCHEMA_COUNT + " different schemas");
+
+		if (schemaCount == schemas.length) {
+			LogSchema[] grown = new LogSchema[schemas.length * 2];
+			System.arraycopy(schemas, 0, grown, 0, schemaCount);
+			schemas = grown;
+		}
+
+		schemas[schemaCount] = schema;
+		schemaIndexes.put(schema, Integer.valueOf(schemaCount));
+
+		return schemaCount++;
+	}
+
+	private void clearSchemas() {
+		for (int i = 0; i < schemaCount; i++)
+			schemas[i] = null;
+
+		schemaCount = 0;
+		schemaIndexes.clear();
+	}
+
+	private void ensureOpen() throws IllegalStateException {
+		if (closed)
+			throw new IllegalStateException("arena has been closed");
+	}
+}
\ No newline at end of file
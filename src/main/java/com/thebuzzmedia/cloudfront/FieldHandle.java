@@ -0,0 +1,62 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.cloudfront;
+
+/**
+ * Class used to represent a resolved field in a {@link LogSchema}.
+ * <p/>
+ * A handle is resolved once, by name, from a schema (or taken from one of the
+ * constants on {@link DownloadLogEntry} or {@link StreamingLogEntry}) and then
+ * used to read values from any {@link ILogEntry} of the same type with a
+ * single array access; no hashing or string comparison is involved.
+ * <p/>
+ * Handles are canonical; there is exactly one instance per field name per
+ * schema and it stays valid for the life of the VM, so they can be safely
+ * stored in static fields.
+ */
+public final class FieldHandle {
+	private LogSchema schema;
+	private String name;
+	private int index;
+
+	FieldHandle(LogSchema schema, String name, int index) {
+		this.schema = schema;
+		this.name = name;
+		this.index = index;
+	}
+
+	public String toString() {
+		return this.getClass().getName() + "@" + hashCode() + "[type="
+				+ schema.getType() + ", name=" + name + ", index=" + index
+				+ "]";
+	}
+
+	public LogSchema getSchema() {
+		return schema;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the index of the field's value in
+	 *         {@link ILogEntry#getFieldValues()}.
+	 */
+	public int getIndex() {
+		return index;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,88 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.cloudfront;
+
+/**
+ * {@link IPartitioner} that assigns every entry to the partition named after
+ * the value of one of its fields.
+ * <p/>
+ * The field is named instead of given as a {@link FieldHandle} because a
+ * handle belongs to a single schema; the name is resolved against both the
+ * DOWNLOAD and STREAMING schemas up front. Entries of a type that doesn't
+ * define the field go to the default partition.
+ */
+public class FieldPartitioner implements IPartitioner {
+	/**
+	 * Partitions entries by day (the <code>date</code> field).
+	 */
+	public static final FieldPartitioner BY_DATE = new FieldPartitioner(
+			"date");
+
+	/**
+	 * Partitions DOWNLOAD entries by the distribution's host name (the
+	 * <code>cs(Host)</code> field).
+	 */
+	public static final FieldPartitioner BY_HOST = new FieldPartitioner(
+			"cs(Host)");
+
+	/**
+	 * Partitions entries by the edge location that served them (the
+	 * <code>x-edge-location</code> field).
+	 */
+	public static final FieldPartitioner BY_EDGE = new FieldPartitioner(
+			"x-edge-location");
+
+	private String fieldName;
+
+	private FieldHandle downloadHandle;
+	private FieldHandle streamingHandle;
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             if <code>fieldName</code> is <code>null</code>, empty or not
+	 *             the name of a DOWNLOAD or STREAMING field.
+	 */
+	public FieldPartitioner(String fieldName) throws IllegalArgumentException {
+		if (fieldName == null || fieldName.length() == 0)
+			throw new IllegalArgumentException(
+					"fieldName cannot be null or empty");
+
+		downloadHandle = LogSchema.DOWNLOAD.getFieldHandle(fieldName);
+		streamingHandle = LogSchema.STREAMING.getFieldHandle(fieldName);
+
+		if (downloadHandle == null && streamingHandle == null)
+			throw new IllegalArgumentException("fieldName [" + fieldName
+					+ "] is not a DOWNLOAD or STREAMING field");
+
+		this.fieldName = fieldName;
+	}
+
+	public String toString() {
+		return this.getClass().getName() + "@" + hashCode() + "[fieldName="
+				+ fieldName + "]";
+	}
+
+	public String getFieldName() {
+		return fieldName;
+	}
+
+	public char[] getPartitionKey(ILogEntry entry) {
+		FieldHandle handle = (entry.getType() == ILogEntry.Type.DOWNLOAD ? downloadHandle
+				: streamingHandle);
+
+		return (handle == null ? null : entry.getFieldValue(handle));
+	}
+}
\ No newline at end of file
@@ -16,9 +16,21 @@
 package com.thebuzzmedia.cloudfront;
 
 public interface ILogEntry {
+	/**
+	 * @deprecated The number of fields in the original DOWNLOAD log format;
+	 *             newer formats define more. Use
+	 *             {@link LogSchema#getFieldCount()} instead.
+	 */
+	@Deprecated
 	public static final int MAX_DOWNLOAD_FIELDS = 15;
+
+	/**
+	 * @deprecated The number of fields in the original STREAMING log format.
+	 *             Use {@link LogSchema#getFieldCount()} instead.
+	 */
+	@Deprecated
 	public static final int MAX_STREAMING_FIELDS = 17;
-	
+
 	public static final int INVALID_INDEX = -1;
 
 	public static final char EMPTY_VALUE_FLAG = '-';
@@ -31,6 +43,11 @@ public interface ILogEntry {
 
 	public Type getType();
 
+	/**
+	 * @return the schema describing the fields this entry can hold.
+	 */
+	public LogSchema getSchema();
+
 	public int getFieldCount();
 
 	public String[] getFieldNames();
@@ -41,8 +58,66 @@ public interface ILogEntry {
 
 	public char[] getFieldValue(String fieldName);
 
+	/**
+	 * Used to get the value of the field identified by the given handle. This
+	 * is the fastest way to get at a value; it is a single array access.
+	 * 
+	 * @param handle
+	 *            The handle of the field, resolved from this entry's schema.
+	 * 
+	 * @return the value of the field or <code>null</code> if the field was
+	 *         empty or not present in the log being parsed.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>handle</code> is <code>null</code> or belongs to a
+	 *             different schema than this entry.
+	 */
+	public char[] getFieldValue(FieldHandle handle)
+			throws IllegalArgumentException;
+
 	public char[][] getFieldValues();
 
+	/**
+	 * Used to get the percent-decoded (URL-decoded) form of the given field's
+	 * value.
+	 * <p/>
+	 * Decoding is lazy; it is only performed the first time the decoded value
+	 * of a field is requested for the current entry and the result is cached
+	 * until the entry is reset with the next line's values. Fields CloudFront
+	 * encodes more than once (e.g. <code>cs(User-Agent)</code>) are fully
+	 * decoded.
+	 * 
+	 * @param fieldIndex
+	 *            The index of the field.
+	 * 
+	 * @return the decoded value, which is the same instance returned by
+	 *         {@link #getFieldValue(int)} if the value didn't contain any
+	 *         escape sequences.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>fieldIndex</code> is &lt; 0 or &gt;=
+	 *             {@link #getFieldCount()}.
+	 */
+	public char[] getDecodedFieldValue(int fieldIndex)
+			throws IllegalArgumentException;
+
+	/**
+	 * Convenience method used to get the decoded value of the named field.
+	 * 
+	 * @see #getDecodedFieldValue(int)
+	 */
+	public char[] getDecodedFieldValue(String fieldName);
+
+	/**
+	 * Convenience method used to get the decoded value of the field
+	 * identified by the given handle.
+	 * 
+	 * @see #getDecodedFieldValue(int)
+	 * @see #getFieldValue(FieldHandle)
+	 */
+	public char[] getDecodedFieldValue(FieldHandle handle)
+			throws IllegalArgumentException;
+
 	public void setFieldValue(int fieldIndex, char[] value)
 			throws IllegalArgumentException;
 }
\ No newline at end of file
@@ -0,0 +1,42 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.cloudfront;
+
+/**
+ * Interface used to describe a unit of work (typically parsing one log file)
+ * run by a {@link ParseScheduler} worker.
+ * 
+ * @param <T>
+ *            The type of the job's result.
+ */
+public interface IParseJob<T> {
+	/**
+	 * Called on a worker thread to run the job.
+	 * 
+	 * @param parser
+	 *            The worker's parser. Every worker owns its parser, so the job
+	 *            has exclusive use of it for the duration of the call, but it
+	 *            is re-used for the worker's next job; settings changed on it
+	 *            (e.g. projection or sampling) should be restored.
+	 * 
+	 * @return the result of the job.
+	 * 
+	 * @throws Exception
+	 *             if the job fails; reported through the job's
+	 *             {@link java.util.concurrent.Future}.
+	 */
+	public T run(LogParser parser) throws Exception;
+}
\ No newline at end of file
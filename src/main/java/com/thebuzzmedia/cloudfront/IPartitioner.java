@@ -0,0 +1,39 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.cloudfront;
+
+/**
+ * Interface used to describe a strategy for assigning log entries to
+ * partitions, see {@link PartitionedLogWriter}.
+ */
+public interface IPartitioner {
+	/**
+	 * Used to determine the partition the given entry belongs in.
+	 * <p/>
+	 * This is called once per log entry, so implementations should avoid
+	 * allocating. Returning one of the entry's own field values (which are
+	 * safe to hold onto) is ideal; the caller never modifies the returned
+	 * array.
+	 * 
+	 * @param entry
+	 *            The entry to assign.
+	 * 
+	 * @return the partition key for the entry; <code>null</code> or an empty
+	 *         array put the entry into the partition named
+	 *         {@link PartitionedLogWriter#DEFAULT_PARTITION_KEY}.
+	 */
+	public char[] getPartitionKey(ILogEntry entry);
+}
\ No newline at end of file
@@ -0,0 +1,43 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.cloudfront;
+
+/**
+ * Interface used to describe a callback that receives the lines a
+ * {@link LogParser} in tolerant mode (see
+ * {@link LogParser#setQuarantineCallback(IQuarantineCallback)}) could not
+ * parse, instead of the whole parse operation failing.
+ */
+public interface IQuarantineCallback {
+	/**
+	 * Called for every line that was skipped.
+	 * <p/>
+	 * The bytes are only valid for the duration of the call, implementations
+	 * that want to keep them must copy them.
+	 * 
+	 * @param line
+	 *            The buffer holding the raw bytes of the line.
+	 * @param index
+	 *            The index of the first byte of the line.
+	 * @param length
+	 *            The number of bytes of the line; lines that were too long to
+	 *            be buffered are truncated.
+	 * @param reason
+	 *            A description of why the line was skipped.
+	 */
+	public void lineQuarantined(byte[] line, int index, int length,
+			String reason);
+}
\ No newline at end of file
@@ -0,0 +1,61 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.cloudfront;
+
+/**
+ * Extension of {@link ILogParserCallback} for callbacks that also want the raw
+ * bytes of every line, exactly as they were read from the log, e.g. to copy
+ * lines to another file without formatting them back into text.
+ * <p/>
+ * When the callback given to the {@link LogParser} implements this interface,
+ * the parser calls {@link #logEntryParsed(ILogEntry, byte[], int, int)}
+ * instead of {@link #logEntryParsed(ILogEntry)} for every log entry and
+ * reports every directive line (those starting with '#') to
+ * {@link #directiveParsed(byte[], int, int)}.
+ * <p/>
+ * The <code>line</code> arrays are the parser's internal read buffer and, just
+ * like the {@link ILogEntry}, are only valid for the scope of the callback's
+ * method. Implementations must copy out any bytes they want to keep and must
+ * never modify them.
+ */
+public interface IRawLogParserCallback extends ILogParserCallback {
+	/**
+	 * Called for every directive line in the log.
+	 * 
+	 * @param line
+	 *            The buffer containing the line.
+	 * @param index
+	 *            The index of the line's first byte (the '#').
+	 * @param length
+	 *            The length of the line, including its terminating \n.
+	 */
+	public void directiveParsed(byte[] line, int index, int length);
+
+	/**
+	 * Called for every log entry line in the log.
+	 * 
+	 * @param entry
+	 *            The parsed entry.
+	 * @param line
+	 *            The buffer containing the line.
+	 * @param index
+	 *            The index of the line's first byte.
+	 * @param length
+	 *            The length of the line, including its terminating \n.
+	 */
+	public void logEntryParsed(ILogEntry entry, byte[] line, int index,
+			int length);
+}
\ No newline at end of file
@@ -0,0 +1,34 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.cloudfront;
+
+/**
+ * Interface used to describe a callback that receives the viewing sessions
+ * reconstructed by a {@link StreamingSessionizer} as they are closed.
+ */
+public interface IStreamingSessionCallback {
+	/**
+	 * Called once for every session that was closed.
+	 * <p/>
+	 * The {@link StreamingSession} instance is re-used for every call and is
+	 * only valid for the duration of it; implementations that want to keep
+	 * the summary must copy the values they need.
+	 * 
+	 * @param session
+	 *            The summary of the closed session.
+	 */
+	public void sessionClosed(StreamingSession session);
+}
\ No newline at end of file
@@ -0,0 +1,91 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.cloudfront;
+
+import java.io.OutputStream;
+
+/**
+ * Exporter used to write parsed log entries out as JSON Lines (also known as
+ * NDJSON); one JSON object per line, keyed by field name.
+ * <p/>
+ * All values are written as JSON strings, empty values are written as
+ * <code>null</code>. The encoded keys are computed once when the fields are
+ * resolved, not per entry.
+ */
+public class JSONLogExporter extends AbstractLogExporter {
+	private static final byte[][] ESCAPES = new byte[256][];
+	private static final byte[] HEX = toBytes("0123456789abcdef");
+	private static final byte[] NULL = toBytes("null");
+
+	static {
+		for (int i = 0; i < 0x20; i++)
+			ESCAPES[i] = new byte[] { '\\', 'u', '0', '0', HEX[i >> 4],
+					HEX[i & 0xF] };
+
+		ESCAPES['\t'] = new byte[] { '\\', 't' };
+		ESCAPES['\r'] = new byte[] { '\\', 'r' };
+		ESCAPES['\n'] = new byte[] { '\\', 'n' };
+		ESCAPES['"'] = new byte[] { '\\', '"' };
+		ESCAPES['\\'] = new byte[] { '\\', '\\' };
+	}
+
+	/**
+	 * Pre-encoded <code>"name":</code> (with a leading comma for all but the
+	 * first) for each exported field.
+	 */
+	private byte[][] keys;
+
+	public JSONLogExporter(OutputStream out) throws IllegalArgumentException {
+		this(out, true, null);
+	}
+
+	/**
+	 * @see AbstractLogExporter#AbstractLogExporter(OutputStream, boolean,
+	 *      String[], byte[][], boolean[])
+	 */
+	public JSONLogExporter(OutputStream out, boolean decode,
+			String[] fieldNames) throws IllegalArgumentException {
+		super(out, decode, fieldNames, ESCAPES, null);
+	}
+
+	protected void writeHeader(String[] names) {
+		keys = new byte[names.length][];
+
+		for (int i = 0; i < names.length; i++)
+			keys[i] = toBytes((i == 0 ? "{\"" : ",\"")
+					+ names[i].replace("\\", "\\\\").replace("\"", "\\\"")
+					+ "\":");
+	}
+
+	protected void writeEntry(ILogEntry entry) {
+		for (int i = 0; i < handles.length; i++) {
+			writeBytes(keys[i]);
+
+			char[] value = entry.getFieldValue(handles[i]);
+
+			if (value == null)
+				writeBytes(NULL);
+			else {
+				writeByte((byte) '"');
+				writeValue(value, decodePassCounts[i]);
+				writeByte((byte) '"');
+			}
+		}
+
+		writeByte((byte) '}');
+		writeByte((byte) '\n');
+	}
+}
\ No newline at end of file
@@ -0,0 +1,277 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.cloudfront;
+
+import java.io.IOException;
+import java.io.InputStream;
+/**
+ * Class used to step through the log entries of a single GZIP-compressed log
+ * file one entry at a time (pull-style), instead of having every entry pushed
+ * to a callback by {@link LogParser#parse(InputStream, ILogParserCallback)}.
+ * <p/>
+ * Each cursor owns its own {@link LogParser}; the entry returned by
+ * {@link #getEntry()} is the parser's re-used wrapper and the raw line bytes
+ * live in the parser's read buffer, so both are only valid until the next
+ * call to {@link #next()}. The memory held by a cursor is bounded by the
+ * parser's read buffer and the GZIP buffer no matter how big the file is,
+ * which is what allows a {@link LogMerger} to hold many of them open at once.
+ * <p/>
+ * Instances are not thread-safe.
+ */
+public class LogCursor {
+	private static final byte[] FIELDS_PREFIX = { '#', 'F', 'i', 'e', 'l',
+			'd', 's', ':' };
+
+	private InputStream stream;
+	private LogParser parser;
+	private PooledGZIPInputStream gzipStream;
+
+	private Capture capture;
+	private boolean endOfStream;
+	private boolean finished;
+
+	private long timestamp = TimestampUtils.INVALID_TIMESTAMP;
+
+	/*
+	 * Directive lines stepped over on the way to the current entry, and the
+	 * block of directives holding the most recent #Fields: line (copied from
+	 * the former when it changes). Used by LogMerger to replay a source's
+	 * directives right before that source's entries.
+	 */
+	byte[] directives;
+	int directivesLength;
+	boolean headerChanged;
+
+	byte[] header;
+	int headerLength;
+	int fieldsIndex;
+	int fieldsLength;
+
+	private int pendingFieldsIndex;
+	private int pendingFieldsLength;
+
+	public LogCursor(InputStream stream) throws IllegalArgumentException,
+			IOException {
+		this(stream, new LogParser());
+	}
+
+	/**
+	 * Create a new cursor over the given GZIP-compressed log content.
+	 * 
+	 * @param stream
+	 *            The GZIP-compressed log content.
+	 * @param parser
+	 *            The parser to use; it is reset and must not be used for
+	 *            anything else until the cursor is closed.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>stream</code> or <code>parser</code> is
+	 *             <code>null</code>.
+	 * @throws IOException
+	 *             if the GZIP header can't be read from the stream.
+	 */
+	public LogCursor(InputStream stream, LogParser parser)
+			throws IllegalArgumentException, IOException {
+		if (stream == null)
+			throw new IllegalArgumentException("stream cannot be null");
+		if (parser == null)
+			throw new IllegalArgumentException("parser cannot be null");
+
+		this.stream = stream;
+		this.parser = parser;
+
+		parser.reset();
+
+		gzipStream = new PooledGZIPInputStream(new CountingInputStream(
+				stream, parser.getMetrics()), parser.getBufferPool(),
+				LogParser.GZIP_BUFFER_SIZE);
+		capture = new Capture();
+	}
+
+	public String toString() {
+		return this.getClass().getName() + "@" + hashCode() + "[timestamp="
+				+ timestamp + ", endOfStream=" + endOfStream + ", finished="
+				+ finished + ", parser=" + parser + "]";
+	}
+
+	/**
+	 * Used to advance the cursor to the next log entry in the file.
+	 * 
+	 * @return <code>true</code> if the cursor is positioned on a new entry or
+	 *         <code>false</code> if the end of the file was reached.
+	 */
+	public boolean next() throws IOException, MalformedContentException {
+		capture.entry = null;
+		directivesLength = 0;
+		headerChanged = false;
+
+		while (true) {
+			if (parser.parseNextLine(capture)) {
+				// Line was a directive, keep going.
+				if (capture.entry == null)
+					continue;
+
+				if (headerChanged)
+					copyHeader();
+
+				timestamp = TimestampUtils.getTimestamp(capture.entry);
+				return true;
+			}
+
+			if (!endOfStream) {
+				if (parser.read(gzipStream) == -1)
+					endOfStream = true;
+			} else if (!finished) {
+				finished = true;
+
+				// Don't lose a last line that is missing its terminating \n.
+				parser.finish();
+			} else {
+				timestamp = TimestampUtils.INVALID_TIMESTAMP;
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Used to close the underlying stream and give the parser's buffers back
+	 * to its pool.
+	 */
+	public void close() throws IOException {
+		capture.entry = null;
+
+		try {
+			gzipStream.close();
+		} finally {
+			parser.releaseBuffer();
+		}
+	}
+
+	/**
+	 * @return the current entry or <code>null</code> if the cursor hasn't
+	 *         been advanced yet or is at the end of the file.
+	 */
+	public ILogEntry getEntry() {
+		return capture.entry;
+	}
+
+	/**
+	 * @return the timestamp of the current entry (see
+	 *         {@link TimestampUtils#getTimestamp(ILogEntry)}).
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * @return the buffer holding the raw bytes of the current entry's line.
+	 */
+	public byte[] getLine() {
+		return capture.line;
+	}
+
+	public int getLineIndex() {
+		return capture.index;
+	}
+
+	/**
+	 * @return the length of the current entry's line, including the trailing
+	 *         \n.
+	 */
+	public int getLineLength() {
+		return capture.length;
+	}
+
+	public InputStream getStream() {
+		return stream;
+	}
+
+	public LogParser getParser() {
+		return parser;
+	}
+
+	private void copyHeader() {
+		if (header == null || header.length < directivesLength)
+			header = new byte[directives.length];
+
+		System.arraycopy(directives, 0, header, 0, directivesLength);
+		headerLength = directivesLength;
+		fieldsIndex = pendingFieldsIndex;
+		fieldsLength = pendingFieldsLength;
+	}
+
+	private void addDirective(byte[] line, int index, int length) {
+		if (directives == null)
+			directives = new byte[Math.max(256, length)];
+		else if (directivesLength + length > directives.length) {
+			byte[] newDirectives = new byte[Math.max(directives.length * 2,
+					directivesLength + length)];
+			System.arraycopy(directives, 0, newDirectives, 0,
+					directivesLength);
+			directives = newDirectives;
+		}
+
+		if (isFieldsDirective(line, index, length)) {
+			headerChanged = true;
+			pendingFieldsIndex = directivesLength;
+			pendingFieldsLength = length;
+		}
+
+		System.arraycopy(line, index, directives, directivesLength, length);
+		directivesLength += length;
+	}
+
+	private static boolean isFieldsDirective(byte[] line, int index,
+			int length) {
+		if (length < FIELDS_PREFIX.length)
+			return false;
+
+		for (int i = 0; i < FIELDS_PREFIX.length; i++) {
+			if (line[index + i] != FIELDS_PREFIX[i])
+				return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Callback used to hold on to the entry the parser just produced so the
+	 * cursor can hand it out after {@link LogParser#parseNextLine} returns.
+	 */
+	private class Capture implements IRawLogParserCallback {
+		private ILogEntry entry;
+		private byte[] line;
+		private int index;
+		private int length;
+
+		public void directiveParsed(byte[] line, int index, int length) {
+			addDirective(line, index, length);
+		}
+
+		public void logEntryParsed(ILogEntry entry, byte[] line, int index,
+				int length) {
+			this.entry = entry;
+			this.line = line;
+			this.index = index;
+			this.length = length;
+		}
+
+		public void logEntryParsed(ILogEntry entry) {
+			this.entry = entry;
+			this.line = null;
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,309 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.cloudfront;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Class used to merge the entries of many log files into a single stream
+ * ordered by timestamp (see {@link TimestampUtils#getTimestamp(ILogEntry)}),
+ * e.g. the dozens of files from different edge locations that make up one
+ * hour of a distribution's traffic.
+ * <p/>
+ * Every source is read through its own {@link LogCursor} and the head entry
+ * of each is kept in a binary min-heap of primitive <code>long</code>
+ * timestamps (ties are broken by source order, so the merge is stable). Only
+ * the head of each source is ever held, so memory is bounded by the number of
+ * sources times the size of one parser's buffers, not by the size of the
+ * files.
+ * <p/>
+ * The output is only globally ordered if every source is itself ordered; an
+ * entry older than one already emitted is emitted as soon as it is reached
+ * and counted by {@link #getOutOfOrderCount()}. Entries without a valid
+ * timestamp sort first.
+ * <p/>
+ * If the callback is an {@link IRawLogParserCallback} it is also given the
+ * raw line bytes of each entry and the directives of its source, which are
+ * held back and passed on right before that source's next entry. While the
+ * <code>#Fields:</code> directives of all sources match, only the first
+ * header is passed on, so a merged stream can be written straight back out
+ * (e.g. with a {@link PartitionedLogWriter}) as a single log.
+ * <p/>
+ * Instances are not thread-safe.
+ */
+public class LogMerger {
+	private long[] keys;
+	private int[] sources;
+	private int size;
+
+	private long outOfOrderCount;
+
+	private byte[] fields;
+	private int fieldsLength;
+	private boolean[] headerMatches;
+
+	public LogMerger() {
+		keys = new long[16];
+		sources = new int[16];
+		headerMatches = new boolean[16];
+	}
+
+	public String toString() {
+		return this.getClass().getName() + "@" + hashCode() + "[size=" + size
+				+ ", outOfOrderCount=" + outOfOrderCount + "]";
+	}
+
+	/**
+	 * Used to merge the given GZIP-compressed log files, closing them all
+	 * when done.
+	 * 
+	 * @return the number of entries passed to the callback.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>streams</code> or <code>callback</code> is
+	 *             <code>null</code>.
+	 */
+	public long merge(InputStream[] streams, ILogParserCallback callback)
+			throws IllegalArgumentException, IOException,
+			MalformedContentException {
+		if (streams == null)
+			throw new IllegalArgumentException("streams cannot be null");
+
+		LogCursor[] cursors = new LogCursor[streams.length];
+
+		try {
+			for (int i = 0; i < streams.length; i++)
+				cursors[i] = new LogCursor(streams[i]);
+
+			return merge(cursors, callback);
+		} finally {
+			for (int i = 0; i < streams.length; i++) {
+				try {
+					if (cursors[i] != null)
+						cursors[i].close();
+					else if (streams[i] != null)
+						streams[i].close();
+				} catch (IOException e) {
+					// no-op, nothing the caller could do about it either.
+				}
+			}
+		}
+	}
+
+	/**
+	 * Used to merge the remaining entries of the given cursors. The cursors
+	 * are left open.
+	 * 
+	 * @return the number of entries passed to the callback.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>cursors</code> or <code>callback</code> is
+	 *             <code>null</code>.
+	 */
+	public long merge(LogCursor[] cursors, ILogParserCallback callback)
+			throws IllegalArgumentException, IOException,
+			MalformedContentException {
+		if (cursors == null)
+			throw new IllegalArgumentException("cursors cannot be null");
+		if (callback == null)
+			throw new IllegalArgumentException("callback cannot be null");
+
+		IRawLogParserCallback rawCallback = (callback instanceof IRawLogParserCallback ? (IRawLogParserCallback) callback
+				: null);
+
+		size = 0;
+		outOfOrderCount = 0;
+
+		fieldsLength = 0;
+
+		if (cursors.length > keys.length) {
+			keys = new long[cursors.length];
+			sources = new int[cursors.length];
+			headerMatches = new boolean[cursors.length];
+		}
+
+		// Prime the heap with the head entry of every source.
+		for (int i = 0; i < cursors.length; i++) {
+			headerMatches[i] = false;
+
+			if (cursors[i].next())
+				push(cursors[i].getTimestamp(), i);
+		}
+
+		long count = 0;
+		long last = Long.MIN_VALUE;
+
+		while (size > 0) {
+			LogCursor cursor = cursors[sources[0]];
+			long timestamp = keys[0];
+
+			if (timestamp < last)
+				outOfOrderCount++;
+			else
+				last = timestamp;
+
+			if (rawCallback != null)
+				writeDirectives(cursor, sources[0], rawCallback);
+
+			if (rawCallback != null && cursor.getLine() != null)
+				rawCallback.logEntryParsed(cursor.getEntry(), cursor.getLine(),
+						cursor.getLineIndex(), cursor.getLineLength());
+			else
+				callback.logEntryParsed(cursor.getEntry());
+
+			count++;
+
+			// Replace the head with the source's next entry, or drop it.
+			if (cursor.next()) {
+				keys[0] = cursor.getTimestamp();
+				siftDown(0);
+			} else {
+				size--;
+
+				if (size > 0) {
+					keys[0] = keys[size];
+					sources[0] = sources[size];
+					siftDown(0);
+				}
+			}
+		}
+
+		return count;
+	}
+
+	/**
+	 * @return the number of entries in the last merge that were older than an
+	 *         entry already emitted before them.
+	 */
+	public long getOutOfOrderCount() {
+		return outOfOrderCount;
+	}
+
+	/**
+	 * Used to pass the directives the cursor stepped over on the way to its
+	 * current entry to the callback. A source's header is only written when
+	 * its <code>#Fields:</code> line differs from the last one written, so as
+	 * long as all sources agree the output has a single header.
+	 */
+	private void writeDirectives(LogCursor cursor, int source,
+			IRawLogParserCallback callback) {
+		if (cursor.headerChanged)
+			headerMatches[source] = false;
+
+		if (!headerMatches[source]) {
+			if (cursor.fieldsLength > 0
+					&& !equalsFields(cursor.header, cursor.fieldsIndex,
+							cursor.fieldsLength)) {
+				writeLines(cursor.header, cursor.headerLength, callback);
+
+				if (fields == null || fields.length < cursor.fieldsLength)
+					fields = new byte[cursor.fieldsLength];
+
+				System.arraycopy(cursor.header, cursor.fieldsIndex, fields, 0,
+						cursor.fieldsLength);
+				fieldsLength = cursor.fieldsLength;
+
+				// Every other source has to be checked against the new header.
+				for (int i = 0; i < headerMatches.length; i++)
+					headerMatches[i] = false;
+			}
+
+			headerMatches[source] = true;
+		}
+
+		// Other directives (a new header was handled above).
+		if (cursor.directivesLength > 0 && !cursor.headerChanged)
+			writeLines(cursor.directives, cursor.directivesLength, callback);
+	}
+
+	private boolean equalsFields(byte[] line, int index, int length) {
+		if (length != fieldsLength)
+			return false;
+
+		for (int i = 0; i < length; i++) {
+			if (line[index + i] != fields[i])
+				return false;
+		}
+
+		return true;
+	}
+
+	private static void writeLines(byte[] lines, int length,
+			IRawLogParserCallback callback) {
+		int start = 0;
+
+		for (int i = 0; i < length; i++) {
+			if (lines[i] == '\n') {
+				callback.directiveParsed(lines, start, i - start + 1);
+				start = i + 1;
+			}
+		}
+
+		if (start < length)
+			callback.directiveParsed(lines, start, length - start);
+	}
+
+	private void push(long key, int source) {
+		int i = size++;
+
+		// Sift up
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+
+			if (!less(key, source, keys[parent], sources[parent]))
+				break;
+
+			keys[i] = keys[parent];
+			sources[i] = sources[parent];
+			i = parent;
+		}
+
+		keys[i] = key;
+		sources[i] = source;
+	}
+
+	private void siftDown(int i) {
+		long key = keys[i];
+		int source = sources[i];
+		int half = size >>> 1;
+
+		while (i < half) {
+			int child = (i << 1) + 1;
+			int right = child + 1;
+
+			if (right < size
+					&& less(keys[right], sources[right], keys[child],
+							sources[child]))
+				child = right;
+
+			if (!less(keys[child], sources[child], key, source))
+				break;
+
+			keys[i] = keys[child];
+			sources[i] = sources[child];
+			i = child;
+		}
+
+		keys[i] = key;
+		sources[i] = source;
+	}
+
+	private static boolean less(long key, int source, long otherKey,
+			int otherSource) {
+		return key < otherKey || (key == otherKey && source < otherSource);
+	}
+}
\ No newline at end of file
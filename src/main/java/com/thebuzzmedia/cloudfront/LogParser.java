@@ -19,11 +19,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.zip.GZIPInputStream;
 
 import com.thebuzzmedia.common.IToken;
 import com.thebuzzmedia.common.charset.DecodingUtils;
@@ -34,6 +31,7 @@ import com.thebuzzmedia.common.util.ArrayUtils;
 public class LogParser {
 	public static final String BUFFER_SIZE_PROPERTY_NAME = "cloudfront.logparser.bufferSize";
 	public static final String GZIP_BUFFER_SIZE_PROPERTY_NAME = "cloudfront.logparser.gzipBufferSize";
+	public static final String MAX_BUFFER_SIZE_PROPERTY_NAME = "cloudfront.logparser.maxBufferSize";
 
 	public static final int BUFFER_SIZE = Integer.getInteger(
 			BUFFER_SIZE_PROPERTY_NAME, 32768);
@@ -41,6 +39,14 @@ public class LogParser {
 	public static final int GZIP_BUFFER_SIZE = Integer.getInteger(
 			GZIP_BUFFER_SIZE_PROPERTY_NAME, 32768);
 
+	/**
+	 * Size the read buffer is allowed to grow to in order to fit a single
+	 * (unusually long) line; it shrinks back to {@link #BUFFER_SIZE} once it
+	 * is no longer needed.
+	 */
+	public static final int MAX_BUFFER_SIZE = Integer.getInteger(
+			MAX_BUFFER_SIZE_PROPERTY_NAME, 1048576);
+
 	public static final byte LF = 10; // \n
 
 	public static final char[] DELIMITERS = { ' ', '\t', '\r', '\n' };
@@ -48,9 +54,21 @@ public class LogParser {
 	private static final int MIN_BUFFER_SIZE = 1024;
 	private static final int MIN_GZIP_BUFFER_SIZE = 1024;
 
+	/**
+	 * Number of consecutive reads a grown buffer must go without needing the
+	 * extra room before it is shrunk back down.
+	 */
+	private static final int SHRINK_AFTER_READS = 16;
+
 	private static final char[] FIELDS_DIRECTIVE_PREFIX = { '#', 'F', 'i', 'e',
 			'l', 'd', 's', ':' };
 
+	/**
+	 * Column mapping for values that belong to a known field that isn't part
+	 * of the current projection.
+	 */
+	private static final int PROJECTED_OUT_INDEX = -2;
+
 	/**
 	 * Map containing a collection of field names that belong only to DOWNLOAD
 	 * distribution log files or STREAMING distribution log files. In order for
@@ -80,6 +98,13 @@ public class LogParser {
 							+ MIN_GZIP_BUFFER_SIZE
 							+ ". You must increase this value for the parser to operate correctly.");
 
+		if (MAX_BUFFER_SIZE < BUFFER_SIZE)
+			throw new RuntimeException("System property '"
+					+ MAX_BUFFER_SIZE_PROPERTY_NAME
+					+ "' must be set to a value >= the '"
+					+ BUFFER_SIZE_PROPERTY_NAME + "' value of " + BUFFER_SIZE
+					+ ".");
+
 		// Init the detection map with DOWNLOAD-only fields
 		LOG_TYPE_DETECTION_MAP.put("cs-method", ILogEntry.Type.DOWNLOAD);
 		LOG_TYPE_DETECTION_MAP.put("sc-status", ILogEntry.Type.DOWNLOAD);
@@ -102,49 +127,140 @@ public class LogParser {
 		LOG_TYPE_DETECTION_MAP.put("x-sid", ILogEntry.Type.STREAMING);
 	}
 
+	/**
+	 * Position in the buffer of the first byte of the next unprocessed line.
+	 */
 	private int index;
+
+	/**
+	 * Number of valid bytes in the buffer.
+	 */
 	private int length;
+
 	private int readCount;
+
+	/**
+	 * The read buffer; taken from the <code>bufferPool</code> on the first
+	 * read and given back when the parse is done (or the buffer is replaced
+	 * by a bigger or smaller one).
+	 */
 	private byte[] buffer;
+	private BufferPool bufferPool;
+	private int readsSinceGrowth;
+
+	/**
+	 * In tolerant mode the callback given bad lines; <code>skipping</code> is
+	 * set while the rest of a line that didn't fit into the buffer is being
+	 * thrown away.
+	 */
+	private IQuarantineCallback quarantineCallback;
+	private boolean skipping;
+
+	/**
+	 * Position in the delimiter index of the next delimiter to process and of
+	 * the last LF in the buffer (or -1); every line that starts before that LF
+	 * is complete and can be parsed.
+	 */
+	private int dIndex;
+	private int lastLF;
 
 	private ILogEntry.Type logType;
 
-	private ILogEntry logEntryWrapper;
-	private ILogEntry downloadLogEntryWrapper;
-	private ILogEntry streamingLogEntryWrapper;
+	private AbstractLogEntry logEntryWrapper;
+	private AbstractLogEntry downloadLogEntryWrapper;
+	private AbstractLogEntry streamingLogEntryWrapper;
 
 	private List<String> parsedFieldNames;
-	private List<Integer> activeFieldIndices;
-	private Set<Integer> skippedFieldPositionSet;
 	private IDelimitedTokenizer<char[], char[]> tokenizer;
 
+	/**
+	 * Maps the position of each value in a log entry line (column) to the
+	 * index of the field it is stored in on the {@link ILogEntry} or
+	 * {@link ILogEntry#INVALID_INDEX} if the field is unknown and the value is
+	 * skipped. Only the first <code>columnCount</code> entries are valid.
+	 */
+	private int[] columnFieldIndices;
+	private int columnCount;
+
+	/**
+	 * Fields the caller asked to have values for (see
+	 * {@link #setProjection(FieldHandle[])}) or <code>null</code> for all of
+	 * them. Columns of any other field are mapped to
+	 * {@link #PROJECTED_OUT_INDEX} and lines are only tokenized up to
+	 * <code>columnLimit</code>, the column after the last projected one.
+	 */
+	private FieldHandle[] projection;
+	private int columnLimit;
+
+	/**
+	 * Only 1 in every <code>sampleRate</code> lines is parsed (see
+	 * {@link #setSampling(int, FieldHandle)}); either every
+	 * <code>sampleRate</code>-th line (counted down by
+	 * <code>sampleCountdown</code>) or, if <code>sampleField</code> is set and
+	 * present in the log (at <code>sampleColumn</code>), the lines whose
+	 * value for it hashes to a multiple of <code>sampleRate</code>.
+	 */
+	private int sampleRate = 1;
+	private FieldHandle sampleField;
+	private int sampleColumn = -1;
+	private int sampleCountdown;
+
+	private DelimiterScanner scanner;
+
+	private LogParserMetrics metrics;
+
 	public LogParser() {
-		buffer = new byte[BUFFER_SIZE];
+		this(BufferPool.getSharedPool());
+	}
+
+	/**
+	 * Create a new parser that takes its buffers from the given pool.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>bufferPool</code> is <code>null</code>.
+	 */
+	public LogParser(BufferPool bufferPool) throws IllegalArgumentException {
+		if (bufferPool == null)
+			throw new IllegalArgumentException("bufferPool cannot be null");
+
+		this.bufferPool = bufferPool;
 		tokenizer = new CharArrayTokenizer();
+		scanner = new DelimiterScanner();
 
 		/*
 		 * Have tokenizer re-use the same IToken<char[]> instance when reporting
-		 * tokens to us down in the parseLogEntry method. We don't expose the
-		 * underlying token outside of this class and we don't store it, so we
-		 * can save on memory allocation and CPU time by doing this.
+		 * tokens to us down in the parseFieldsDirective method. We don't
+		 * expose the underlying token outside of this class and we don't store
+		 * it, so we can save on memory allocation and CPU time by doing this.
 		 */
 		tokenizer.setReuseToken(true);
 
-		// Pre-alloc the two wrapper instances this parser will ever use
+		/*
+		 * Pre-alloc the wrappers for the base schemas; they are only replaced
+		 * when a #Fields: directive names fields the schemas don't know.
+		 */
 		downloadLogEntryWrapper = new DownloadLogEntry();
 		streamingLogEntryWrapper = new StreamingLogEntry();
 
-		// Pre-size both lists to the max possible size (streaming field count)
-		parsedFieldNames = new ArrayList<String>(ILogEntry.MAX_STREAMING_FIELDS);
-		activeFieldIndices = new ArrayList<Integer>(
-				ILogEntry.MAX_STREAMING_FIELDS);
-		skippedFieldPositionSet = new HashSet<Integer>();
+		/*
+		 * Size the per-column state for the larger of the two base schemas
+		 * (DOWNLOAD); a #Fields: directive with more columns grows it. The
+		 * read and GZIP buffers aren't allocated here, they are taken from the
+		 * pool when parsing starts.
+		 */
+		parsedFieldNames = new ArrayList<String>(
+				LogSchema.DOWNLOAD.getFieldCount());
+		columnFieldIndices = new int[LogSchema.DOWNLOAD.getFieldCount()];
+
+		metrics = new LogParserMetrics();
 	}
 
 	public String toString() {
 		return this.getClass().getName() + "@" + hashCode() + "[index=" + index
-				+ ", length=" + length + ", bufferSize=" + buffer.length
-				+ ", readCount=" + readCount + ", logType=" + logType + "]";
+				+ ", length=" + length + ", bufferSize="
+				+ (buffer == null ? 0 : buffer.length)
+				+ ", readCount=" + readCount + ", logType=" + logType
+				+ ", metrics=" + metrics + "]";
 	}
 
 	public void reset() {
@@ -152,13 +268,178 @@ public class LogParser {
 		length = 0;
 		readCount = 0;
 
+		dIndex = 0;
+		lastLF = -1;
+		skipping = false;
+
 		logType = null;
 		logEntryWrapper = null;
 
 		tokenizer.reset();
 		parsedFieldNames.clear();
-		activeFieldIndices.clear();
-		skippedFieldPositionSet.clear();
+		columnCount = 0;
+		columnLimit = Integer.MAX_VALUE;
+
+		sampleColumn = -1;
+		sampleCountdown = 1;
+
+		metrics.reset();
+		metrics.sampleRate = sampleRate;
+		metrics.sampleFieldName = (sampleField == null ? null : sampleField
+				.getName());
+	}
+
+	/**
+	 * Used to get the counters collected during the most recent (or current)
+	 * parse operation.
+	 * <p/>
+	 * The returned instance is owned by this parser and is reset at the
+	 * beginning of every call to
+	 * {@link #parse(InputStream, ILogParserCallback)}; callers that want to
+	 * keep the values for a file (e.g. to report them to a monitoring system)
+	 * must read them before the parser is re-used.
+	 * 
+	 * @return the metrics collected by this parser.
+	 */
+	public LogParserMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Used to limit the fields the parser stores values for. Values of every
+	 * other field of the same schema are left <code>null</code> without being
+	 * copied out of the read buffer, and the rest of a line is not tokenized
+	 * at all once the last projected column has been reached. This makes a
+	 * big difference for callers (like a {@link CompiledQuery}) that only
+	 * look at a handful of the 30+ fields of a DOWNLOAD log.
+	 * <p/>
+	 * Schemas none of the given handles belong to are not affected. The
+	 * projection takes effect at the next <code>#Fields:</code> directive, so
+	 * it should be set before a file is parsed; it stays in effect until it is
+	 * changed (it is not cleared by {@link #reset()}).
+	 * 
+	 * @param fields
+	 *            The fields to store values for or <code>null</code> to store
+	 *            them all (the default).
+	 */
+	public void setProjection(FieldHandle[] fields) {
+		if (fields == null)
+			projection = null;
+		else {
+			projection = new FieldHandle[fields.length];
+			System.arraycopy(fields, 0, projection, 0, fields.length);
+		}
+	}
+
+	/**
+	 * @return a copy of the current projection or <code>null</code> if every
+	 *         field is stored.
+	 */
+	public FieldHandle[] getProjection() {
+		if (projection == null)
+			return null;
+
+		FieldHandle[] copy = new FieldHandle[projection.length];
+		System.arraycopy(projection, 0, copy, 0, projection.length);
+		return copy;
+	}
+
+	/**
+	 * Used to only parse 1 in every <code>rate</code> log entry lines; every
+	 * <code>rate</code>-th line, starting with the first.
+	 * 
+	 * @see #setSampling(int, FieldHandle)
+	 */
+	public void setSampling(int rate) throws IllegalArgumentException {
+		setSampling(rate, null);
+	}
+
+	/**
+	 * Used to only parse roughly 1 in every <code>rate</code> log entry lines
+	 * to cheaply compute trends over big logs.
+	 * <p/>
+	 * With a <code>field</code>, a line is sampled if the hash of its raw
+	 * value for that field is a multiple of <code>rate</code>; e.g. sampling on
+	 * <code>c-ip</code> keeps either all or none of the lines of a client, and
+	 * makes the same decision for that client in every file and every run.
+	 * The value is located using the delimiter index and hashed straight from
+	 * the read buffer. Logs that don't have the field fall back to sampling
+	 * every <code>rate</code>-th line.
+	 * <p/>
+	 * Lines that are not sampled are never tokenized and the callback is not
+	 * notified for them; they cost little more than finding the end of the
+	 * line. The rate and the number of skipped lines are reported by the
+	 * {@link LogParserMetrics} so counts and sums can be scaled back up.
+	 * <p/>
+	 * Like the projection, sampling stays in effect until it is changed and
+	 * should be set before a file is parsed.
+	 * 
+	 * @param rate
+	 *            The sampling rate, <code>1</code> parses every line (the
+	 *            default).
+	 * @param field
+	 *            The field to sample on or <code>null</code> to sample every
+	 *            <code>rate</code>-th line.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>rate</code> is &lt; 1.
+	 */
+	public void setSampling(int rate, FieldHandle field)
+			throws IllegalArgumentException {
+		if (rate < 1)
+			throw new IllegalArgumentException("rate [" + rate
+					+ "] must be >= 1");
+
+		sampleRate = rate;
+		sampleField = field;
+
+		metrics.sampleRate = rate;
+		metrics.sampleFieldName = (field == null ? null : field.getName());
+	}
+
+	public int getSampleRate() {
+		return sampleRate;
+	}
+
+	/**
+	 * @return the field lines are sampled on or <code>null</code>.
+	 */
+	public FieldHandle getSampleField() {
+		return sampleField;
+	}
+
+	/**
+	 * Used to switch the parser to tolerant mode: lines that can't be parsed
+	 * are given to the callback and skipped instead of failing the whole
+	 * parse operation with a {@link MalformedContentException}. Those are:
+	 * <ul>
+	 * <li>Lines longer than {@link #MAX_BUFFER_SIZE} (truncated).</li>
+	 * <li>Log entry lines before a valid <code>#Fields:</code> directive, and
+	 * <code>#Fields:</code> directives the type of log can't be determined
+	 * from.</li>
+	 * <li>Log entry lines with fewer values than the parser needs (e.g. a line
+	 * that was cut off).</li>
+	 * </ul>
+	 * The number of skipped lines is reported by the
+	 * {@link LogParserMetrics}.
+	 * 
+	 * @param callback
+	 *            The callback to give bad lines to or <code>null</code> to
+	 *            fail on them (the default).
+	 */
+	public void setQuarantineCallback(IQuarantineCallback callback) {
+		quarantineCallback = callback;
+	}
+
+	public IQuarantineCallback getQuarantineCallback() {
+		return quarantineCallback;
+	}
+
+	/**
+	 * @return the pool the parser takes its buffers from.
+	 */
+	public BufferPool getBufferPool() {
+		return bufferPool;
 	}
 
 	public void parse(InputStream stream, ILogParserCallback callback)
@@ -172,127 +453,30 @@ public class LogParser {
 		// Reset parser state
 		reset();
 
-		// Prepare GZIP stream for reading.
-		GZIPInputStream gzipStream = new GZIPInputStream(stream,
-				GZIP_BUFFER_SIZE);
-
 		/*
-		 * When reading new bytes from the GZip stream into our internal buffer,
-		 * be sure to insert it after any kept data from the previous iteration
-		 * (which was moved to the front of the buffer). Also be sure to only
-		 * read up to enough data to fill in the remaining space of the buffer
-		 * (depending on how much was kept).
+		 * Prepare GZIP stream for reading, counting the compressed bytes that
+		 * are pulled from the source as it is inflated.
 		 */
-		while ((length = gzipStream.read(buffer, index, buffer.length - index)) != -1) {
-			// Keep track of read counts for easier debugging
-			readCount++;
-
-			/*
-			 * Length has been set to the result of the read() operation above,
-			 * but if we kept any bytes from a previous iteration, we adjust
-			 * length here to correctly account for them (since index was
-			 * pointing at the position right after the last byte if we did).
-			 */
-			length += index;
-
-			// Now reset the index to point back at the front of the buffer.
-			index = 0;
+		PooledGZIPInputStream gzipStream = new PooledGZIPInputStream(
+				new CountingInputStream(stream, metrics), bufferPool,
+				GZIP_BUFFER_SIZE);
 
+		try {
 			/*
-			 * We want to decode on full-line boundaries because we want to
-			 * process log entries on full-line boundaries (easier logic).
-			 * 
-			 * So first we search from back to front, looking for the last
-			 * line-feed (\n) character we can find and then use that as our
-			 * end-point that we decode the entire buffer up to.
-			 * 
-			 * This could mean we are decoding 1 or 1000 lines of content;
-			 * whatever fit into our read buffer in the last read op.
-			 * 
-			 * At the end of this iteration of the loop, we move any bytes that
-			 * weren't decoded to the front of the buffer, fill in the rest of
-			 * the buffer and decode (again) up to the last line boundary.
+			 * Process every complete line we have buffered, then read more in
+			 * from the stream (keeping any trailing partial line) and repeat
+			 * until the stream is exhausted.
 			 */
-			int lfIndex = ArrayUtils.lastIndexOfNoCheck(LF, buffer, index,
-					length);
-
-			if (lfIndex == -1)
-				throw new MalformedContentException(
-						"Could not find the \\n (LINE FEED) character after scanning "
-								+ length
-								+ " bytes from the read buffer (read cycle "
-								+ readCount
-								+ ", buffer size "
-								+ buffer.length
-								+ " bytes). The log file is likely malformed or a single log entry line is so long it won't fit easily into the current read buffer. Consider making the buffer bigger by adjust the "
-								+ BUFFER_SIZE_PROPERTY_NAME
-								+ " system property.");
-
-			// Decode the buffer contents up to our LF terminator
-			char[] content = DecodingUtils.decode(buffer,
-					DecodingUtils.ASCII_CHARSET, index, lfIndex + 1);
-
-			// Process the log content line-by-line
-			for (int sIndex = 0, eIndex = 0; eIndex <= lfIndex; eIndex++) {
-				/*
-				 * Every time we find \n (at position eIndex) we know sIndex is
-				 * pointing back at the beginning of the line so sIndex to
-				 * eIndex is our line; then we adjust sIndex to 1 past our \n
-				 * and start again.
-				 */
-				if (content[eIndex] == LF) {
-					/*
-					 * Lines beginning with '#' are log directives and provide
-					 * important metadata about our log structure. All other
-					 * lines are log entries.
-					 */
-					switch (content[sIndex]) {
-					case '#':
-						// Determine the directive type
-						if (ArrayUtils.equalsNoCheck(FIELDS_DIRECTIVE_PREFIX,
-								0, content, sIndex,
-								FIELDS_DIRECTIVE_PREFIX.length))
-							parseFieldsDirective(content, sIndex, eIndex
-									- sIndex + 1, callback);
-						break;
-
-					default:
-						parseLogEntry(content, sIndex, eIndex - sIndex + 1,
-								callback);
-						break;
-					}
-
-					// Update startIndex pointer
-					sIndex = eIndex + 1;
-				}
-			}
+			do {
+				while (parseNextLine(callback))
+					;
+			} while (read(gzipStream) != -1);
 
-			/*
-			 * Before looping around and reading more in from our stream, move
-			 * any undecoded bytes to the front of the buffer and insert all new
-			 * bytes in the buffer after them.
-			 * 
-			 * Be sure to adjust the index to point at the position immediately
-			 * after the kept bytes so our next stream read operation doesn't
-			 * overwrite any of the kept data and instead appends after it.
-			 * 
-			 * We increment lfIndex right away because it was pointing at the
-			 * previous line's terminating \n char, we want it to point at the
-			 * first valid char we want to keep.
-			 */
-			if ((++lfIndex) < length) {
-				System.arraycopy(buffer, lfIndex, buffer, 0, length - lfIndex);
-
-				/*
-				 * Update the buffer index to point right after the kept bytes
-				 * so we know where to insert new read-in bytes on the next
-				 * itter.
-				 */
-				index = length - lfIndex;
-			} else {
-				// Otherwise there were no kept bytes, so back to the beginning!
-				index = 0;
-			}
+			// Don't lose a last line that is missing its terminating \n.
+			if (finish())
+				parseNextLine(callback);
+		} finally {
+			releaseBuffer();
 		}
 
 		try {
@@ -308,6 +492,230 @@ public class LogParser {
 		}
 	}
 
+	/**
+	 * Used to read the next chunk of (uncompressed) content from the given
+	 * stream into the read buffer.
+	 * <p/>
+	 * Any bytes from a trailing partial line are kept, moved to the front of
+	 * the buffer, and the new content is appended after them. This is what
+	 * allows the parser to be fed incrementally, e.g. by a {@link LogTailer}
+	 * following a growing file, since the partial-line state survives until
+	 * the rest of the line arrives.
+	 * 
+	 * @param stream
+	 *            The stream to read from.
+	 * 
+	 * @return the number of bytes read or <code>-1</code> if the end of the
+	 *         stream was reached.
+	 * 
+	 * @throws MalformedContentException
+	 *             if the buffer is entirely filled by a single line.
+	 */
+	int read(InputStream stream) throws IOException, MalformedContentException {
+		if (buffer == null)
+			buffer = bufferPool.acquire(BUFFER_SIZE);
+
+		/*
+		 * Before reading more in from our stream, move any unprocessed bytes
+		 * to the front of the buffer and insert all new bytes in the buffer
+		 * after them.
+		 */
+		if (index > 0) {
+			if (index < length) {
+				System.arraycopy(buffer, index, buffer, 0, length - index);
+				metrics.compactionCount++;
+			}
+
+			length -= index;
+			index = 0;
+		}
+
+		if (length == buffer.length) {
+			if (buffer.length < MAX_BUFFER_SIZE) {
+				// Only grow when a single line doesn't fit.
+				resizeBuffer(Math.min(buffer.length * 2, MAX_BUFFER_SIZE));
+				readsSinceGrowth = 0;
+			} else if (quarantineCallback != null) {
+				quarantine(buffer, 0, length, "Line is longer than the max "
+						+ MAX_BUFFER_SIZE + " byte buffer (truncated).");
+
+				// Throw away the rest of the line as it is read.
+				skipping = true;
+				length = 0;
+			} else
+				throw new MalformedContentException(
+					"Could not find the \\n (LINE FEED) character after scanning "
+							+ length
+							+ " bytes from the read buffer (read cycle "
+							+ readCount
+							+ ", buffer size "
+							+ buffer.length
+							+ " bytes). The log file is likely malformed or a single log entry line is so long it won't fit easily into the current read buffer. Consider making the buffer bigger by adjust the "
+							+ MAX_BUFFER_SIZE_PROPERTY_NAME
+							+ " system property or use setQuarantineCallback(...) to skip such lines.");
+		} else if (buffer.length > BufferPool.getBufferSize(BUFFER_SIZE)
+				&& ++readsSinceGrowth >= SHRINK_AFTER_READS
+				&& length <= BUFFER_SIZE / 2)
+			resizeBuffer(BUFFER_SIZE);
+
+		long time = System.nanoTime();
+		int count = stream.read(buffer, length, buffer.length - length);
+
+		/*
+		 * Timing is only taken once per read cycle here (not per line) so it
+		 * stays cheap enough to leave on all the time.
+		 */
+		long now = System.nanoTime();
+		metrics.inflateNanos += (now - time);
+
+		if (count == -1)
+			return -1;
+
+		// Keep track of read counts for easier debugging
+		readCount++;
+		metrics.readCount = readCount;
+		metrics.decompressedBytes += count;
+
+		length += count;
+		scan();
+
+		if (skipping)
+			skipToNextLine();
+
+		metrics.scanNanos += (System.nanoTime() - now);
+		return count;
+	}
+
+	/**
+	 * Used to terminate a trailing partial line once the end of the content
+	 * has been reached so it can be parsed.
+	 * 
+	 * @return <code>true</code> if there was a partial line to terminate.
+	 */
+	boolean finish() {
+		// Nothing left of an oversized line is worth parsing.
+		if (skipping) {
+			skipping = false;
+			index = length;
+		}
+
+		if (index >= length)
+			return false;
+
+		/*
+		 * There is always room; the read(...) call that hit the end of the
+		 * stream compacted the buffer first and would have thrown if the
+		 * partial line was filling all of it.
+		 */
+		buffer[length++] = LF;
+		scan();
+
+		return true;
+	}
+
+	/**
+	 * Used to build the delimiter index over the buffered content.
+	 * <p/>
+	 * We want to process log entries on full-line boundaries (easier logic),
+	 * so we build an index of every delimiter position in the buffer and then
+	 * search it from back to front, looking for the last line-feed (\n)
+	 * character we can find and then use that as our end-point that we process
+	 * the buffer up to.
+	 * <p/>
+	 * This could mean we are processing 1 or 1000 lines of content; whatever
+	 * fit into our read buffer in the last read op.
+	 */
+	private void scan() {
+		scanner.scan(buffer, index, length - index);
+
+		dIndex = 0;
+		lastLF = scanner.lastIndexOf(LF, buffer);
+	}
+
+	/**
+	 * Used to parse the next complete line in the buffer, notifying the
+	 * callback if it is a log entry.
+	 * 
+	 * @param callback
+	 *            The callback to notify.
+	 * 
+	 * @return <code>true</code> if a line was parsed or <code>false</code> if
+	 *         there are no more complete lines in the buffer.
+	 */
+	boolean parseNextLine(ILogParserCallback callback) {
+		if (dIndex > lastLF)
+			return false;
+
+		int[] delimiters = scanner.positions;
+		int lineStart = dIndex;
+		int sIndex = index;
+		int eIndex;
+
+		/*
+		 * Every delimiter between lineStart and the next \n (at eIndex)
+		 * belongs to the line that starts at sIndex. There is always one, the
+		 * last one is at lastLF.
+		 */
+		while (buffer[eIndex = delimiters[dIndex]] != LF)
+			dIndex++;
+
+		/*
+		 * Lines beginning with '#' are log directives and provide important
+		 * metadata about our log structure. All other lines are log entries.
+		 */
+		switch (buffer[sIndex]) {
+		case '#':
+			metrics.directiveCount++;
+
+			if (callback instanceof IRawLogParserCallback)
+				((IRawLogParserCallback) callback).directiveParsed(buffer,
+						sIndex, eIndex - sIndex + 1);
+
+			// Directives are rare, decode them for the tokenizer.
+			char[] content = DecodingUtils.decode(buffer,
+					DecodingUtils.ASCII_CHARSET, sIndex, eIndex - sIndex + 1);
+
+			// Determine the directive type
+			if (ArrayUtils.equalsNoCheck(FIELDS_DIRECTIVE_PREFIX, 0, content,
+					0, FIELDS_DIRECTIVE_PREFIX.length)) {
+				try {
+					parseFieldsDirective(content, 0, content.length, callback);
+				} catch (MalformedContentException e) {
+					if (quarantineCallback == null)
+						throw e;
+
+					// Lines that follow can't be mapped to fields anymore.
+					logEntryWrapper = null;
+					quarantine(buffer, sIndex, eIndex - sIndex + 1, e
+							.getMessage());
+				}
+			}
+			break;
+
+		default:
+			if (logEntryWrapper == null) {
+				String reason = "Log entry line found before a valid '#Fields:' directive.";
+
+				if (quarantineCallback == null)
+					throw new MalformedContentException(reason);
+
+				quarantine(buffer, sIndex, eIndex - sIndex + 1, reason);
+			} else if (sampleRate == 1
+					|| isSampled(buffer, sIndex, delimiters, lineStart, dIndex))
+				parseLogEntry(buffer, sIndex, delimiters, lineStart, dIndex,
+						callback);
+			else
+				metrics.unsampledLineCount++;
+			break;
+		}
+
+		// Move past the line's \n
+		index = eIndex + 1;
+		dIndex++;
+
+		return true;
+	}
+
 	protected void parseFieldsDirective(char[] line, int index, int length,
 			ILogParserCallback callback) throws MalformedContentException {
 		IToken<char[]> token = null;
@@ -322,6 +730,8 @@ public class LogParser {
 		 * determine the indices for each of the field names as-stored in the
 		 * ILogEntry.
 		 */
+		parsedFieldNames.clear();
+
 		while ((token = tokenizer.nextToken()) != null) {
 			// Skip "#Fields:" token, get to the field names.
 			if (token.getSource()[token.getIndex()] == '#')
@@ -353,69 +763,323 @@ public class LogParser {
 			break;
 		}
 
+		columnCount = parsedFieldNames.size();
+
+		if (columnCount > columnFieldIndices.length)
+			columnFieldIndices = new int[columnCount];
+
 		/*
-		 * Now that we know the log type, we know the class we need to check for
-		 * field indices based on their names. Cycle back through our field
+		 * Now that we know the log type, we know the schema we need to check
+		 * for field indices based on their names. Cycle back through our field
 		 * names and get all the indices for them.
+		 * 
+		 * It is possible that Amazon writes out field names we don't know
+		 * about yet. Those are registered with an extension of the shared
+		 * schema private to this parser (a new one, starting from the shared
+		 * schema, whenever the current one doesn't know them all) so their
+		 * values are kept and callers can resolve handles for them through
+		 * the entry. Only if the extension is full is a field mapped to
+		 * INVALID_INDEX and its values skipped.
 		 */
-		for (int i = 0, size = parsedFieldNames.size(); i < size; i++) {
-			int fieldIndex = -1;
+		LogSchema schema = logEntryWrapper.getSchema();
 
-			switch (logType) {
-			case DOWNLOAD:
-				fieldIndex = logEntryWrapper.getFieldIndex(parsedFieldNames
-						.get(i));
-				break;
+		for (int i = 0; i < columnCount; i++) {
+			if (schema.getFieldHandle(parsedFieldNames.get(i)) == null) {
+				schema = new LogSchema(schema.getBase());
+				logEntryWrapper = (logType == ILogEntry.Type.DOWNLOAD ? new DownloadLogEntry(
+						schema)
+						: new StreamingLogEntry(schema));
+
+				if (logType == ILogEntry.Type.DOWNLOAD)
+					downloadLogEntryWrapper = logEntryWrapper;
+				else
+					streamingLogEntryWrapper = logEntryWrapper;
 
-			case STREAMING:
-				fieldIndex = logEntryWrapper.getFieldIndex(parsedFieldNames
-						.get(i));
 				break;
 			}
+		}
 
-			/*
-			 * It is possible that Amazon writes out field names we don't know
-			 * how to parse yet, so we skip adding them to our active field
-			 * list, but we remember the position the unknown field was add so
-			 * we can avoid the associated values later.
-			 */
-			if (fieldIndex == -1)
-				skippedFieldPositionSet.add(Integer.valueOf(i));
-			else
-				activeFieldIndices.add(fieldIndex);
+		sampleColumn = -1;
+
+		for (int i = 0; sampleField != null && i < columnCount; i++) {
+			if (sampleField.getSchema().getType() == logType
+					&& sampleField.getName().equals(parsedFieldNames.get(i)))
+				sampleColumn = i;
+		}
+
+		// Report what the sample is actually based on for this log.
+		metrics.sampleFieldName = (sampleColumn == -1 ? null : sampleField
+				.getName());
+
+		boolean projected = isProjected(schema);
+		columnLimit = (projected ? 0 : Integer.MAX_VALUE);
+
+		for (int i = 0; i < columnCount; i++) {
+			String name = parsedFieldNames.get(i);
+			FieldHandle handle = schema.getFieldHandle(name);
+
+			if (handle == null)
+				handle = schema.registerField(name);
+
+			if (handle == null)
+				columnFieldIndices[i] = ILogEntry.INVALID_INDEX;
+			else if (projected && !isProjected(handle))
+				columnFieldIndices[i] = PROJECTED_OUT_INDEX;
+			else {
+				columnFieldIndices[i] = handle.getIndex();
+
+				if (projected)
+					columnLimit = i + 1;
+			}
 		}
+
+		/*
+		 * Grow the wrapper to hold any newly registered fields now, so no
+		 * resizing ever happens on a per-line basis.
+		 */
+		logEntryWrapper.ensureCapacity();
 	}
 
-	protected void parseLogEntry(char[] line, int index, int length,
-			ILogParserCallback callback) {
-		IToken<char[]> token = null;
+	/**
+	 * Used to parse a single log entry line using the delimiter positions
+	 * already found by the {@link DelimiterScanner}.
+	 * 
+	 * @param buffer
+	 *            The read buffer containing the line.
+	 * @param index
+	 *            The index of the first byte of the line.
+	 * @param delimiters
+	 *            The sorted delimiter positions for the buffer.
+	 * @param dIndex
+	 *            The position in <code>delimiters</code> of the first delimiter
+	 *            on the line.
+	 * @param dEndIndex
+	 *            The position in <code>delimiters</code> of the \n that
+	 *            terminates the line.
+	 * @param callback
+	 *            The callback to notify of the parsed entry.
+	 */
+	protected void parseLogEntry(byte[] buffer, int index, int[] delimiters,
+			int dIndex, int dEndIndex, ILogParserCallback callback) {
+		/*
+		 * Only time 1 in every LogParserMetrics.SAMPLE_INTERVAL lines to keep
+		 * System.nanoTime() calls out of the common path.
+		 */
+		boolean sample = ((metrics.lineCount++ & LogParserMetrics.SAMPLE_MASK) == 0);
+		long time = (sample ? System.nanoTime() : 0);
 
 		// Reset the wrapper
 		logEntryWrapper.reset();
 
-		// Init the tokenizer so we can parse the line easily.
-		tokenizer.setSource(line, index, length, DELIMITERS,
-				IDelimitedTokenizer.DelimiterMode.MATCH_ANY);
-
 		/*
 		 * Keep track of the index of the value we are parsing, this is how we
 		 * map the values back to the specific fields we know are in the file.
 		 */
 		int valueIndex = 0;
 
-		while ((token = tokenizer.nextToken()) != null) {
-			// Ensure this value didn't belong to a skipped field name
-			if (skippedFieldPositionSet.contains(Integer.valueOf(valueIndex))) {
+		/*
+		 * Every delimiter ends the value that started right after the previous
+		 * one. Runs of delimiters produce empty values which are ignored, the
+		 * same way the CharArrayTokenizer treats them in MATCH_ANY mode.
+		 */
+		for (int vIndex = index, limit = columnLimit; dIndex <= dEndIndex
+				&& valueIndex < limit; dIndex++) {
+			int eIndex = delimiters[dIndex];
+
+			if (eIndex > vIndex) {
+				int fieldIndex = (valueIndex < columnCount ? columnFieldIndices[valueIndex]
+						: ILogEntry.INVALID_INDEX);
+
+				// Ensure this value didn't belong to a skipped field name
+				if (fieldIndex >= 0)
+					logEntryWrapper.setFieldValue(fieldIndex,
+							decodeValue(buffer, vIndex, eIndex - vIndex));
+				else if (fieldIndex == ILogEntry.INVALID_INDEX)
+					metrics.skippedFieldCount++;
+
 				valueIndex++;
-				continue;
 			}
 
-			// Value belonged to an active field, so store it.
-			logEntryWrapper.setFieldValue(activeFieldIndices.get(valueIndex++)
-					.intValue(), token.getValue());
+			vIndex = eIndex + 1;
+		}
+
+		// Lines that were cut off (in tolerant mode only).
+		if (quarantineCallback != null
+				&& valueIndex < Math.min(columnCount, columnLimit)) {
+			quarantine(buffer, index, delimiters[dEndIndex] - index + 1,
+					"Line has " + valueIndex + " values, expected "
+							+ columnCount + ".");
+			return;
+		}
+
+		if (!sample) {
+			// Notify the callback of the parsed values
+			notifyCallback(callback, buffer, index, delimiters[dEndIndex]
+					- index + 1);
+		} else {
+			long now = System.nanoTime();
+			metrics.sampledTokenizeNanos += (now - time);
+
+			// Notify the callback of the parsed values
+			notifyCallback(callback, buffer, index, delimiters[dEndIndex]
+					- index + 1);
+
+			metrics.sampledCallbackNanos += (System.nanoTime() - now);
+			metrics.sampledLineCount++;
+		}
+	}
+
+	/**
+	 * Used to give the parser's read buffer back to the pool, dropping any
+	 * buffered content. The next read takes a new one.
+	 */
+	void releaseBuffer() {
+		bufferPool.release(buffer);
+		buffer = null;
+
+		index = 0;
+		length = 0;
+		dIndex = 0;
+		lastLF = -1;
+		readsSinceGrowth = 0;
+	}
+
+	/**
+	 * Used to replace the read buffer with one of (at least) the given size,
+	 * keeping the buffered content (which has already been compacted).
+	 */
+	private void resizeBuffer(int size) {
+		/*
+		 * Pooled buffers are rounded up to a power of 2; don't let that take a
+		 * grown buffer past the max.
+		 */
+		byte[] resized = (BufferPool.getBufferSize(size) > MAX_BUFFER_SIZE ? new byte[MAX_BUFFER_SIZE]
+				: bufferPool.acquire(size));
+		System.arraycopy(buffer, 0, resized, 0, length);
+
+		bufferPool.release(buffer);
+		buffer = resized;
+		metrics.peakBufferSize = Math.max(metrics.peakBufferSize,
+				resized.length);
+	}
+
+	/**
+	 * Used to throw away the buffered bytes up to and including the first \n
+	 * while skipping the rest of an oversized line.
+	 */
+	private void skipToNextLine() {
+		int[] delimiters = scanner.positions;
+
+		for (int i = 0; i < scanner.size; i++) {
+			if (buffer[delimiters[i]] == LF) {
+				skipping = false;
+				index = delimiters[i] + 1;
+				dIndex = i + 1;
+				return;
+			}
+		}
+
+		// Still no end in sight, drop it all.
+		length = 0;
+		dIndex = 0;
+		lastLF = -1;
+	}
+
+	private void quarantine(byte[] line, int index, int length, String reason) {
+		metrics.quarantinedLineCount++;
+		quarantineCallback.lineQuarantined(line, index, length, reason);
+	}
+
+	/**
+	 * Used to decide if the given line is part of the sample, without
+	 * tokenizing it.
+	 */
+	private boolean isSampled(byte[] buffer, int index, int[] delimiters,
+			int dIndex, int dEndIndex) {
+		if (sampleColumn == -1) {
+			if (--sampleCountdown > 0)
+				return false;
+
+			sampleCountdown = sampleRate;
+			return true;
+		}
+
+		// 32-bit FNV-1a of the raw value of the sample column.
+		int hash = 0x811C9DC5;
+
+		for (int vIndex = index, column = 0; dIndex <= dEndIndex; dIndex++) {
+			int eIndex = delimiters[dIndex];
+
+			if (eIndex > vIndex) {
+				if (column++ == sampleColumn) {
+					for (; vIndex < eIndex; vIndex++)
+						hash = (hash ^ (buffer[vIndex] & 0xFF)) * 0x01000193;
+
+					break;
+				}
+			}
+
+			vIndex = eIndex + 1;
+		}
+
+		// Final avalanche so similar values (IPs) spread evenly.
+		hash ^= hash >>> 16;
+		hash *= 0x85EBCA6B;
+		hash ^= hash >>> 13;
+
+		return (hash & Integer.MAX_VALUE) % sampleRate == 0;
+	}
+
+	private boolean isProjected(LogSchema schema) {
+		for (int i = 0; projection != null && i < projection.length; i++) {
+			if (projection[i] != null
+					&& projection[i].getSchema().getType() == schema.getType())
+				return true;
+		}
+
+		return false;
+	}
+
+	private boolean isProjected(FieldHandle handle) {
+		for (int i = 0; i < projection.length; i++) {
+			if (projection[i] != null
+					&& projection[i].getSchema().getType() == handle.getSchema()
+							.getType()
+					&& projection[i].getName().equals(handle.getName()))
+				return true;
+		}
+
+		return false;
+	}
+
+	private void notifyCallback(ILogParserCallback callback, byte[] line,
+			int index, int length) {
+		if (callback instanceof IRawLogParserCallback)
+			((IRawLogParserCallback) callback).logEntryParsed(
+					logEntryWrapper, line, index, length);
+		else
+			callback.logEntryParsed(logEntryWrapper);
+	}
+
+	/**
+	 * Used to decode an ASCII value directly out of the read buffer into a new
+	 * <code>char[]</code> that is safe for callers to hold onto.
+	 * <p/>
+	 * Bytes outside of the ASCII range are replaced with U+FFFD, exactly like
+	 * the ASCII {@link java.nio.charset.CharsetDecoder} would.
+	 */
+	private static char[] decodeValue(byte[] buffer, int index, int length) {
+		// Empty '-' values become null anyway, don't bother allocating them.
+		if (length == 1 && buffer[index] == ILogEntry.EMPTY_VALUE_FLAG)
+			return null;
+
+		char[] value = new char[length];
+
+		for (int i = 0; i < length; i++) {
+			byte b = buffer[index + i];
+			value[i] = (b < 0 ? '\uFFFD' : (char) b);
 		}
 
-		// Notify the callback of the parsed values
-		callback.logEntryParsed(logEntryWrapper);
+		return value;
 	}
 }
\ No newline at end of file
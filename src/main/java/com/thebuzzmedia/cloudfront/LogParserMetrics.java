@@ -0,0 +1,273 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.cloudfront;
+
+/**
+ * Class used to hold the counters collected by a {@link LogParser} during a
+ * single call to {@link LogParser#parse(java.io.InputStream, ILogParserCallback)}.
+ * <p/>
+ * Counters are plain fields updated directly by the owning parser (which is
+ * single-threaded) so collecting them costs little more than an increment.
+ * Timing of the per-line stages (tokenizing and the callback) is sampled once
+ * every {@link #SAMPLE_INTERVAL} lines to keep the cost of
+ * {@link System#nanoTime()} out of the hot loop; the <code>getEstimated</code>
+ * methods scale the sampled values back up to the full line count.
+ * <p/>
+ * Instances are reset at the beginning of every parse operation, so a caller
+ * interested in the metrics for a file should read them after
+ * <code>parse</code> returns and before the parser is re-used.
+ */
+public class LogParserMetrics {
+	public static final String SAMPLE_INTERVAL_PROPERTY_NAME = "cloudfront.logparser.metricsSampleInterval";
+
+	/**
+	 * Lines between timing samples; always rounded up to a power of 2 so the
+	 * sampling check is a single mask operation.
+	 */
+	public static final int SAMPLE_INTERVAL;
+
+	static final int SAMPLE_MASK;
+
+	static {
+		int interval = Integer.getInteger(SAMPLE_INTERVAL_PROPERTY_NAME, 64);
+
+		if (interval < 1)
+			throw new RuntimeException("System property '"
+					+ SAMPLE_INTERVAL_PROPERTY_NAME
+					+ "' must be set to a value >= 1.");
+
+		int pow2 = 1;
+
+		while (pow2 < interval)
+			pow2 <<= 1;
+
+		SAMPLE_INTERVAL = pow2;
+		SAMPLE_MASK = pow2 - 1;
+	}
+
+	long compressedBytes;
+	long decompressedBytes;
+
+	long lineCount;
+	long unsampledLineCount;
+	long directiveCount;
+	long skippedFieldCount;
+	long quarantinedLineCount;
+
+	int readCount;
+	int compactionCount;
+	int peakBufferSize;
+
+	long inflateNanos;
+	long scanNanos;
+
+	long sampledLineCount;
+	long sampledTokenizeNanos;
+	long sampledCallbackNanos;
+
+	int sampleRate = 1;
+	String sampleFieldName;
+
+	public String toString() {
+		return this.getClass().getName() + "@" + hashCode()
+				+ "[compressedBytes=" + compressedBytes
+				+ ", decompressedBytes=" + decompressedBytes + ", lineCount="
+				+ lineCount + ", unsampledLineCount=" + unsampledLineCount
+				+ ", sampleRate=" + sampleRate + ", sampleFieldName="
+				+ sampleFieldName + ", directiveCount=" + directiveCount
+				+ ", skippedFieldCount=" + skippedFieldCount
+				+ ", quarantinedLineCount=" + quarantinedLineCount
+				+ ", readCount=" + readCount + ", compactionCount="
+				+ compactionCount + ", peakBufferSize=" + peakBufferSize
+				+ ", inflateNanos=" + inflateNanos + ", scanNanos="
+				+ scanNanos + ", estimatedTokenizeNanos="
+				+ getEstimatedTokenizeNanos() + ", estimatedCallbackNanos="
+				+ getEstimatedCallbackNanos() + "]";
+	}
+
+	public void reset() {
+		compressedBytes = 0;
+		decompressedBytes = 0;
+
+		lineCount = 0;
+		unsampledLineCount = 0;
+		directiveCount = 0;
+		skippedFieldCount = 0;
+		quarantinedLineCount = 0;
+
+		readCount = 0;
+		compactionCount = 0;
+		peakBufferSize = 0;
+
+		inflateNanos = 0;
+		scanNanos = 0;
+
+		sampledLineCount = 0;
+		sampledTokenizeNanos = 0;
+		sampledCallbackNanos = 0;
+	}
+
+	/**
+	 * @return the number of bytes read from the source (GZIP-compressed)
+	 *         stream.
+	 */
+	public long getCompressedBytes() {
+		return compressedBytes;
+	}
+
+	/**
+	 * @return the number of bytes produced by inflating the source stream.
+	 */
+	public long getDecompressedBytes() {
+		return decompressedBytes;
+	}
+
+	/**
+	 * @return the number of log entry lines parsed (directives and lines
+	 *         skipped by sampling excluded).
+	 */
+	public long getLineCount() {
+		return lineCount;
+	}
+
+	/**
+	 * @return the number of log entry lines skipped because they were not
+	 *         part of the sample (see {@link LogParser#setSampling(int)}).
+	 */
+	public long getUnsampledLineCount() {
+		return unsampledLineCount;
+	}
+
+	/**
+	 * @return the rate the lines were sampled at; counts and sums computed
+	 *         from the parsed lines can be multiplied by it to estimate the
+	 *         totals. <code>1</code> if every line was parsed.
+	 */
+	public int getSampleRate() {
+		return sampleRate;
+	}
+
+	/**
+	 * @return the name of the field lines were sampled on or
+	 *         <code>null</code> if every <code>sampleRate</code>-th line was
+	 *         parsed instead (or there was no sampling).
+	 */
+	public String getSampleFieldName() {
+		return sampleFieldName;
+	}
+
+	/**
+	 * @return the number of '#' directive lines encountered.
+	 */
+	public long getDirectiveCount() {
+		return directiveCount;
+	}
+
+	/**
+	 * @return the number of values that were dropped because they didn't
+	 *         belong to any field the parser could store them in (e.g. a line
+	 *         with more values than the <code>#Fields:</code> directive named).
+	 */
+	public long getSkippedFieldCount() {
+		return skippedFieldCount;
+	}
+
+	/**
+	 * @return the number of lines given to the quarantine callback instead of
+	 *         being parsed (see
+	 *         {@link LogParser#setQuarantineCallback(IQuarantineCallback)}).
+	 */
+	public long getQuarantinedLineCount() {
+		return quarantinedLineCount;
+	}
+
+	/**
+	 * @return the size the read buffer had to grow to in order to fit the
+	 *         longest line or <code>0</code> if it never had to grow.
+	 */
+	public int getPeakBufferSize() {
+		return peakBufferSize;
+	}
+
+	/**
+	 * @return the number of read operations performed against the inflated
+	 *         stream.
+	 */
+	public int getReadCount() {
+		return readCount;
+	}
+
+	/**
+	 * @return the number of times a partial trailing line had to be moved to
+	 *         the front of the read buffer.
+	 */
+	public int getCompactionCount() {
+		return compactionCount;
+	}
+
+	/**
+	 * @return the time spent blocked in the read (inflate) operation,
+	 *         including any time spent reading the underlying source stream.
+	 */
+	public long getInflateNanos() {
+		return inflateNanos;
+	}
+
+	/**
+	 * @return the time spent locating line boundaries and decoding the read
+	 *         buffer.
+	 */
+	public long getScanNanos() {
+		return scanNanos;
+	}
+
+	/**
+	 * @return the number of lines that had their tokenize and callback times
+	 *         measured.
+	 */
+	public long getSampledLineCount() {
+		return sampledLineCount;
+	}
+
+	public long getSampledTokenizeNanos() {
+		return sampledTokenizeNanos;
+	}
+
+	public long getSampledCallbackNanos() {
+		return sampledCallbackNanos;
+	}
+
+	/**
+	 * @return the sampled tokenize time scaled up to cover every parsed line.
+	 */
+	public long getEstimatedTokenizeNanos() {
+		return scale(sampledTokenizeNanos);
+	}
+
+	/**
+	 * @return the sampled callback time scaled up to cover every parsed line.
+	 */
+	public long getEstimatedCallbackNanos() {
+		return scale(sampledCallbackNanos);
+	}
+
+	private long scale(long sampledNanos) {
+		if (sampledLineCount == 0)
+			return 0;
+
+		return (long) (sampledNanos * ((double) lineCount / sampledLineCount));
+	}
+}
\ No newline at end of file
@@ -0,0 +1,259 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.cloudfront;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Class used to describe the set of fields that can be stored in an
+ * {@link ILogEntry} of a given {@link ILogEntry.Type}.
+ * <p/>
+ * Every schema starts out with the fields Amazon documents for that type of
+ * distribution, in a fixed order, so the {@link FieldHandle} constants on
+ * {@link DownloadLogEntry} and {@link StreamingLogEntry} always point at the
+ * same slots. The shared {@link #DOWNLOAD} and {@link #STREAMING} schemas
+ * never change.
+ * <p/>
+ * Amazon has a history of adding fields to the log format; when the
+ * {@link LogParser} encounters a field name in a <code>#Fields:</code>
+ * directive that it doesn't know about, it creates an extension of the shared
+ * schema of its own and appends the new field to that instead of throwing its
+ * values away. An extension shares every handle of the schema it extends, so
+ * the constants work with entries of either (see
+ * {@link #contains(FieldHandle)}); handles for the added fields are resolved
+ * through {@link ILogEntry#getSchema()}. Extensions only grow while the parser
+ * handles a directive, never on a per-line basis, and are never shared
+ * between parsers.
+ */
+public class LogSchema {
+	/**
+	 * Upper bound on the number of fields a schema will grow to, protecting
+	 * against garbage directives filling up the schema.
+	 */
+	public static final int MAX_FIELD_COUNT = 256;
+
+	private static final String[] DOWNLOAD_FIELD_NAMES = { "date", "time",
+			"x-edge-location", "sc-bytes", "c-ip", "cs-method", "cs(Host)",
+			"cs-uri-stem", "sc-status", "cs(Referer)", "cs(User-Agent)",
+			"cs-uri-query", "cs(Cookie)", "x-edge-result-type",
+			"x-edge-request-id", "x-host-header", "cs-protocol", "cs-bytes",
+			"time-taken", "x-forwarded-for", "ssl-protocol", "ssl-cipher",
+			"x-edge-response-result-type", "cs-protocol-version",
+			"fle-status", "fle-encrypted-fields", "c-port",
+			"time-to-first-byte", "x-edge-detailed-result-type",
+			"sc-content-type", "sc-content-len", "sc-range-start",
+			"sc-range-end" };
+
+	private static final String[] STREAMING_FIELD_NAMES = { "date", "time",
+			"x-edge-location", "c-ip", "x-event", "sc-bytes", "x-cf-status",
+			"x-cf-client-id", "cs-uri-stem", "cs-uri-query", "c-referrer",
+			"x-page-url", "c-user-agent", "x-sname", "x-sname-query",
+			"x-file-ext", "x-sid" };
+
+	public static final LogSchema DOWNLOAD = new LogSchema(
+			ILogEntry.Type.DOWNLOAD, DOWNLOAD_FIELD_NAMES);
+
+	public static final LogSchema STREAMING = new LogSchema(
+			ILogEntry.Type.STREAMING, STREAMING_FIELD_NAMES);
+
+	public static LogSchema getSchema(ILogEntry.Type type)
+			throws IllegalArgumentException {
+		if (type == null)
+			throw new IllegalArgumentException("type cannot be null");
+
+		return (type == ILogEntry.Type.DOWNLOAD ? DOWNLOAD : STREAMING);
+	}
+
+	private ILogEntry.Type type;
+	private LogSchema base;
+	private volatile Snapshot snapshot;
+
+	private LogSchema(ILogEntry.Type type, String[] fieldNames) {
+		this.type = type;
+		this.snapshot = new Snapshot();
+
+		for (int i = 0; i < fieldNames.length; i++)
+			snapshot = new Snapshot(snapshot, new FieldHandle(this,
+					fieldNames[i], i));
+	}
+
+	/**
+	 * Create a new extension of the given shared schema.
+	 */
+	LogSchema(LogSchema base) {
+		this.type = base.type;
+		this.base = base;
+		this.snapshot = base.snapshot;
+	}
+
+	public String toString() {
+		return this.getClass().getName() + "@" + hashCode() + "[type=" + type
+				+ ", fieldCount=" + getFieldCount() + "]";
+	}
+
+	public ILogEntry.Type getType() {
+		return type;
+	}
+
+	/**
+	 * @return the shared schema this schema extends, or this schema if it is
+	 *         one of the shared schemas.
+	 */
+	public LogSchema getBase() {
+		return (base == null ? this : base);
+	}
+
+	/**
+	 * Used to determine if the given handle can be used to read values of
+	 * entries of this schema; true for the handles of this schema and of the
+	 * schema it extends.
+	 */
+	public boolean contains(FieldHandle handle) {
+		if (handle == null)
+			return false;
+
+		FieldHandle[] handles = snapshot.handles;
+		int index = handle.getIndex();
+
+		return (index < handles.length && handles[index] == handle);
+	}
+
+	/**
+	 * @return the number of fields currently defined by this schema.
+	 */
+	public int getFieldCount() {
+		return snapshot.handles.length;
+	}
+
+	/**
+	 * @return a copy of the names of every field currently defined by this
+	 *         schema, in index order.
+	 */
+	public String[] getFieldNames() {
+		FieldHandle[] handles = snapshot.handles;
+		String[] names = new String[handles.length];
+
+		for (int i = 0; i < handles.length; i++)
+			names[i] = handles[i].getName();
+
+		return names;
+	}
+
+	/**
+	 * @return the handle for the field at the given index.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>index</code> is &lt; 0 or &gt;=
+	 *             {@link #getFieldCount()}.
+	 */
+	public FieldHandle getFieldHandle(int index)
+			throws IllegalArgumentException {
+		FieldHandle[] handles = snapshot.handles;
+
+		if (index < 0 || index >= handles.length)
+			throw new IllegalArgumentException("index [" + index
+					+ "] must be >= 0 and < getFieldCount() ["
+					+ handles.length + "]");
+
+		return handles[index];
+	}
+
+	/**
+	 * Used to resolve the handle for the named field. Callers should resolve
+	 * handles once and hold onto them, not call this once per log entry.
+	 * 
+	 * @param name
+	 *            The name of the field as it appears in the
+	 *            <code>#Fields:</code> directive.
+	 * 
+	 * @return the handle for the field or <code>null</code> if the schema
+	 *         doesn't (yet) define a field with the given name.
+	 */
+	public FieldHandle getFieldHandle(String name) {
+		return (name == null ? null : snapshot.handleMap.get(name));
+	}
+
+	/**
+	 * Used to get the handle for the named field, appending the field to this
+	 * extension if it isn't defined yet.
+	 * 
+	 * @param name
+	 *            The name of the field.
+	 * 
+	 * @return the handle for the field or <code>null</code> if the field
+	 *         would have to be added and this schema already holds
+	 *         {@link #MAX_FIELD_COUNT} fields.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>name</code> is <code>null</code> or empty.
+	 * @throws IllegalStateException
+	 *             if this is one of the shared schemas, which never change.
+	 */
+	FieldHandle registerField(String name) throws IllegalArgumentException,
+			IllegalStateException {
+		if (name == null || name.length() == 0)
+			throw new IllegalArgumentException("name cannot be null or empty");
+		if (base == null)
+			throw new IllegalStateException("the shared " + type
+					+ " schema cannot be changed");
+
+		FieldHandle handle = snapshot.handleMap.get(name);
+
+		if (handle != null)
+			return handle;
+
+		synchronized (this) {
+			Snapshot current = snapshot;
+			handle = current.handleMap.get(name);
+
+			// Check again, another thread may have beat us to it.
+			if (handle != null)
+				return handle;
+			if (current.handles.length >= MAX_FIELD_COUNT)
+				return null;
+
+			handle = new FieldHandle(this, name, current.handles.length);
+			snapshot = new Snapshot(current, handle);
+		}
+
+		return handle;
+	}
+
+	/**
+	 * Immutable view of the schema's fields at a point in time.
+	 */
+	private static class Snapshot {
+		private FieldHandle[] handles;
+		private Map<String, FieldHandle> handleMap;
+
+		Snapshot() {
+			handles = new FieldHandle[0];
+			handleMap = new HashMap<String, FieldHandle>();
+		}
+
+		Snapshot(Snapshot previous, FieldHandle handle) {
+			int length = previous.handles.length;
+
+			handles = new FieldHandle[length + 1];
+			System.arraycopy(previous.handles, 0, handles, 0, length);
+			handles[length] = handle;
+
+			handleMap = new HashMap<String, FieldHandle>(previous.handleMap);
+			handleMap.put(handle.getName(), handle);
+		}
+	}
+}
\ No newline at end of file
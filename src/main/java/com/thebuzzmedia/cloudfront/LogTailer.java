@@ -0,0 +1,319 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.cloudfront;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Class used to follow a growing, uncompressed log file (e.g. one written in
+ * the CloudFront log format by a local edge proxy or test rig) and report
+ * newly completed log entries as they are appended.
+ * <p/>
+ * Each call to {@link #poll(ILogParserCallback)} reads only the bytes that
+ * were appended since the previous poll; the underlying {@link LogParser}
+ * keeps any trailing partial line in its buffer until the rest of it is
+ * written, the same way it keeps partial lines between read cycles while
+ * parsing a whole file. Content is never re-read.
+ * <p/>
+ * Truncation (the file getting shorter than the current read position, e.g.
+ * copy-truncate log rotation) and rotation (the path being replaced with a new
+ * file) are detected on every poll. On truncation the file is re-read from the
+ * beginning; on rotation the remainder of the old file is read first (if it
+ * is still open under another name) and then the new file is followed from
+ * its beginning. Rotation is detected by
+ * comparing the first {@link #FINGERPRINT_SIZE} bytes of the file at the path
+ * with those of the file being followed, so a replacement file is only
+ * recognized once its content differs from the original's within that range.
+ * <p/>
+ * Instances are not thread-safe; like {@link LogParser}, a tailer is meant to
+ * be used by one thread at a time.
+ */
+public class LogTailer {
+	public static final int FINGERPRINT_SIZE = 1024;
+
+	private File file;
+	private LogParser parser;
+
+	private TailInputStream stream;
+	private long position;
+	private int rotationCount;
+
+	private byte[] fingerprint;
+	private int fingerprintLength;
+	private byte[] fingerprintBuffer;
+
+	public LogTailer(File file) throws IllegalArgumentException {
+		this(file, new LogParser());
+	}
+
+	/**
+	 * Create a new tailer that will follow the given file.
+	 * 
+	 * @param file
+	 *            The file to follow; it doesn't need to exist yet.
+	 * @param parser
+	 *            The parser to use. It is owned by the tailer from now on and
+	 *            must not be used for anything else.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>file</code> or <code>parser</code> is
+	 *             <code>null</code>.
+	 */
+	public LogTailer(File file, LogParser parser)
+			throws IllegalArgumentException {
+		if (file == null)
+			throw new IllegalArgumentException("file cannot be null");
+		if (parser == null)
+			throw new IllegalArgumentException("parser cannot be null");
+
+		this.file = file;
+		this.parser = parser;
+
+		fingerprint = new byte[FINGERPRINT_SIZE];
+		fingerprintBuffer = new byte[FINGERPRINT_SIZE];
+	}
+
+	public String toString() {
+		return this.getClass().getName() + "@" + hashCode() + "[file=" + file
+				+ ", position=" + position + ", rotationCount="
+				+ rotationCount + ", parser=" + parser + "]";
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public LogParser getParser() {
+		return parser;
+	}
+
+	/**
+	 * @return the number of bytes of the current file that have been read.
+	 */
+	public long getPosition() {
+		return position;
+	}
+
+	/**
+	 * @return the number of times the file was found to be truncated or
+	 *         rotated.
+	 */
+	public int getRotationCount() {
+		return rotationCount;
+	}
+
+	/**
+	 * Used to read everything that was appended to the file since the last
+	 * poll and report every completed log entry to the given callback.
+	 * 
+	 * @param callback
+	 *            The callback to notify.
+	 * 
+	 * @return the number of log entries reported.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>callback</code> is <code>null</code>.
+	 * @throws IOException
+	 *             if an error occurs while reading the file.
+	 * @throws MalformedContentException
+	 *             if the content of the file doesn't match the CloudFront log
+	 *             format.
+	 */
+	public int poll(ILogParserCallback callback)
+			throws IllegalArgumentException, IOException,
+			MalformedContentException {
+		if (callback == null)
+			throw new IllegalArgumentException("callback cannot be null");
+
+		int count = 0;
+		long lineCount = parser.getMetrics().getLineCount();
+
+		if (stream != null && file.exists()) {
+			/*
+			 * Rotation is checked first: a replacement file that happens to be
+			 * shorter than our position is a new file, not a truncated one, and
+			 * the rest of the old file must still be read.
+			 */
+			boolean rotated = isRotated();
+
+			if (rotated || file.length() < position) {
+				/*
+				 * Finish the old file, including a last line missing its \n,
+				 * before following the new one; unless the file we have open
+				 * is itself the one that was rewritten (its start no longer
+				 * matches) or truncated (same size as the path) in place.
+				 */
+				if (rotated ? !stream.isRewritten()
+						: stream.size() != file.length()) {
+					drain(callback);
+
+					if (parser.finish()) {
+						while (parser.parseNextLine(callback))
+							;
+					}
+				}
+
+				close();
+				rotationCount++;
+
+				count += (int) (parser.getMetrics().getLineCount() - lineCount);
+			}
+		}
+
+		if (stream == null) {
+			if (!file.exists())
+				return count;
+
+			stream = new TailInputStream(new FileInputStream(file));
+			parser.reset();
+
+			lineCount = 0;
+		}
+
+		drain(callback);
+
+		return count
+				+ (int) (parser.getMetrics().getLineCount() - lineCount);
+	}
+
+	/**
+	 * Used to close the file currently being followed (giving the parser's
+	 * read buffer back to its pool). The next poll will re-open the file and
+	 * read it from the beginning.
+	 */
+	public void close() throws IOException {
+		if (stream != null) {
+			try {
+				stream.close();
+			} finally {
+				stream = null;
+				position = 0;
+				fingerprintLength = 0;
+
+				parser.releaseBuffer();
+			}
+		}
+	}
+
+	private void drain(ILogParserCallback callback) throws IOException {
+		while (parser.read(stream) != -1) {
+			while (parser.parseNextLine(callback))
+				;
+		}
+	}
+
+	private boolean isRotated() throws IOException {
+		if (fingerprintLength == 0)
+			return false;
+
+		RandomAccessFile raf;
+
+		try {
+			raf = new RandomAccessFile(file, "r");
+		} catch (IOException e) {
+			// Path is (momentarily) gone; keep reading what we have open.
+			return false;
+		}
+
+		try {
+			int length = (int) Math.min(fingerprintLength, raf.length());
+			raf.readFully(fingerprintBuffer, 0, length);
+
+			for (int i = 0; i < length; i++) {
+				if (fingerprint[i] != fingerprintBuffer[i])
+					return true;
+			}
+
+			return false;
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Stream wrapping the followed file that keeps track of the read position
+	 * and records the first FINGERPRINT_SIZE bytes of the file as they pass
+	 * through on their way to the parser.
+	 */
+	private class TailInputStream extends FilterInputStream {
+		TailInputStream(FileInputStream in) {
+			super(in);
+		}
+
+		long size() throws IOException {
+			return ((FileInputStream) in).getChannel().size();
+		}
+
+		/**
+		 * @return <code>true</code> if the start of the open file no longer
+		 *         matches the fingerprint, i.e. the file itself was rewritten
+		 *         rather than replaced by another one at the path.
+		 */
+		boolean isRewritten() throws IOException {
+			FileChannel channel = ((FileInputStream) in).getChannel();
+			ByteBuffer buffer = ByteBuffer.wrap(fingerprintBuffer, 0,
+					fingerprintLength);
+
+			// Positional reads leave the read position alone.
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer, buffer.position()) == -1)
+					return true;
+			}
+
+			for (int i = 0; i < fingerprintLength; i++) {
+				if (fingerprint[i] != fingerprintBuffer[i])
+					return true;
+			}
+
+			return false;
+		}
+
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return (read(b, 0, 1) == -1 ? -1 : (b[0] & 0xFF));
+		}
+
+		public int read(byte[] b, int off, int len) throws IOException {
+			int count = in.read(b, off, len);
+
+			if (count > 0) {
+				if (fingerprintLength < FINGERPRINT_SIZE) {
+					int fingerprintCount = Math.min(count, FINGERPRINT_SIZE
+							- fingerprintLength);
+
+					System.arraycopy(b, off, fingerprint, fingerprintLength,
+							fingerprintCount);
+					fingerprintLength += fingerprintCount;
+				}
+
+				position += count;
+			}
+
+			return count;
+		}
+
+		public long skip(long n) throws IOException {
+			// The fingerprint and position depend on seeing every byte.
+			throw new IOException("skip is not supported");
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,151 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.cloudfront;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+
+/**
+ * Class used to implement a fixed-capacity, open-addressing (linear probing)
+ * set of non-zero <code>long</code> keys stored outside of the Java heap in
+ * direct {@link ByteBuffer}s.
+ * <p/>
+ * The table never grows; the owner is expected to stop adding once
+ * {@link #isFull()} and {@link #clear()} (zero-fill and re-use) the set
+ * instead. Tables larger than a single buffer can address are split across
+ * segments selected by the high bits of the slot index.
+ * <p/>
+ * Instances are not thread-safe.
+ */
+final class OffHeapLongSet {
+	/**
+	 * Most slots held in a single segment (512MB); well under the 2GB a
+	 * single direct buffer can hold.
+	 */
+	private static final int MAX_SEGMENT_SLOTS = 1 << 26;
+
+	private static final byte[] ZEROS = new byte[65536];
+
+	private LongBuffer[] segments;
+	private ByteBuffer[] byteSegments;
+
+	private int segmentShift;
+	private int segmentMask;
+	private long slotMask;
+
+	private long maxSize;
+	private long size;
+
+	/**
+	 * @param maxSize
+	 *            The number of keys the set must be able to hold; the table is
+	 *            sized to keep the load factor at or under 0.5.
+	 */
+	OffHeapLongSet(long maxSize) {
+		long slots = 2;
+
+		while (slots < maxSize * 2)
+			slots <<= 1;
+
+		int segmentSlots = (int) Math.min(slots, MAX_SEGMENT_SLOTS);
+		int segmentCount = (int) (slots / segmentSlots);
+
+		segments = new LongBuffer[segmentCount];
+		byteSegments = new ByteBuffer[segmentCount];
+
+		for (int i = 0; i < segmentCount; i++) {
+			byteSegments[i] = ByteBuffer.allocateDirect(segmentSlots * 8)
+					.order(ByteOrder.nativeOrder());
+			segments[i] = byteSegments[i].asLongBuffer();
+		}
+
+		segmentShift = Long.numberOfTrailingZeros(segmentSlots);
+		segmentMask = segmentSlots - 1;
+		slotMask = slots - 1;
+
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * @return <code>true</code> if the key was added, <code>false</code> if it
+	 *         was already in the set.
+	 */
+	boolean add(long key) {
+		LongBuffer segment = segments[(int) ((key & slotMask) >>> segmentShift)];
+		int slot = (int) key & segmentMask;
+		long current;
+
+		while ((current = segment.get(slot)) != 0) {
+			if (current == key)
+				return false;
+
+			slot = (slot + 1) & segmentMask;
+		}
+
+		segment.put(slot, key);
+		size++;
+		return true;
+	}
+
+	boolean contains(long key) {
+		LongBuffer segment = segments[(int) ((key & slotMask) >>> segmentShift)];
+		int slot = (int) key & segmentMask;
+		long current;
+
+		while ((current = segment.get(slot)) != 0) {
+			if (current == key)
+				return true;
+
+			slot = (slot + 1) & segmentMask;
+		}
+
+		return false;
+	}
+
+	void clear() {
+		if (size == 0)
+			return;
+
+		for (int i = 0; i < byteSegments.length; i++) {
+			ByteBuffer segment = byteSegments[i];
+			segment.clear();
+
+			while (segment.hasRemaining())
+				segment.put(ZEROS, 0, Math.min(ZEROS.length,
+						segment.remaining()));
+
+			segment.clear();
+		}
+
+		size = 0;
+	}
+
+	long getSize() {
+		return size;
+	}
+
+	boolean isFull() {
+		return size >= maxSize;
+	}
+
+	/**
+	 * @return the number of bytes of direct memory held by the set.
+	 */
+	long getCapacityBytes() {
+		return (slotMask + 1) * 8;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,629 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.cloudfront;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Class used to share a fixed set of parser threads fairly between the logs of
+ * many CloudFront distributions.
+ * <p/>
+ * Every distribution gets its own queue of jobs. Workers pick the next job
+ * with deficit round robin (DRR) over the distributions that have work
+ * queued: on each turn a distribution is credited <code>quantum * weight</code>
+ * and runs jobs for as long as its credit covers their cost (typically the
+ * size of the file in bytes), then goes to the back of the line. So each
+ * distribution gets a share of the workers proportional to its weight no
+ * matter how deep its backlog is, and a distribution with a single small file
+ * queued waits for at most one turn of the others rather than behind
+ * everything submitted before it. A distribution that empties its queue loses
+ * its unused credit.
+ * <p/>
+ * Distributions registered as realtime are served from a priority lane: as
+ * long as any realtime distribution has work queued, free workers take it
+ * before any job from the normal lane (realtime distributions share the
+ * priority lane among themselves the same way). The scheduler stays work
+ * conserving; a single distribution with the workers to itself uses all of
+ * them.
+ * <p/>
+ * Each worker thread owns one {@link LogParser} (sharing the given
+ * {@link BufferPool}), re-used for every job it runs. Queue depth, queued cost,
+ * lag (the age of the oldest waiting job) and wait times are tracked per
+ * distribution, see {@link #getMetrics(String)}.
+ * <p/>
+ * Instances are thread-safe. Workers are daemon threads; call
+ * {@link #shutdown()} to let them finish the queued jobs and exit.
+ */
+public class ParseScheduler {
+	/**
+	 * Default credit given to a distribution of weight 1 on each turn (1MB,
+	 * about the size of a compressed log file).
+	 */
+	public static final long DEFAULT_QUANTUM = 1024 * 1024;
+
+	public static final int DEFAULT_WEIGHT = 1;
+
+	private long quantum;
+	private BufferPool bufferPool;
+	private Thread[] workers;
+
+	private Map<String, Distribution> distributions;
+
+	/**
+	 * Distributions with queued jobs, in the order they get their turn; the
+	 * head is the one currently being served.
+	 */
+	private LinkedList<Distribution> realtimeLane;
+	private LinkedList<Distribution> normalLane;
+
+	private int queueDepth;
+	private int runningCount;
+	private boolean shutdown;
+
+	public ParseScheduler(int workerCount) throws IllegalArgumentException {
+		this(workerCount, DEFAULT_QUANTUM, BufferPool.getSharedPool());
+	}
+
+	/**
+	 * Create a new scheduler and start its workers.
+	 * 
+	 * @param workerCount
+	 *            The number of worker threads (and parsers).
+	 * @param quantum
+	 *            The credit given to a distribution of weight 1 on each turn,
+	 *            in the same unit as the cost of the jobs.
+	 * @param bufferPool
+	 *            The pool the workers' parsers take their buffers from.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>workerCount</code> or <code>quantum</code> is &lt;
+	 *             1 or if <code>bufferPool</code> is <code>null</code>.
+	 */
+	public ParseScheduler(int workerCount, long quantum, BufferPool bufferPool)
+			throws IllegalArgumentException {
+		if (workerCount < 1)
+			throw new IllegalArgumentException("workerCount [" + workerCount
+					+ "] must be >= 1");
+		if (quantum < 1)
+			throw new IllegalArgumentException("quantum [" + quantum
+					+ "] must be >= 1");
+		if (bufferPool == null)
+			throw new IllegalArgumentException("bufferPool cannot be null");
+
+		this.quantum = quantum;
+		this.bufferPool = bufferPool;
+
+		distributions = new HashMap<String, Distribution>();
+		realtimeLane = new LinkedList<Distribution>();
+		normalLane = new LinkedList<Distribution>();
+
+		workers = new Thread[workerCount];
+
+		for (int i = 0; i < workerCount; i++) {
+			// Daemon threads, a forgotten shutdown() shouldn't hang the VM.
+			workers[i] = new Thread(new Worker(), "ParseScheduler-" + i);
+			workers[i].setDaemon(true);
+			workers[i].start();
+		}
+	}
+
+	public synchronized String toString() {
+		return this.getClass().getName() + "@" + hashCode() + "[workerCount="
+				+ workers.length + ", quantum=" + quantum
+				+ ", distributionCount=" + distributions.size()
+				+ ", queueDepth=" + queueDepth + ", runningCount="
+				+ runningCount + ", shutdown=" + shutdown + "]";
+	}
+
+	/**
+	 * Used to register a distribution or change the weight and lane of one
+	 * already registered. Distributions jobs are submitted for without being
+	 * registered first get {@link #DEFAULT_WEIGHT} in the normal lane.
+	 * 
+	 * @param name
+	 *            The name of the distribution.
+	 * @param weight
+	 *            The share of the workers the distribution gets relative to
+	 *            the others in its lane.
+	 * @param realtime
+	 *            <code>true</code> to serve the distribution from the priority
+	 *            lane.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>name</code> is <code>null</code> or if
+	 *             <code>weight</code> is &lt; 1.
+	 */
+	public synchronized void register(String name, int weight,
+			boolean realtime) throws IllegalArgumentException {
+		if (name == null)
+			throw new IllegalArgumentException("name cannot be null");
+		if (weight < 1)
+			throw new IllegalArgumentException("weight [" + weight
+					+ "] must be >= 1");
+
+		Distribution distribution = getDistribution(name);
+
+		if (distribution.realtime != realtime && !distribution.queue.isEmpty()) {
+			getLane(distribution).remove(distribution);
+			distribution.credited = false;
+			distribution.realtime = realtime;
+			getLane(distribution).addLast(distribution);
+			notifyAll();
+		}
+
+		distribution.weight = weight;
+		distribution.realtime = realtime;
+	}
+
+	/**
+	 * Convenience method used to submit a job parsing the given
+	 * GZIP-compressed log file with the given callback, costed at the size of
+	 * the file (at least 1).
+	 */
+	public Future<Void> submit(String distribution, final File file,
+			final ILogParserCallback callback) throws IllegalArgumentException,
+			IllegalStateException {
+		if (file == null)
+			throw new IllegalArgumentException("file cannot be null");
+		if (callback == null)
+			throw new IllegalArgumentException("callback cannot be null");
+
+		return submit(distribution, new IParseJob<Void>() {
+			public Void run(LogParser parser) throws Exception {
+				FileInputStream stream = new FileInputStream(file);
+
+				try {
+					parser.parse(stream, callback);
+				} finally {
+					// The parser doesn't close it if it fails early.
+					stream.close();
+				}
+
+				return null;
+			}
+		}, Math.max(1, file.length()));
+	}
+
+	/**
+	 * Used to queue a job for the given distribution.
+	 * 
+	 * @param distribution
+	 *            The name of the distribution.
+	 * @param job
+	 *            The job to run.
+	 * @param cost
+	 *            The cost of the job charged against the distribution's share,
+	 *            typically the size of the (compressed) file in bytes. Every
+	 *            job must cost something, or a distribution with a backlog of
+	 *            free jobs would never give up its turn.
+	 * 
+	 * @return a future for the result of the job.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>distribution</code> or <code>job</code> is
+	 *             <code>null</code> or if <code>cost</code> is &lt; 1.
+	 * @throws IllegalStateException
+	 *             if the scheduler has been shut down.
+	 */
+	public <T> Future<T> submit(String distribution, IParseJob<T> job,
+			long cost) throws IllegalArgumentException, IllegalStateException {
+		if (distribution == null)
+			throw new IllegalArgumentException("distribution cannot be null");
+		if (job == null)
+			throw new IllegalArgumentException("job cannot be null");
+		if (cost < 1)
+			throw new IllegalArgumentException("cost [" + cost
+					+ "] must be >= 1");
+
+		synchronized (this) {
+			if (shutdown)
+				throw new IllegalStateException("scheduler has been shut down");
+
+			Distribution target = getDistribution(distribution);
+			Task<T> task = new Task<T>(target, new JobCallable<T>(job), cost);
+
+			if (target.queue.isEmpty())
+				getLane(target).addLast(target);
+
+			target.queue.addLast(task);
+			target.queuedCost += cost;
+			queueDepth++;
+
+			notify();
+			return task;
+		}
+	}
+
+	/**
+	 * Used to stop accepting jobs; the workers exit once every queued job has
+	 * run.
+	 */
+	public synchronized void shutdown() {
+		shutdown = true;
+		notifyAll();
+	}
+
+	/**
+	 * Used to stop accepting jobs and cancel every queued job; jobs already
+	 * running are allowed to finish.
+	 * 
+	 * @return the number of jobs cancelled.
+	 */
+	public synchronized int shutdownNow() {
+		int cancelled = 0;
+
+		for (Iterator<Distribution> i = distributions.values().iterator(); i
+				.hasNext();) {
+			Distribution distribution = i.next();
+
+			while (!distribution.queue.isEmpty()) {
+				if (distribution.queue.removeFirst().cancel(false))
+					cancelled++;
+			}
+
+			distribution.queuedCost = 0;
+			distribution.deficit = 0;
+			distribution.credited = false;
+		}
+
+		realtimeLane.clear();
+		normalLane.clear();
+		queueDepth = 0;
+
+		shutdown();
+		return cancelled;
+	}
+
+	/**
+	 * Used to wait for the workers to exit after a shutdown.
+	 * 
+	 * @return <code>true</code> if every worker exited within the timeout.
+	 */
+	public boolean awaitTermination(long timeoutMillis)
+			throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+
+		for (int i = 0; i < workers.length; i++) {
+			long remaining = deadline - System.currentTimeMillis();
+
+			if (remaining <= 0)
+				return !isAlive();
+
+			workers[i].join(remaining);
+		}
+
+		return !isAlive();
+	}
+
+	public synchronized boolean isShutdown() {
+		return shutdown;
+	}
+
+	public int getWorkerCount() {
+		return workers.length;
+	}
+
+	public long getQuantum() {
+		return quantum;
+	}
+
+	public BufferPool getBufferPool() {
+		return bufferPool;
+	}
+
+	/**
+	 * @return the number of jobs waiting to run across every distribution.
+	 */
+	public synchronized int getQueueDepth() {
+		return queueDepth;
+	}
+
+	/**
+	 * @return the number of jobs currently running.
+	 */
+	public synchronized int getRunningCount() {
+		return runningCount;
+	}
+
+	/**
+	 * @return a snapshot of the queue of the given distribution or
+	 *         <code>null</code> if no such distribution is known.
+	 */
+	public synchronized DistributionMetrics getMetrics(String distribution) {
+		Distribution d = distributions.get(distribution);
+		return (d == null ? null : d.getMetrics(System.currentTimeMillis()));
+	}
+
+	/**
+	 * @return a snapshot of the queues of every distribution.
+	 */
+	public synchronized DistributionMetrics[] getMetrics() {
+		long now = System.currentTimeMillis();
+		DistributionMetrics[] metrics = new DistributionMetrics[distributions
+				.size()];
+		int i = 0;
+
+		for (Iterator<Distribution> d = distributions.values().iterator(); d
+				.hasNext();)
+			metrics[i++] = d.next().getMetrics(now);
+
+		return metrics;
+	}
+
+	private boolean isAlive() {
+		for (int i = 0; i < workers.length; i++) {
+			if (workers[i].isAlive())
+				return true;
+		}
+
+		return false;
+	}
+
+	private Distribution getDistribution(String name) {
+		Distribution distribution = distributions.get(name);
+
+		if (distribution == null) {
+			distribution = new Distribution(name);
+			distributions.put(name, distribution);
+		}
+
+		return distribution;
+	}
+
+	private LinkedList<Distribution> getLane(Distribution distribution) {
+		return (distribution.realtime ? realtimeLane : normalLane);
+	}
+
+	/**
+	 * Used to pick the next job to run, from the priority lane first. Must be
+	 * called while holding the lock.
+	 * 
+	 * @return the job or <code>null</code> if none are queued.
+	 */
+	private Task<?> nextTask() {
+		Task<?> task = nextTask(realtimeLane);
+		return (task == null ? nextTask(normalLane) : task);
+	}
+
+	private Task<?> nextTask(LinkedList<Distribution> lane) {
+		int skipped = 0;
+
+		while (!lane.isEmpty()) {
+			Distribution distribution = lane.getFirst();
+			Task<?> task = distribution.queue.getFirst();
+
+			if (task.isCancelled()) {
+				dequeue(lane, distribution);
+				skipped = 0;
+				continue;
+			}
+
+			// Credit the distribution once at the start of its turn.
+			if (!distribution.credited) {
+				distribution.deficit += quantum * distribution.weight;
+				distribution.credited = true;
+			}
+
+			if (task.cost <= distribution.deficit) {
+				distribution.deficit -= task.cost;
+				return dequeue(lane, distribution);
+			}
+
+			// End of its turn, keep the credit for the next one.
+			distribution.credited = false;
+			lane.addLast(lane.removeFirst());
+
+			/*
+			 * A whole round went by without a job being affordable (jobs much
+			 * bigger than the quantum); skip ahead instead of going round
+			 * again and again.
+			 */
+			if (++skipped == lane.size()) {
+				skipRounds(lane);
+				skipped = 0;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Used to credit every distribution in the lane at once with all but the
+	 * last of the rounds it takes for the first of them to afford its next
+	 * job; the last one is credited at the start of its turn as usual. Since
+	 * no job would run in the rounds skipped, the order is the same as if
+	 * they were gone through one at a time.
+	 */
+	private void skipRounds(LinkedList<Distribution> lane) {
+		long rounds = Long.MAX_VALUE;
+
+		for (Iterator<Distribution> i = lane.iterator(); i.hasNext();) {
+			Distribution distribution = i.next();
+			long credit = quantum * distribution.weight;
+			long needed = distribution.queue.getFirst().cost
+					- distribution.deficit;
+
+			rounds = Math.min(rounds, (needed - 1) / credit + 1);
+		}
+
+		for (Iterator<Distribution> i = lane.iterator(); i.hasNext();) {
+			Distribution distribution = i.next();
+			distribution.deficit += (rounds - 1) * quantum
+					* distribution.weight;
+		}
+	}
+
+	private Task<?> dequeue(LinkedList<Distribution> lane,
+			Distribution distribution) {
+		Task<?> task = distribution.queue.removeFirst();
+
+		distribution.queuedCost -= task.cost;
+		queueDepth--;
+
+		if (distribution.queue.isEmpty()) {
+			lane.removeFirst();
+			distribution.deficit = 0;
+			distribution.credited = false;
+		}
+
+		return task;
+	}
+
+	/**
+	 * Class used to hold the queue and scheduling state of a distribution.
+	 */
+	private static class Distribution {
+		private String name;
+		private int weight = DEFAULT_WEIGHT;
+		private boolean realtime;
+
+		private LinkedList<Task<?>> queue;
+		private long queuedCost;
+
+		private long deficit;
+		private boolean credited;
+
+		private int runningCount;
+		private long completedCount;
+		private long failedCount;
+		private long totalWaitMillis;
+
+		private Distribution(String name) {
+			this.name = name;
+			queue = new LinkedList<Task<?>>();
+		}
+
+		private DistributionMetrics getMetrics(long now) {
+			DistributionMetrics metrics = new DistributionMetrics();
+
+			metrics.name = name;
+			metrics.weight = weight;
+			metrics.realtime = realtime;
+			metrics.queueDepth = queue.size();
+			metrics.queuedCost = queuedCost;
+			metrics.lagMillis = (queue.isEmpty() ? 0 : now
+					- queue.getFirst().submitTime);
+			metrics.runningCount = runningCount;
+			metrics.completedCount = completedCount;
+			metrics.failedCount = failedCount;
+			metrics.totalWaitMillis = totalWaitMillis;
+
+			return metrics;
+		}
+	}
+
+	/**
+	 * Class used to hand the worker's parser to the job.
+	 */
+	private static class JobCallable<T> implements Callable<T> {
+		private IParseJob<T> job;
+		private LogParser parser;
+
+		private JobCallable(IParseJob<T> job) {
+			this.job = job;
+		}
+
+		public T call() throws Exception {
+			return job.run(parser);
+		}
+	}
+
+	private static class Task<T> extends FutureTask<T> {
+		private Distribution distribution;
+		private JobCallable<T> callable;
+		private long cost;
+
+		private long submitTime;
+		private long startTime;
+		private boolean failed;
+
+		private Task(Distribution distribution, JobCallable<T> callable,
+				long cost) {
+			super(callable);
+
+			this.distribution = distribution;
+			this.callable = callable;
+			this.cost = cost;
+
+			submitTime = System.currentTimeMillis();
+		}
+
+		protected void setException(Throwable t) {
+			failed = true;
+			super.setException(t);
+		}
+	}
+
+	private class Worker implements Runnable {
+		private LogParser parser = new LogParser(bufferPool);
+
+		public void run() {
+			while (true) {
+				Task<?> task;
+
+				synchronized (ParseScheduler.this) {
+					while ((task = nextTask()) == null) {
+						if (shutdown) {
+							// Let the other workers see the queues are empty.
+							ParseScheduler.this.notifyAll();
+							return;
+						}
+
+						try {
+							ParseScheduler.this.wait();
+						} catch (InterruptedException e) {
+							return;
+						}
+					}
+
+					task.startTime = System.currentTimeMillis();
+					task.distribution.runningCount++;
+					runningCount++;
+				}
+
+				task.callable.parser = parser;
+
+				try {
+					task.run();
+				} finally {
+					task.callable.parser = null;
+
+					synchronized (ParseScheduler.this) {
+						Distribution distribution = task.distribution;
+
+						distribution.runningCount--;
+						distribution.completedCount++;
+						distribution.totalWaitMillis += task.startTime
+								- task.submitTime;
+
+						if (task.failed)
+							distribution.failedCount++;
+
+						runningCount--;
+					}
+				}
+			}
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,639 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.cloudfront;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Class used to route parsed log entries into separate, GZIP-compressed
+ * output files (partitions), e.g. one file per day, per host or per edge
+ * location, as decided by an {@link IPartitioner}.
+ * <p/>
+ * The writer is an {@link IRawLogParserCallback}; the raw bytes of every line
+ * are copied straight out of the parser's read buffer into a per-partition
+ * buffer, so no text is ever re-encoded. The directive lines of the source log
+ * (<code>#Version</code>, <code>#Fields</code>, etc.) are written at the top of
+ * every partition so each output file is a valid log on its own (and can be
+ * read back with a {@link LogParser}).
+ * <p/>
+ * Entries given without their raw bytes (through
+ * {@link #logEntryParsed(ILogEntry)}, e.g. by a wrapping callback) are written
+ * out again from their values, in the column order of the last
+ * <code>#Fields:</code> directive.
+ * <p/>
+ * Full buffers are handed off to a small pool of writer threads that do the
+ * compression and file I/O, so the parsing thread only ever copies bytes.
+ * Every partition is always written by the same writer thread, keeping its
+ * output in order. The number of buffers is fixed; once they are all waiting
+ * to be written, the parsing thread blocks until one is free, so a slow disk
+ * throttles parsing instead of filling the heap.
+ * <p/>
+ * At most <code>maxOpenFiles</code> output files are held open at a time; when
+ * another one needs to be opened, the least-recently used one is finished and
+ * closed. If that partition receives more entries later, its file is re-opened
+ * for appending and a new GZIP member is started (a file of concatenated GZIP
+ * members is still a valid GZIP file).
+ * <p/>
+ * Instances are meant to be fed by one {@link LogParser} at a time (re-use
+ * them across any number of files) and must be closed with {@link #close()}
+ * to flush all buffered content.
+ */
+public class PartitionedLogWriter implements IRawLogParserCallback {
+	public static final String DEFAULT_PARTITION_KEY = "_default";
+	public static final String FILE_EXTENSION = ".log.gz";
+
+	public static final int DEFAULT_BUFFER_SIZE = 65536;
+	public static final int DEFAULT_MAX_OPEN_FILES = 64;
+	public static final int DEFAULT_WRITER_THREAD_COUNT = 2;
+
+	private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+	private File directory;
+	private IPartitioner partitioner;
+	private int maxOpenFiles;
+	private int bufferSize;
+
+	private Map<PartitionKey, Partition> partitionMap;
+	private LinkedHashMap<Partition, Partition> openPartitions;
+	private LinkedHashMap<Partition, Partition> bufferedPartitions;
+	private PartitionKey probeKey;
+
+	private BlockingQueue<byte[]> bufferPool;
+	private ExecutorService[] writers;
+
+	/**
+	 * Directive lines of the source log; the generation is bumped every time
+	 * they change so partitions know to write the new ones.
+	 */
+	private byte[] directives;
+	private int directivesLength;
+	private int directivesGeneration;
+	private boolean inDirectives;
+
+	/**
+	 * Used to write out entries that came without their raw bytes; the
+	 * handles follow the columns of the current directives.
+	 */
+	private byte[] lineBuffer;
+	private FieldHandle[] lineHandles;
+	private LogSchema lineSchema;
+	private int lineHandlesGeneration = -1;
+
+	private volatile IOException writeException;
+	private boolean closed;
+
+	public PartitionedLogWriter(File directory, IPartitioner partitioner)
+			throws IllegalArgumentException {
+		this(directory, partitioner, DEFAULT_MAX_OPEN_FILES,
+				DEFAULT_WRITER_THREAD_COUNT, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Create a new writer.
+	 *
+	 * @param directory
+	 *            The directory to write partition files to; it is created if
+	 *            it doesn't exist.
+	 * @param partitioner
+	 *            The strategy used to assign entries to partitions.
+	 * @param maxOpenFiles
+	 *            The maximum number of partition files to keep open at once.
+	 * @param writerThreadCount
+	 *            The number of threads compressing and writing files.
+	 * @param bufferSize
+	 *            The size of each partition's write buffer.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if <code>directory</code> or <code>partitioner</code> is
+	 *             <code>null</code>, if <code>directory</code> can't be
+	 *             created or if any of the numeric arguments are &lt; 1.
+	 */
+	public PartitionedLogWriter(File directory, IPartitioner partitioner,
+			int maxOpenFiles, int writerThreadCount, int bufferSize)
+			throws IllegalArgumentException {
+		if (directory == null)
+			throw new IllegalArgumentException("directory cannot be null");
+		if (partitioner == null)
+			throw new IllegalArgumentException("partitioner cannot be null");
+		if (maxOpenFiles < 1)
+			throw new IllegalArgumentException("maxOpenFiles [" + maxOpenFiles
+					+ "] must be >= 1");
+		if (writerThreadCount < 1)
+			throw new IllegalArgumentException("writerThreadCount ["
+					+ writerThreadCount + "] must be >= 1");
+		if (bufferSize < 1)
+			throw new IllegalArgumentException("bufferSize [" + bufferSize
+					+ "] must be >= 1");
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IllegalArgumentException("directory ["
+					+ directory.getAbsolutePath()
+					+ "] does not exist and could not be created");
+
+		this.directory = directory;
+		this.partitioner = partitioner;
+		this.maxOpenFiles = maxOpenFiles;
+		this.bufferSize = bufferSize;
+
+		partitionMap = new HashMap<PartitionKey, Partition>();
+		openPartitions = new LinkedHashMap<Partition, Partition>(16, 0.75f,
+				true);
+		bufferedPartitions = new LinkedHashMap<Partition, Partition>(16,
+				0.75f, true);
+		probeKey = new PartitionKey(null, 0);
+
+		/*
+		 * Enough buffers for every open partition to be filling one while
+		 * every writer thread has a few queued up.
+		 */
+		int bufferCount = maxOpenFiles + writerThreadCount * 4;
+		bufferPool = new ArrayBlockingQueue<byte[]>(bufferCount);
+
+		for (int i = 0; i < bufferCount; i++)
+			bufferPool.add(new byte[bufferSize]);
+
+		writers = new ExecutorService[writerThreadCount];
+
+		for (int i = 0; i < writerThreadCount; i++) {
+			final String name = "PartitionedLogWriter-" + i;
+
+			// Daemon threads, a forgotten close() shouldn't hang the VM.
+			writers[i] = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, name);
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+
+		directives = new byte[1024];
+	}
+
+	public String toString() {
+		return this.getClass().getName() + "@" + hashCode() + "[directory="
+				+ directory + ", partitioner=" + partitioner
+				+ ", partitionCount=" + partitionMap.size()
+				+ ", openFileCount=" + openPartitions.size()
+				+ ", maxOpenFiles=" + maxOpenFiles + "]";
+	}
+
+	/**
+	 * @return the file the partition with the given key is written to. Any
+	 *         char other than a letter, digit, '-', '_' or (not leading) '.'
+	 *         is written as the <code>%XX</code> escapes of its UTF-8 bytes,
+	 *         so distinct keys always get distinct files.
+	 */
+	public File getPartitionFile(String key) {
+		byte[] bytes;
+
+		try {
+			bytes = key.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			// UTF-8 support is required of every JVM, this can't happen.
+			throw new RuntimeException(e);
+		}
+
+		StringBuilder name = new StringBuilder(bytes.length
+				+ FILE_EXTENSION.length());
+
+		// Keep keys from escaping the directory or making invalid names
+		for (int i = 0; i < bytes.length; i++) {
+			int b = bytes[i] & 0xFF;
+
+			if ((b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z')
+					|| (b >= '0' && b <= '9') || b == '-' || b == '_'
+					|| (b == '.' && i > 0))
+				name.append((char) b);
+			else
+				name.append('%').append(HEX[b >>> 4]).append(HEX[b & 0x0F]);
+		}
+
+		return new File(directory, name.append(FILE_EXTENSION).toString());
+	}
+
+	/**
+	 * @return the number of partitions written to so far.
+	 */
+	public int getPartitionCount() {
+		return partitionMap.size();
+	}
+
+	public void logEntryParsed(ILogEntry entry) {
+		checkState();
+
+		// Nothing to describe the columns yet, write a header of our own.
+		if (directivesLength == 0) {
+			StringBuilder header = new StringBuilder("#Version: 1.0\n#Fields:");
+			String[] names = entry.getFieldNames();
+
+			for (int i = 0; i < names.length; i++)
+				header.append(' ').append(names[i]);
+
+			byte[] bytes = header.append('\n').toString().getBytes();
+			directiveParsed(bytes, 0, bytes.length);
+		}
+
+		if (lineHandlesGeneration != directivesGeneration
+				|| lineSchema != entry.getSchema())
+			resolveLineHandles(entry);
+
+		int length = writeLine(entry);
+		logEntryParsed(entry, lineBuffer, 0, length);
+	}
+
+	public void directiveParsed(byte[] line, int index, int length) {
+		// A new block of directives replaces the previous one.
+		if (!inDirectives) {
+			directivesLength = 0;
+			directivesGeneration++;
+			inDirectives = true;
+		}
+
+		if (directivesLength + length > directives.length) {
+			byte[] grown = new byte[Math.max(directives.length * 2,
+					directivesLength + length)];
+			System.arraycopy(directives, 0, grown, 0, directivesLength);
+			directives = grown;
+		}
+
+		System.arraycopy(line, index, directives, directivesLength, length);
+		directivesLength += length;
+	}
+
+	public void logEntryParsed(ILogEntry entry, byte[] line, int index,
+			int length) {
+		checkState();
+		inDirectives = false;
+
+		Partition partition = getPartition(partitioner.getPartitionKey(entry));
+
+		// Start every partition (and every change in format) with directives
+		if (partition.directivesGeneration != directivesGeneration) {
+			partition.directivesGeneration = directivesGeneration;
+			write(partition, directives, 0, directivesLength);
+		}
+
+		write(partition, line, index, length);
+	}
+
+	/**
+	 * Used to write out all buffered content, close every partition file and
+	 * stop the writer threads.
+	 *
+	 * @throws IOException
+	 *             if any write to any partition file failed.
+	 */
+	public void close() throws IOException {
+		if (closed)
+			return;
+
+		closed = true;
+
+		try {
+			for (Iterator<Partition> i = partitionMap.values().iterator(); i
+					.hasNext();) {
+				Partition partition = i.next();
+
+				flush(partition);
+
+				if (openPartitions.remove(partition) != null)
+					submitClose(partition);
+			}
+		} finally {
+			for (int i = 0; i < writers.length; i++)
+				writers[i].shutdown();
+
+			try {
+				for (int i = 0; i < writers.length; i++)
+					writers[i].awaitTermination(Long.MAX_VALUE,
+							TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException(
+						"Interrupted while waiting for partition files to be written");
+			}
+		}
+
+		if (writeException != null)
+			throw writeException;
+	}
+
+	/**
+	 * Used to resolve the columns named by the last <code>#Fields:</code>
+	 * directive against the schema of the given entry.
+	 */
+	private void resolveLineHandles(ILogEntry entry) {
+		String fields = null;
+
+		for (int i = 0, start = 0; i < directivesLength; i++) {
+			if (directives[i] != '\n')
+				continue;
+
+			String line = new String(directives, start, i - start).trim();
+
+			if (line.startsWith("#Fields:"))
+				fields = line.substring(8).trim();
+
+			start = i + 1;
+		}
+
+		LogSchema schema = entry.getSchema();
+		String[] names = (fields == null ? entry.getFieldNames() : fields
+				.split("[ \t]+"));
+
+		lineHandles = new FieldHandle[names.length];
+
+		// Columns the schema doesn't know are written as missing values.
+		for (int i = 0; i < names.length; i++)
+			lineHandles[i] = schema.getFieldHandle(names[i]);
+
+		lineSchema = schema;
+		lineHandlesGeneration = directivesGeneration;
+	}
+
+	/**
+	 * Used to write the values of the given entry into the line buffer as a
+	 * tab-separated line.
+	 * 
+	 * @return the length of the line, including its terminating \n.
+	 */
+	private int writeLine(ILogEntry entry) {
+		char[][] values = new char[lineHandles.length][];
+		int maxLength = lineHandles.length + 1;
+
+		for (int i = 0; i < lineHandles.length; i++) {
+			if (lineHandles[i] != null)
+				values[i] = entry.getFieldValue(lineHandles[i]);
+			if (values[i] != null)
+				maxLength += values[i].length * 3;
+			else
+				maxLength++;
+		}
+
+		if (lineBuffer == null || lineBuffer.length < maxLength)
+			lineBuffer = new byte[Math.max(maxLength, 1024)];
+
+		int length = 0;
+
+		for (int i = 0; i < values.length; i++) {
+			if (i > 0)
+				lineBuffer[length++] = '\t';
+
+			char[] value = values[i];
+
+			if (value == null) {
+				lineBuffer[length++] = ILogEntry.EMPTY_VALUE_FLAG;
+				continue;
+			}
+
+			for (int j = 0; j < value.length; j++) {
+				char c = value[j];
+
+				if (c < 0x80)
+					lineBuffer[length++] = (byte) c;
+				else {
+					// The parser only produces U+FFFD outside of ASCII.
+					lineBuffer[length++] = (byte) 0xEF;
+					lineBuffer[length++] = (byte) 0xBF;
+					lineBuffer[length++] = (byte) 0xBD;
+				}
+			}
+		}
+
+		lineBuffer[length++] = '\n';
+		return length;
+	}
+
+	private void checkState() throws IllegalStateException {
+		if (closed)
+			throw new IllegalStateException("writer has been closed");
+
+		IOException e = writeException;
+
+		if (e != null)
+			throw new RuntimeException(
+					"An exception occurred while writing to a partition file, no more entries can be written.",
+					e);
+	}
+
+	private Partition getPartition(char[] key) {
+		if (key == null || key.length == 0)
+			key = DEFAULT_PARTITION_KEY.toCharArray();
+
+		probeKey.set(key);
+		Partition partition = partitionMap.get(probeKey);
+
+		if (partition == null) {
+			// Copy the key; the probe only ever wraps the caller's array.
+			PartitionKey partitionKey = new PartitionKey(key.clone(),
+					probeKey.hash);
+			String name = new String(key);
+
+			partition = new Partition(getPartitionFile(name),
+					writers[(probeKey.hash & Integer.MAX_VALUE)
+							% writers.length]);
+			partitionMap.put(partitionKey, partition);
+		}
+
+		return partition;
+	}
+
+	private void write(Partition partition, byte[] bytes, int index,
+			int length) {
+		// Oversized lines get a buffer of their own.
+		if (length > bufferSize) {
+			byte[] copy = new byte[length];
+			System.arraycopy(bytes, index, copy, 0, length);
+
+			flush(partition);
+			submitWrite(partition, copy, length, false);
+			return;
+		}
+
+		if (partition.buffer != null
+				&& partition.length + length > partition.buffer.length)
+			flush(partition);
+
+		if (partition.buffer == null)
+			partition.buffer = takeBuffer();
+
+		// Track recency of use for takeBuffer()
+		bufferedPartitions.put(partition, partition);
+
+		System.arraycopy(bytes, index, partition.buffer, partition.length,
+				length);
+		partition.length += length;
+	}
+
+	private byte[] takeBuffer() {
+		byte[] buffer = bufferPool.poll();
+
+		if (buffer == null) {
+			/*
+			 * Every buffer is either queued for writing or sitting partially
+			 * filled in a partition. Write out the least-recently used partial
+			 * one so we are guaranteed to get a buffer back.
+			 */
+			if (!bufferedPartitions.isEmpty())
+				flush(bufferedPartitions.keySet().iterator().next());
+
+			try {
+				buffer = bufferPool.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(
+						"Interrupted while waiting for a free write buffer", e);
+			}
+		}
+
+		return buffer;
+	}
+
+	private void flush(Partition partition) {
+		if (partition.buffer == null)
+			return;
+
+		bufferedPartitions.remove(partition);
+
+		submitWrite(partition, partition.buffer, partition.length, true);
+
+		partition.buffer = null;
+		partition.length = 0;
+	}
+
+	private void submitWrite(final Partition partition, final byte[] buffer,
+			final int length, final boolean pooled) {
+		// Make room in the set of open files, least-recently used goes first.
+		if (openPartitions.put(partition, partition) == null
+				&& openPartitions.size() > maxOpenFiles) {
+			Iterator<Partition> i = openPartitions.keySet().iterator();
+			Partition eldest = i.next();
+			i.remove();
+
+			submitClose(eldest);
+		}
+
+		partition.writer.execute(new Runnable() {
+			public void run() {
+				try {
+					if (writeException == null) {
+						if (partition.out == null)
+							partition.out = new GZIPOutputStream(
+									new BufferedOutputStream(
+											new FileOutputStream(
+													partition.file, true),
+											bufferSize), bufferSize);
+
+						partition.out.write(buffer, 0, length);
+					}
+				} catch (IOException e) {
+					writeException = e;
+				} finally {
+					if (pooled)
+						bufferPool.offer(buffer);
+				}
+			}
+		});
+	}
+
+	private void submitClose(final Partition partition) {
+		partition.writer.execute(new Runnable() {
+			public void run() {
+				OutputStream out = partition.out;
+				partition.out = null;
+
+				if (out != null) {
+					try {
+						out.close();
+					} catch (IOException e) {
+						if (writeException == null)
+							writeException = e;
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Map key comparing partition keys by content so lookups can be done with
+	 * a re-used probe wrapping the caller's array.
+	 */
+	private static class PartitionKey {
+		private char[] key;
+		private int hash;
+
+		PartitionKey(char[] key, int hash) {
+			this.key = key;
+			this.hash = hash;
+		}
+
+		void set(char[] key) {
+			this.key = key;
+			this.hash = Arrays.hashCode(key);
+		}
+
+		public int hashCode() {
+			return hash;
+		}
+
+		public boolean equals(Object obj) {
+			if (!(obj instanceof PartitionKey))
+				return false;
+
+			PartitionKey other = (PartitionKey) obj;
+
+			return (hash == other.hash && Arrays.equals(key, other.key));
+		}
+	}
+
+	/**
+	 * State for a single output partition. The buffer fields are only ever
+	 * touched by the parsing thread and <code>out</code> only ever by the
+	 * partition's writer thread.
+	 */
+	private static class Partition {
+		private File file;
+		private ExecutorService writer;
+
+		private byte[] buffer;
+		private int length;
+		private int directivesGeneration;
+
+		private OutputStream out;
+
+		Partition(File file, ExecutorService writer) {
+			this.file = file;
+			this.writer = writer;
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,177 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.cloudfront;
+
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Class used to provide fast decoding of the percent-encoded (URL-encoded)
+ * values CloudFront writes out for fields like <code>cs-uri-stem</code>,
+ * <code>cs-uri-query</code> and <code>cs(User-Agent)</code>.
+ * <p/>
+ * Only <code>%XX</code> escape sequences are decoded; a '+' is left alone (it
+ * only means "space" in form-encoded content, which log values are not) and
+ * any malformed escape sequence is copied through untouched. Decoded bytes are
+ * interpreted as UTF-8.
+ * <p/>
+ * All methods are thread-safe.
+ */
+public class PercentDecodingUtils {
+	public static final char ESCAPE_CHAR = '%';
+
+	private static final String UTF8_CHARSET_NAME = "UTF-8";
+
+	/**
+	 * Convenience method used to decode the entire given value.
+	 * 
+	 * @see #decode(char[], int)
+	 */
+	public static char[] decode(char[] value) {
+		return decode(value, 1);
+	}
+
+	/**
+	 * Used to decode the given value the given number of times. CloudFront
+	 * double-encodes some values (e.g. <code>cs(User-Agent)</code>) so those
+	 * need 2 passes to get back to the original text.
+	 * <p/>
+	 * If the value contains no escape sequences (the common case for most
+	 * values), the same instance is returned without any allocation.
+	 * 
+	 * @param value
+	 *            The value to decode.
+	 * @param passes
+	 *            The number of times to decode the value.
+	 * 
+	 * @return the decoded value or <code>null</code> if <code>value</code> is
+	 *         <code>null</code>.
+	 */
+	public static char[] decode(char[] value, int passes) {
+		for (int i = 0; value != null && i < passes; i++) {
+			char[] decoded = decodeOnce(value);
+
+			// Nothing left to decode, further passes won't change anything.
+			if (decoded == value)
+				break;
+
+			value = decoded;
+		}
+
+		return value;
+	}
+
+	/**
+	 * Used to decode the given range of the value directly into the given
+	 * UTF-8 byte buffer. This is the allocation-free form of decoding used by
+	 * writers that want bytes and not characters.
+	 * 
+	 * @param value
+	 *            The value to decode.
+	 * @param index
+	 *            The index to begin decoding at.
+	 * @param length
+	 *            The number of chars to decode.
+	 * @param dest
+	 *            The buffer to write decoded bytes to; it must have at least
+	 *            <code>length * 3</code> bytes remaining after
+	 *            <code>destIndex</code> to hold the worst case (all non-ASCII
+	 *            chars).
+	 * @param destIndex
+	 *            The index to begin writing bytes at.
+	 * 
+	 * @return the number of bytes written to <code>dest</code>.
+	 */
+	public static int decode(char[] value, int index, int length, byte[] dest,
+			int destIndex) {
+		int start = destIndex;
+
+		for (int end = index + length; index < end; index++) {
+			char c = value[index];
+			int hex;
+
+			if (c == ESCAPE_CHAR && index + 2 < end
+					&& (hex = hexValue(value[index + 1], value[index + 2])) != -1) {
+				dest[destIndex++] = (byte) hex;
+				index += 2;
+			} else if (c < 0x80)
+				dest[destIndex++] = (byte) c;
+			else
+				destIndex = encodeUTF8(c, dest, destIndex);
+		}
+
+		return destIndex - start;
+	}
+
+	/**
+	 * @return the numeric value of the 2 given hex digits or <code>-1</code>
+	 *         if either of them isn't a valid hex digit.
+	 */
+	public static int hexValue(char high, char low) {
+		int h = Character.digit(high, 16);
+		int l = Character.digit(low, 16);
+
+		return (h == -1 || l == -1 ? -1 : (h << 4) | l);
+	}
+
+	private static char[] decodeOnce(char[] value) {
+		int escapeIndex = -1;
+
+		for (int i = 0; escapeIndex == -1 && i < value.length; i++) {
+			if (value[i] == ESCAPE_CHAR)
+				escapeIndex = i;
+		}
+
+		if (escapeIndex == -1)
+			return value;
+
+		byte[] bytes = new byte[value.length * 3];
+		int length = decode(value, 0, value.length, bytes, 0);
+		boolean ascii = true;
+
+		for (int i = 0; ascii && i < length; i++)
+			ascii = (bytes[i] >= 0);
+
+		// Fast path, ASCII bytes map 1:1 onto chars.
+		if (ascii) {
+			char[] decoded = new char[length];
+
+			for (int i = 0; i < length; i++)
+				decoded[i] = (char) bytes[i];
+
+			return decoded;
+		}
+
+		try {
+			return new String(bytes, 0, length, UTF8_CHARSET_NAME)
+					.toCharArray();
+		} catch (UnsupportedEncodingException e) {
+			// UTF-8 support is required of every JVM, this can't happen.
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static int encodeUTF8(char c, byte[] dest, int destIndex) {
+		if (c < 0x800) {
+			dest[destIndex++] = (byte) (0xC0 | (c >> 6));
+		} else {
+			dest[destIndex++] = (byte) (0xE0 | (c >> 12));
+			dest[destIndex++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+		}
+
+		dest[destIndex++] = (byte) (0x80 | (c & 0x3F));
+		return destIndex;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,55 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.cloudfront;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Class used to inflate a GZIP stream using an input buffer taken from a
+ * {@link BufferPool} and given back to it when the stream is closed.
+ * <p/>
+ * {@link GZIPInputStream} always allocates its own buffer; it is created with
+ * a minimal one here and the (protected) buffer is swapped for a pooled one
+ * before any compressed content is read through it (the GZIP header is read
+ * straight from the source stream).
+ */
+final class PooledGZIPInputStream extends GZIPInputStream {
+	private BufferPool pool;
+	private boolean closed;
+
+	PooledGZIPInputStream(InputStream in, BufferPool pool, int size)
+			throws IOException {
+		super(in, 1);
+
+		this.pool = pool;
+		buf = pool.acquire(size);
+	}
+
+	public void close() throws IOException {
+		if (closed)
+			return;
+
+		closed = true;
+
+		try {
+			super.close();
+		} finally {
+			pool.release(buf);
+		}
+	}
+}
\ No newline at end of file
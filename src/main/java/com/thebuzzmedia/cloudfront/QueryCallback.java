@@ -0,0 +1,251 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.cloudfront;
+
+/**
+ * Callback used to evaluate a {@link CompiledQuery} against every entry it is
+ * given, accumulating the aggregates per group.
+ * <p/>
+ * Groups are kept in an open-addressing table keyed directly on the
+ * <code>char[]</code> value of the group-by field, with the accumulators of
+ * all groups in flat primitive arrays; the only allocation happens the first
+ * time a group is seen (to keep a copy of its key).
+ * <p/>
+ * Instances are not thread-safe. They can be fed by any number of parse
+ * operations before calling {@link #getResult()}.
+ */
+public class QueryCallback implements ILogParserCallback {
+	private static final int INITIAL_GROUP_CAPACITY = 16;
+
+	private CompiledQuery query;
+
+	private QueryPredicate filter;
+	private FieldHandle groupBy;
+	private int[] kinds;
+	private FieldHandle[] fields;
+	private int aggregateCount;
+
+	private long scannedCount;
+	private long matchedCount;
+
+	/**
+	 * Group index + 1 per slot, 0 for empty slots.
+	 */
+	private int[] table;
+	private char[][] groupKeys;
+	private int groupCount;
+	private int nullGroup = -1;
+
+	/**
+	 * Accumulators and the number of values they saw, indexed by
+	 * <code>group * aggregateCount + aggregate</code>.
+	 */
+	private double[] values;
+	private long[] counts;
+
+	QueryCallback(CompiledQuery query) {
+		this.query = query;
+
+		filter = query.filter;
+		groupBy = query.groupBy;
+		kinds = query.aggregateKinds;
+		fields = query.aggregateFields;
+		aggregateCount = kinds.length;
+
+		table = new int[INITIAL_GROUP_CAPACITY * 2];
+		groupKeys = new char[INITIAL_GROUP_CAPACITY][];
+		values = new double[INITIAL_GROUP_CAPACITY * aggregateCount];
+		counts = new long[INITIAL_GROUP_CAPACITY * aggregateCount];
+
+		// Without a GROUP BY there is always exactly one (possibly 0) row.
+		if (groupBy == null)
+			nullGroup = addGroup(null);
+	}
+
+	public String toString() {
+		return this.getClass().getName() + "@" + hashCode() + "[query="
+				+ query.getQuery() + ", scannedCount=" + scannedCount
+				+ ", matchedCount=" + matchedCount + ", groupCount="
+				+ groupCount + "]";
+	}
+
+	public void logEntryParsed(ILogEntry entry) {
+		scannedCount++;
+
+		if (filter != null && !filter.matches(entry))
+			return;
+
+		matchedCount++;
+
+		int offset = getGroup(groupBy == null ? null : entry
+				.getFieldValue(groupBy))
+				* aggregateCount;
+
+		for (int i = 0; i < aggregateCount; i++) {
+			int slot = offset + i;
+
+			if (fields[i] == null) {
+				counts[slot]++;
+				continue;
+			}
+
+			char[] value = entry.getFieldValue(fields[i]);
+
+			if (value == null)
+				continue;
+
+			if (kinds[i] == CompiledQuery.COUNT) {
+				counts[slot]++;
+				continue;
+			}
+
+			double number = QueryPredicate.parseNumber(value);
+
+			// Non-numeric values are ignored like missing ones.
+			if (number != number)
+				continue;
+
+			switch (kinds[i]) {
+			case CompiledQuery.MIN:
+				if (counts[slot] == 0 || number < values[slot])
+					values[slot] = number;
+				break;
+
+			case CompiledQuery.MAX:
+				if (counts[slot] == 0 || number > values[slot])
+					values[slot] = number;
+				break;
+
+			default:
+				values[slot] += number;
+			}
+
+			counts[slot]++;
+		}
+	}
+
+	/**
+	 * @return a snapshot of the results accumulated so far.
+	 */
+	public QueryResult getResult() {
+		String[] keys = new String[groupCount];
+
+		for (int i = 0; i < groupCount; i++)
+			keys[i] = (groupKeys[i] == null ? null : new String(groupKeys[i]));
+
+		double[] valuesCopy = new double[groupCount * aggregateCount];
+		long[] countsCopy = new long[groupCount * aggregateCount];
+
+		System.arraycopy(values, 0, valuesCopy, 0, valuesCopy.length);
+		System.arraycopy(counts, 0, countsCopy, 0, countsCopy.length);
+
+		return new QueryResult(query.getQuery(), (groupBy == null ? null
+				: groupBy.getName()), query.getColumnNames(), kinds.clone(),
+				keys, valuesCopy, countsCopy, scannedCount, matchedCount);
+	}
+
+	public CompiledQuery getQuery() {
+		return query;
+	}
+
+	public long getScannedCount() {
+		return scannedCount;
+	}
+
+	public long getMatchedCount() {
+		return matchedCount;
+	}
+
+	private int getGroup(char[] key) {
+		if (key == null)
+			return (nullGroup == -1 ? (nullGroup = addGroup(null)) : nullGroup);
+
+		int mask = table.length - 1;
+		int slot = hash(key) & mask;
+		int group;
+
+		while ((group = table[slot]) != 0) {
+			char[] existing = groupKeys[group - 1];
+
+			if (existing != null && existing.length == key.length
+					&& QueryPredicate.regionMatches(existing, 0, key))
+				return group - 1;
+
+			slot = (slot + 1) & mask;
+		}
+
+		// The entry's values are re-used per line, keep a copy.
+		char[] copy = new char[key.length];
+		System.arraycopy(key, 0, copy, 0, key.length);
+
+		group = addGroup(copy);
+		table[slot] = group + 1;
+
+		// Keep the load factor under 0.5
+		if (groupCount * 2 > table.length)
+			rehash();
+
+		return group;
+	}
+
+	private int addGroup(char[] key) {
+		if (groupCount == groupKeys.length) {
+			char[][] grownKeys = new char[groupKeys.length * 2][];
+			System.arraycopy(groupKeys, 0, grownKeys, 0, groupCount);
+			groupKeys = grownKeys;
+
+			double[] grownValues = new double[values.length * 2];
+			System.arraycopy(values, 0, grownValues, 0, values.length);
+			values = grownValues;
+
+			long[] grownCounts = new long[counts.length * 2];
+			System.arraycopy(counts, 0, grownCounts, 0, counts.length);
+			counts = grownCounts;
+		}
+
+		groupKeys[groupCount] = key;
+		return groupCount++;
+	}
+
+	private void rehash() {
+		int[] grown = new int[table.length * 2];
+		int mask = grown.length - 1;
+
+		for (int i = 0; i < groupCount; i++) {
+			if (groupKeys[i] == null)
+				continue;
+
+			int slot = hash(groupKeys[i]) & mask;
+
+			while (grown[slot] != 0)
+				slot = (slot + 1) & mask;
+
+			grown[slot] = i + 1;
+		}
+
+		table = grown;
+	}
+
+	private static int hash(char[] key) {
+		int h = 0;
+
+		for (int i = 0; i < key.length; i++)
+			h = 31 * h + key[i];
+
+		// Spread the high bits down, the table uses the low ones.
+		return h ^ (h >>> 16);
+	}
+}
\ No newline at end of file
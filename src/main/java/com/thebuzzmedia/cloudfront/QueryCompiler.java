@@ -0,0 +1,501 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.cloudfront;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class used to parse the text of a query and compile it into a
+ * {@link CompiledQuery}.
+ * <p/>
+ * The grammar (keywords are case-insensitive):
+ * 
+ * <pre>
+ * query      := [SELECT column (',' column)*] [[WHERE] expression] [GROUP BY field]
+ * column     := COUNT '(' ('*' | field) ')' | (SUM | MIN | MAX | AVG) '(' field ')' | field
+ * expression := term (OR term)*
+ * term       := factor (AND factor)*
+ * factor     := NOT factor | '(' expression ')' | comparison
+ * comparison := field ('=' | '!=' | '&lt;&gt;' | '&lt;' | '&lt;=' | '&gt;' | '&gt;=') (number | 'string' | NULL)
+ *             | field LIKE 'pattern'
+ * </pre>
+ * 
+ * Fields are either their names from the <code>#Fields:</code> directive
+ * (e.g. <code>sc-status</code>, <code>cs(Host)</code>) or one of the short
+ * aliases (e.g. <code>status</code>, <code>host</code>, <code>edge</code>).
+ * A plain field in the <code>SELECT</code> list must be the
+ * <code>GROUP BY</code> field. <code>LIKE</code> patterns support a leading
+ * and/or trailing <code>%</code> only.
+ */
+final class QueryCompiler {
+	private static final Map<String, String> DOWNLOAD_ALIASES = new HashMap<String, String>();
+	private static final Map<String, String> STREAMING_ALIASES = new HashMap<String, String>();
+
+	static {
+		DOWNLOAD_ALIASES.put("status", "sc-status");
+		DOWNLOAD_ALIASES.put("host", "cs(Host)");
+		DOWNLOAD_ALIASES.put("edge", "x-edge-location");
+		DOWNLOAD_ALIASES.put("bytes", "sc-bytes");
+		DOWNLOAD_ALIASES.put("ip", "c-ip");
+		DOWNLOAD_ALIASES.put("method", "cs-method");
+		DOWNLOAD_ALIASES.put("uri", "cs-uri-stem");
+		DOWNLOAD_ALIASES.put("query", "cs-uri-query");
+		DOWNLOAD_ALIASES.put("referer", "cs(Referer)");
+		DOWNLOAD_ALIASES.put("agent", "cs(User-Agent)");
+		DOWNLOAD_ALIASES.put("result", "x-edge-result-type");
+		DOWNLOAD_ALIASES.put("protocol", "cs-protocol");
+
+		STREAMING_ALIASES.put("status", "x-cf-status");
+		STREAMING_ALIASES.put("edge", "x-edge-location");
+		STREAMING_ALIASES.put("bytes", "sc-bytes");
+		STREAMING_ALIASES.put("ip", "c-ip");
+		STREAMING_ALIASES.put("event", "x-event");
+		STREAMING_ALIASES.put("uri", "cs-uri-stem");
+		STREAMING_ALIASES.put("query", "cs-uri-query");
+		STREAMING_ALIASES.put("referer", "c-referrer");
+		STREAMING_ALIASES.put("agent", "c-user-agent");
+		STREAMING_ALIASES.put("stream", "x-sname");
+		STREAMING_ALIASES.put("sid", "x-sid");
+	}
+
+	private static final int IDENTIFIER = 0;
+	private static final int NUMBER = 1;
+	private static final int STRING = 2;
+	private static final int SYMBOL = 3;
+	private static final int END = 4;
+
+	private String query;
+	private ILogEntry.Type type;
+	private LogSchema schema;
+	private Map<String, String> aliases;
+
+	private int position;
+	private int tokenType;
+	private int tokenStart;
+	private String token;
+
+	private List<FieldHandle> fields = new ArrayList<FieldHandle>();
+
+	private QueryCompiler(String query, ILogEntry.Type type) {
+		this.query = query;
+		this.type = type;
+
+		schema = LogSchema.getSchema(type);
+		aliases = (type == ILogEntry.Type.STREAMING ? STREAMING_ALIASES
+				: DOWNLOAD_ALIASES);
+	}
+
+	static CompiledQuery compile(String query, ILogEntry.Type type)
+			throws IllegalArgumentException {
+		return new QueryCompiler(query, type).compile();
+	}
+
+	private CompiledQuery compile() throws IllegalArgumentException {
+		List<Integer> kinds = new ArrayList<Integer>();
+		List<FieldHandle> aggregateFields = new ArrayList<FieldHandle>();
+		List<String> columnNames = new ArrayList<String>();
+		List<FieldHandle> selectedFields = new ArrayList<FieldHandle>();
+
+		QueryPredicate filter = null;
+		FieldHandle groupBy = null;
+
+		next();
+
+		if (isKeyword("SELECT")) {
+			do {
+				next();
+				parseColumn(kinds, aggregateFields, columnNames,
+						selectedFields);
+			} while (isSymbol(","));
+		}
+
+		if (isKeyword("WHERE")) {
+			next();
+			filter = parseExpression();
+		} else if (tokenType != END && !isKeyword("GROUP"))
+			filter = parseExpression();
+
+		if (isKeyword("GROUP")) {
+			next();
+			expectKeyword("BY");
+			groupBy = parseField();
+		}
+
+		if (tokenType != END)
+			throw error("Unexpected [" + token + "]");
+
+		for (int i = 0; i < selectedFields.size(); i++) {
+			if (selectedFields.get(i) != groupBy)
+				throw new IllegalArgumentException("Selected field ["
+						+ selectedFields.get(i).getName()
+						+ "] must be the GROUP BY field in query: " + query);
+		}
+
+		// Nothing selected is the same as SELECT COUNT(*)
+		if (kinds.isEmpty()) {
+			kinds.add(CompiledQuery.COUNT);
+			aggregateFields.add(null);
+			columnNames.add("count(*)");
+		}
+
+		int[] aggregateKinds = new int[kinds.size()];
+
+		for (int i = 0; i < aggregateKinds.length; i++)
+			aggregateKinds[i] = kinds.get(i);
+
+		return new CompiledQuery(query, type, filter, groupBy,
+				aggregateKinds, aggregateFields
+						.toArray(new FieldHandle[aggregateFields.size()]),
+				columnNames.toArray(new String[columnNames.size()]), fields
+						.toArray(new FieldHandle[fields.size()]));
+	}
+
+	private void parseColumn(List<Integer> kinds,
+			List<FieldHandle> aggregateFields, List<String> columnNames,
+			List<FieldHandle> selectedFields) {
+		if (tokenType != IDENTIFIER)
+			throw error("Expected an aggregate or field but found [" + token
+					+ "]");
+
+		int kind = CompiledQuery.getAggregateKind(token);
+
+		if (kind == -1) {
+			selectedFields.add(parseField());
+			return;
+		}
+
+		String name = CompiledQuery.AGGREGATE_NAMES[kind];
+		FieldHandle field = null;
+
+		next();
+		expectSymbol("(");
+
+		if (kind == CompiledQuery.COUNT && isSymbol("*"))
+			next();
+		else
+			field = parseField();
+
+		expectSymbol(")");
+
+		kinds.add(kind);
+		aggregateFields.add(field);
+		columnNames.add(name + "(" + (field == null ? "*" : field.getName())
+				+ ")");
+	}
+
+	private QueryPredicate parseExpression() {
+		List<QueryPredicate> operands = new ArrayList<QueryPredicate>();
+		operands.add(parseTerm());
+
+		while (isKeyword("OR")) {
+			next();
+			operands.add(parseTerm());
+		}
+
+		return (operands.size() == 1 ? operands.get(0)
+				: new QueryPredicate.Or(sortByCost(operands)));
+	}
+
+	private QueryPredicate parseTerm() {
+		List<QueryPredicate> operands = new ArrayList<QueryPredicate>();
+		operands.add(parseFactor());
+
+		while (isKeyword("AND")) {
+			next();
+			operands.add(parseFactor());
+		}
+
+		return (operands.size() == 1 ? operands.get(0)
+				: new QueryPredicate.And(sortByCost(operands)));
+	}
+
+	private QueryPredicate parseFactor() {
+		if (isKeyword("NOT")) {
+			next();
+			return new QueryPredicate.Not(parseFactor());
+		}
+
+		if (isSymbol("(")) {
+			next();
+			QueryPredicate expression = parseExpression();
+			expectSymbol(")");
+			return expression;
+		}
+
+		return parseComparison();
+	}
+
+	private QueryPredicate parseComparison() {
+		FieldHandle field = parseField();
+
+		if (isKeyword("LIKE")) {
+			next();
+
+			if (tokenType != STRING)
+				throw error("Expected a 'pattern' after LIKE but found ["
+						+ token + "]");
+
+			String pattern = token;
+			next();
+
+			return createLike(field, pattern);
+		}
+
+		int operator = -1;
+
+		for (int i = 0; tokenType == SYMBOL
+				&& i < QueryPredicate.OPERATORS.length; i++) {
+			if (token.equals(QueryPredicate.OPERATORS[i]))
+				operator = i;
+		}
+
+		if (isSymbol("<>"))
+			operator = QueryPredicate.NE;
+
+		if (operator == -1)
+			throw error("Expected a comparison operator after ["
+					+ field.getName() + "] but found [" + token + "]");
+
+		next();
+
+		QueryPredicate predicate;
+
+		if (isKeyword("NULL")) {
+			if (operator != QueryPredicate.EQ && operator != QueryPredicate.NE)
+				throw error("NULL can only be compared with = or !=");
+
+			predicate = new QueryPredicate.IsNull(field,
+					operator == QueryPredicate.NE);
+		} else if (tokenType == NUMBER) {
+			double literal;
+
+			try {
+				literal = Double.parseDouble(token);
+			} catch (NumberFormatException e) {
+				throw error("Malformed number [" + token + "]");
+			}
+
+			predicate = new QueryPredicate.NumericComparison(field, operator,
+					literal);
+		}
+		else if (tokenType == STRING) {
+			if (operator != QueryPredicate.EQ && operator != QueryPredicate.NE)
+				throw error("Strings can only be compared with =, != or LIKE");
+
+			predicate = new QueryPredicate.Equals(field, token.toCharArray(),
+					operator == QueryPredicate.NE);
+		} else
+			throw error("Expected a number, 'string' or NULL but found ["
+					+ token + "]");
+
+		next();
+		return predicate;
+	}
+
+	private QueryPredicate createLike(FieldHandle field, String pattern) {
+		boolean leading = pattern.startsWith("%");
+		boolean trailing = pattern.length() > (leading ? 1 : 0)
+				&& pattern.endsWith("%");
+		String literal = pattern.substring((leading ? 1 : 0), pattern
+				.length()
+				- (trailing ? 1 : 0));
+
+		if (literal.indexOf('%') != -1)
+			throw error("LIKE patterns only support a leading and/or trailing '%' wildcard: '"
+					+ pattern + "'");
+
+		if (leading && trailing)
+			return new QueryPredicate.Like(field, QueryPredicate.Like.CONTAINS,
+					literal.toCharArray(), pattern);
+		else if (leading)
+			return new QueryPredicate.Like(field, QueryPredicate.Like.SUFFIX,
+					literal.toCharArray(), pattern);
+		else if (trailing)
+			return new QueryPredicate.Like(field, QueryPredicate.Like.PREFIX,
+					literal.toCharArray(), pattern);
+		else
+			return new QueryPredicate.Equals(field, literal.toCharArray(),
+					false);
+	}
+
+	private FieldHandle parseField() {
+		if (tokenType != IDENTIFIER)
+			throw error("Expected a field name but found [" + token + "]");
+
+		String alias = aliases.get(token.toLowerCase());
+		FieldHandle field = schema.getFieldHandle(alias == null ? token
+				: alias);
+
+		if (field == null)
+			throw error("Unknown " + type + " field [" + token + "]");
+
+		if (!fields.contains(field))
+			fields.add(field);
+
+		next();
+		return field;
+	}
+
+	/**
+	 * Stable insertion sort, cheapest first, so short-circuiting skips the
+	 * expensive checks as often as possible.
+	 */
+	private static QueryPredicate[] sortByCost(List<QueryPredicate> operands) {
+		QueryPredicate[] sorted = operands.toArray(new QueryPredicate[operands
+				.size()]);
+
+		for (int i = 1; i < sorted.length; i++) {
+			QueryPredicate predicate = sorted[i];
+			int j = i - 1;
+
+			for (; j >= 0 && sorted[j].getCost() > predicate.getCost(); j--)
+				sorted[j + 1] = sorted[j];
+
+			sorted[j + 1] = predicate;
+		}
+
+		return sorted;
+	}
+
+	private boolean isKeyword(String keyword) {
+		return tokenType == IDENTIFIER && token.equalsIgnoreCase(keyword);
+	}
+
+	private boolean isSymbol(String symbol) {
+		return tokenType == SYMBOL && token.equals(symbol);
+	}
+
+	private void expectKeyword(String keyword) {
+		if (!isKeyword(keyword))
+			throw error("Expected [" + keyword + "] but found [" + token + "]");
+
+		next();
+	}
+
+	private void expectSymbol(String symbol) {
+		if (!isSymbol(symbol))
+			throw error("Expected [" + symbol + "] but found [" + token + "]");
+
+		next();
+	}
+
+	private IllegalArgumentException error(String message) {
+		return new IllegalArgumentException(message + " at position "
+				+ tokenStart + " in query: " + query);
+	}
+
+	/**
+	 * Used to read the next token from the query into <code>token</code>.
+	 */
+	private void next() {
+		int length = query.length();
+
+		while (position < length
+				&& Character.isWhitespace(query.charAt(position)))
+			position++;
+
+		tokenStart = position;
+
+		if (position == length) {
+			tokenType = END;
+			token = "<end of query>";
+			return;
+		}
+
+		char c = query.charAt(position);
+
+		if (c == '\'' || c == '"') {
+			// 'string' or "quoted field name", doubled quotes escape.
+			StringBuilder builder = new StringBuilder();
+
+			for (position++;; position++) {
+				if (position == length)
+					throw error("Unterminated " + c);
+
+				char s = query.charAt(position);
+
+				if (s == c) {
+					if (position + 1 < length
+							&& query.charAt(position + 1) == c)
+						position++;
+					else
+						break;
+				}
+
+				builder.append(s);
+			}
+
+			position++;
+			tokenType = (c == '\'' ? STRING : IDENTIFIER);
+			token = builder.toString();
+		} else if (Character.isDigit(c)
+				|| ((c == '-' || c == '.') && position + 1 < length && Character
+						.isDigit(query.charAt(position + 1)))) {
+			int start = position++;
+
+			while (position < length
+					&& (Character.isDigit(query.charAt(position)) || query
+							.charAt(position) == '.'))
+				position++;
+
+			tokenType = NUMBER;
+			token = query.substring(start, position);
+		} else if (Character.isLetter(c)) {
+			int start = position++;
+
+			while (position < length && isIdentifierPart(query.charAt(position)))
+				position++;
+
+			/*
+			 * Names like cs(Host) include parentheses; anything that isn't an
+			 * aggregate function immediately followed by '(' is one of them.
+			 */
+			if (position < length
+					&& query.charAt(position) == '('
+					&& CompiledQuery.getAggregateKind(query.substring(start,
+							position)) == -1) {
+				int end = query.indexOf(')', position);
+
+				if (end == -1)
+					throw error("Unterminated (");
+
+				position = end + 1;
+			}
+
+			tokenType = IDENTIFIER;
+			token = query.substring(start, position);
+		} else {
+			int start = position++;
+
+			// Two-char operators
+			if (position < length
+					&& ((c == '!' || c == '<' || c == '>') && query
+							.charAt(position) == '=' || c == '<'
+							&& query.charAt(position) == '>'))
+				position++;
+
+			tokenType = SYMBOL;
+			token = query.substring(start, position);
+		}
+	}
+
+	private static boolean isIdentifierPart(char c) {
+		return Character.isLetterOrDigit(c) || c == '-' || c == '_';
+	}
+}
\ No newline at end of file
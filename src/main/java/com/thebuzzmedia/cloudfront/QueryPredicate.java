@@ -0,0 +1,424 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.cloudfront;
+
+/**
+ * Class used as the base of the compiled filter nodes of a
+ * {@link CompiledQuery}.
+ * <p/>
+ * Every comparison is resolved at compile time to a subclass specialized for
+ * its kind of comparison (numeric, exact, prefix, ...) with the field handle
+ * and literal baked in, so evaluating a filter against an entry is a handful
+ * of array accesses and comparisons over the entry's <code>char[]</code>
+ * values with no allocation, lookup or conversion to <code>String</code>.
+ */
+abstract class QueryPredicate {
+	static final int EQ = 0;
+	static final int NE = 1;
+	static final int LT = 2;
+	static final int LE = 3;
+	static final int GT = 4;
+	static final int GE = 5;
+
+	static final String[] OPERATORS = { "=", "!=", "<", "<=", ">", ">=" };
+
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4,
+			1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15 };
+
+	/**
+	 * @return <code>true</code> if the entry matches.
+	 */
+	abstract boolean matches(ILogEntry entry);
+
+	/**
+	 * @return the relative cost of evaluating this predicate, used to order
+	 *         the operands of AND/OR so the cheap ones run first.
+	 */
+	abstract int getCost();
+
+	/**
+	 * Used to add a readable form of this predicate (and how it is
+	 * evaluated) to the given builder.
+	 */
+	abstract void explain(StringBuilder builder);
+
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		explain(builder);
+		return builder.toString();
+	}
+
+	/**
+	 * Used to parse the given value as a (possibly signed, possibly
+	 * fractional) decimal number without allocating.
+	 * 
+	 * @return the value or {@link Double#NaN} if it isn't a number.
+	 */
+	static double parseNumber(char[] value) {
+		int length = value.length;
+		int i = 0;
+		boolean negative = false;
+
+		if (length > 0 && value[0] == '-') {
+			negative = true;
+			i++;
+		}
+
+		if (i == length)
+			return Double.NaN;
+
+		long digitValue = 0;
+		int digits = 0;
+		int fractionDigits = 0;
+
+		for (; i < length; i++) {
+			int digit = value[i] - '0';
+
+			if (digit < 0 || digit > 9)
+				break;
+
+			digitValue = digitValue * 10 + digit;
+			digits++;
+		}
+
+		if (i < length) {
+			if (value[i] != '.')
+				return Double.NaN;
+
+			for (i++; i < length; i++) {
+				int digit = value[i] - '0';
+
+				if (digit < 0 || digit > 9)
+					return Double.NaN;
+
+				digitValue = digitValue * 10 + digit;
+				digits++;
+				fractionDigits++;
+			}
+		}
+
+		if (digits == 0)
+			return Double.NaN;
+
+		/*
+		 * Up to 15 digits the value and the power of ten are both exact
+		 * doubles, so one division rounds the same way Double.parseDouble
+		 * does; adding up fractional digits one by one would not.
+		 */
+		if (digits > 15)
+			return Double.parseDouble(new String(value));
+
+		double result = digitValue;
+
+		if (fractionDigits > 0)
+			result /= POWERS_OF_TEN[fractionDigits];
+
+		return (negative ? -result : result);
+	}
+
+	static class And extends QueryPredicate {
+		private QueryPredicate[] operands;
+
+		And(QueryPredicate[] operands) {
+			this.operands = operands;
+		}
+
+		boolean matches(ILogEntry entry) {
+			for (int i = 0; i < operands.length; i++) {
+				if (!operands[i].matches(entry))
+					return false;
+			}
+
+			return true;
+		}
+
+		int getCost() {
+			int cost = 0;
+
+			for (int i = 0; i < operands.length; i++)
+				cost += operands[i].getCost();
+
+			return cost;
+		}
+
+		void explain(StringBuilder builder) {
+			explainOperands(builder, operands, " AND ");
+		}
+	}
+
+	static class Or extends QueryPredicate {
+		private QueryPredicate[] operands;
+
+		Or(QueryPredicate[] operands) {
+			this.operands = operands;
+		}
+
+		boolean matches(ILogEntry entry) {
+			for (int i = 0; i < operands.length; i++) {
+				if (operands[i].matches(entry))
+					return true;
+			}
+
+			return false;
+		}
+
+		int getCost() {
+			int cost = 0;
+
+			for (int i = 0; i < operands.length; i++)
+				cost += operands[i].getCost();
+
+			return cost;
+		}
+
+		void explain(StringBuilder builder) {
+			explainOperands(builder, operands, " OR ");
+		}
+	}
+
+	static class Not extends QueryPredicate {
+		private QueryPredicate operand;
+
+		Not(QueryPredicate operand) {
+			this.operand = operand;
+		}
+
+		boolean matches(ILogEntry entry) {
+			return !operand.matches(entry);
+		}
+
+		int getCost() {
+			return operand.getCost();
+		}
+
+		void explain(StringBuilder builder) {
+			builder.append("NOT ");
+			operand.explain(builder);
+		}
+	}
+
+	/**
+	 * Base for the comparisons against a single field.
+	 */
+	static abstract class Comparison extends QueryPredicate {
+		FieldHandle field;
+
+		Comparison(FieldHandle field) {
+			this.field = field;
+		}
+
+		void explain(StringBuilder builder, String operation, Object literal,
+				String strategy) {
+			builder.append(field.getName()).append(' ').append(operation)
+					.append(' ').append(literal).append(" [").append(strategy)
+					.append(']');
+		}
+	}
+
+	static class IsNull extends Comparison {
+		private boolean negate;
+
+		IsNull(FieldHandle field, boolean negate) {
+			super(field);
+			this.negate = negate;
+		}
+
+		boolean matches(ILogEntry entry) {
+			return (entry.getFieldValue(field) == null) != negate;
+		}
+
+		int getCost() {
+			return 1;
+		}
+
+		void explain(StringBuilder builder) {
+			explain(builder, (negate ? "!=" : "="), "NULL", "null check");
+		}
+	}
+
+	/**
+	 * Numeric comparison; values that are missing or not numbers never
+	 * match.
+	 */
+	static class NumericComparison extends Comparison {
+		private int operator;
+		private double literal;
+
+		NumericComparison(FieldHandle field, int operator, double literal) {
+			super(field);
+			this.operator = operator;
+			this.literal = literal;
+		}
+
+		boolean matches(ILogEntry entry) {
+			char[] value = entry.getFieldValue(field);
+
+			if (value == null)
+				return false;
+
+			double number = parseNumber(value);
+
+			if (number != number)
+				return false;
+
+			switch (operator) {
+			case EQ:
+				return number == literal;
+			case NE:
+				return number != literal;
+			case LT:
+				return number < literal;
+			case LE:
+				return number <= literal;
+			case GT:
+				return number > literal;
+			default:
+				return number >= literal;
+			}
+		}
+
+		int getCost() {
+			return 2;
+		}
+
+		void explain(StringBuilder builder) {
+			explain(builder, OPERATORS[operator],
+					(literal == (long) literal ? Long
+							.toString((long) literal) : Double
+							.toString(literal)), "numeric");
+		}
+	}
+
+	/**
+	 * Exact match (or mismatch) against a string literal; compares lengths
+	 * before contents.
+	 */
+	static class Equals extends Comparison {
+		private char[] literal;
+		private boolean negate;
+
+		Equals(FieldHandle field, char[] literal, boolean negate) {
+			super(field);
+			this.literal = literal;
+			this.negate = negate;
+		}
+
+		boolean matches(ILogEntry entry) {
+			char[] value = entry.getFieldValue(field);
+
+			if (value == null)
+				return false;
+
+			boolean equal = (value.length == literal.length && regionMatches(
+					value, 0, literal));
+
+			return equal != negate;
+		}
+
+		int getCost() {
+			return 3;
+		}
+
+		void explain(StringBuilder builder) {
+			explain(builder, (negate ? "!=" : "="), quote(literal),
+					"exact match");
+		}
+	}
+
+	/**
+	 * <code>LIKE</code> with a leading and/or trailing <code>%</code>
+	 * wildcard, specialized to a prefix, suffix or contains check.
+	 */
+	static class Like extends Comparison {
+		static final int PREFIX = 0;
+		static final int SUFFIX = 1;
+		static final int CONTAINS = 2;
+
+		private static final String[] STRATEGIES = { "prefix match",
+				"suffix match", "contains" };
+
+		private int kind;
+		private char[] literal;
+		private String pattern;
+
+		Like(FieldHandle field, int kind, char[] literal, String pattern) {
+			super(field);
+			this.kind = kind;
+			this.literal = literal;
+			this.pattern = pattern;
+		}
+
+		boolean matches(ILogEntry entry) {
+			char[] value = entry.getFieldValue(field);
+
+			if (value == null || value.length < literal.length)
+				return false;
+
+			switch (kind) {
+			case PREFIX:
+				return regionMatches(value, 0, literal);
+			case SUFFIX:
+				return regionMatches(value, value.length - literal.length,
+						literal);
+			default:
+				for (int i = 0, end = value.length - literal.length; i <= end; i++) {
+					if (regionMatches(value, i, literal))
+						return true;
+				}
+
+				return false;
+			}
+		}
+
+		int getCost() {
+			return (kind == CONTAINS ? 8 : 3);
+		}
+
+		void explain(StringBuilder builder) {
+			explain(builder, "LIKE", "'" + pattern + "'", STRATEGIES[kind]);
+		}
+	}
+
+	static boolean regionMatches(char[] value, int index, char[] literal) {
+		if (index < 0 || index + literal.length > value.length)
+			return false;
+
+		for (int i = 0; i < literal.length; i++) {
+			if (value[index + i] != literal[i])
+				return false;
+		}
+
+		return true;
+	}
+
+	static String quote(char[] literal) {
+		return "'" + new String(literal).replace("'", "''") + "'";
+	}
+
+	private static void explainOperands(StringBuilder builder,
+			QueryPredicate[] operands, String separator) {
+		builder.append('(');
+
+		for (int i = 0; i < operands.length; i++) {
+			if (i > 0)
+				builder.append(separator);
+
+			operands[i].explain(builder);
+		}
+
+		builder.append(')');
+	}
+}
\ No newline at end of file
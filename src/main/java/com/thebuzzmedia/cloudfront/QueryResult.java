@@ -0,0 +1,262 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.cloudfront;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Class used to hold the result of executing a {@link CompiledQuery}: one row
+ * per group (or a single row without a <code>GROUP BY</code>) with one value
+ * per aggregate column, in the order the groups were first seen.
+ * <p/>
+ * Results are plain immutable data so they can be serialized (e.g. cached or
+ * sent between processes); results of the same query over different files
+ * can be combined with {@link #merge(QueryResult)}.
+ */
+public class QueryResult implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	private String query;
+	private String groupBy;
+	private String[] columnNames;
+	private int[] kinds;
+
+	private String[] groupKeys;
+
+	/**
+	 * Raw accumulators (sums for AVG) and value counts, indexed by
+	 * <code>row * columnCount + column</code>.
+	 */
+	private double[] values;
+	private long[] counts;
+
+	private long scannedCount;
+	private long matchedCount;
+
+	/**
+	 * Group key to row, built the first time a row is looked up by key.
+	 */
+	private transient Map<String, Integer> rows;
+
+	QueryResult(String query, String groupBy, String[] columnNames,
+			int[] kinds, String[] groupKeys, double[] values, long[] counts,
+			long scannedCount, long matchedCount) {
+		this.query = query;
+		this.groupBy = groupBy;
+		this.columnNames = columnNames;
+		this.kinds = kinds;
+		this.groupKeys = groupKeys;
+		this.values = values;
+		this.counts = counts;
+		this.scannedCount = scannedCount;
+		this.matchedCount = matchedCount;
+	}
+
+	/**
+	 * @return the result as a table; one line per row with the group key and
+	 *         values separated by tabs, after a header line.
+	 */
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append(groupBy == null ? "" : groupBy);
+
+		for (int i = 0; i < columnNames.length; i++)
+			builder.append('\t').append(columnNames[i]);
+
+		for (int row = 0; row < groupKeys.length; row++) {
+			builder.append('\n').append(
+					groupKeys[row] == null ? (groupBy == null ? "" : "NULL")
+							: groupKeys[row]);
+
+			for (int column = 0; column < columnNames.length; column++) {
+				double value = getValue(row, column);
+
+				builder.append('\t').append(
+						value == (long) value ? Long.toString((long) value)
+								: Double.toString(value));
+			}
+		}
+
+		return builder.toString();
+	}
+
+	/**
+	 * Used to combine this result with the result of the same query over
+	 * other content (e.g. another file).
+	 * 
+	 * @return a new result holding the groups of both.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>other</code> is <code>null</code> or the result of
+	 *             a different query.
+	 */
+	public QueryResult merge(QueryResult other) throws IllegalArgumentException {
+		if (other == null)
+			throw new IllegalArgumentException("other cannot be null");
+		if (!query.equals(other.query))
+			throw new IllegalArgumentException("Cannot merge the results of ["
+					+ other.query + "] with the results of [" + query + "]");
+
+		int columnCount = columnNames.length;
+		String[] mergedKeys = new String[groupKeys.length
+				+ other.groupKeys.length];
+		double[] mergedValues = new double[mergedKeys.length * columnCount];
+		long[] mergedCounts = new long[mergedKeys.length * columnCount];
+
+		System.arraycopy(groupKeys, 0, mergedKeys, 0, groupKeys.length);
+		System.arraycopy(values, 0, mergedValues, 0, values.length);
+		System.arraycopy(counts, 0, mergedCounts, 0, counts.length);
+
+		int rowCount = groupKeys.length;
+		Map<String, Integer> mergedRows = new HashMap<String, Integer>(
+				getRows());
+
+		for (int row = 0; row < other.groupKeys.length; row++) {
+			Integer existing = mergedRows.get(other.groupKeys[row]);
+			int target;
+
+			if (existing == null) {
+				target = rowCount++;
+				mergedKeys[target] = other.groupKeys[row];
+				mergedRows.put(mergedKeys[target], Integer.valueOf(target));
+			} else
+				target = existing.intValue();
+
+			for (int column = 0; column < columnCount; column++) {
+				int from = row * columnCount + column;
+				int to = target * columnCount + column;
+				long count = other.counts[from];
+
+				if (count == 0)
+					continue;
+
+				double value = other.values[from];
+
+				if (mergedCounts[to] == 0)
+					mergedValues[to] = value;
+				else if (kinds[column] == CompiledQuery.MIN)
+					mergedValues[to] = Math.min(mergedValues[to], value);
+				else if (kinds[column] == CompiledQuery.MAX)
+					mergedValues[to] = Math.max(mergedValues[to], value);
+				else
+					mergedValues[to] += value;
+
+				mergedCounts[to] += count;
+			}
+		}
+
+		String[] keys = new String[rowCount];
+		double[] valuesCopy = new double[rowCount * columnCount];
+		long[] countsCopy = new long[rowCount * columnCount];
+
+		System.arraycopy(mergedKeys, 0, keys, 0, rowCount);
+		System.arraycopy(mergedValues, 0, valuesCopy, 0, valuesCopy.length);
+		System.arraycopy(mergedCounts, 0, countsCopy, 0, countsCopy.length);
+
+		return new QueryResult(query, groupBy, columnNames, kinds, keys,
+				valuesCopy, countsCopy, scannedCount + other.scannedCount,
+				matchedCount + other.matchedCount);
+	}
+
+	public String getQuery() {
+		return query;
+	}
+
+	/**
+	 * @return the name of the field the rows are grouped by or
+	 *         <code>null</code>.
+	 */
+	public String getGroupBy() {
+		return groupBy;
+	}
+
+	public String[] getColumnNames() {
+		return columnNames.clone();
+	}
+
+	public int getRowCount() {
+		return groupKeys.length;
+	}
+
+	/**
+	 * @return the group-by value of the given row; <code>null</code> for the
+	 *         group of entries missing the value, or the only row of a query
+	 *         without a <code>GROUP BY</code>.
+	 */
+	public String getGroupKey(int row) {
+		return groupKeys[row];
+	}
+
+	/**
+	 * @return the value of the given aggregate column for the given row. MIN,
+	 *         MAX and AVG are {@link Double#NaN} if the group had no numeric
+	 *         values for the field.
+	 */
+	public double getValue(int row, int column) {
+		int index = row * columnNames.length + column;
+		long count = counts[index];
+
+		switch (kinds[column]) {
+		case CompiledQuery.COUNT:
+			return count;
+		case CompiledQuery.SUM:
+			return values[index];
+		case CompiledQuery.AVG:
+			return (count == 0 ? Double.NaN : values[index] / count);
+		default:
+			return (count == 0 ? Double.NaN : values[index]);
+		}
+	}
+
+	/**
+	 * @return the value of the given aggregate column for the row of the given
+	 *         group or {@link Double#NaN} if there is no such group.
+	 */
+	public double getValue(String groupKey, int column) {
+		Integer row = getRows().get(groupKey);
+		return (row == null ? Double.NaN : getValue(row.intValue(), column));
+	}
+
+	/**
+	 * @return the number of entries the query was evaluated against.
+	 */
+	public long getScannedCount() {
+		return scannedCount;
+	}
+
+	/**
+	 * @return the number of entries that matched the filter.
+	 */
+	public long getMatchedCount() {
+		return matchedCount;
+	}
+
+	private Map<String, Integer> getRows() {
+		if (rows == null) {
+			Map<String, Integer> map = new HashMap<String, Integer>(
+					groupKeys.length * 2);
+
+			for (int i = 0; i < groupKeys.length; i++)
+				map.put(groupKeys[i], Integer.valueOf(i));
+
+			rows = map;
+		}
+
+		return rows;
+	}
+}
\ No newline at end of file
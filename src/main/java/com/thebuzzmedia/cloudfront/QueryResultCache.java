@@ -0,0 +1,566 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.cloudfront;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Class used to cache the results of {@link CompiledQuery}s on disk, keyed by
+ * the content of the log file they were computed from and a fingerprint of
+ * the query, so re-running a report over the same (immutable) CloudFront log
+ * files never inflates or parses a file it has seen before.
+ * <p/>
+ * The content key is the SHA-1 of the compressed file for the
+ * <code>File</code> based methods (hashing is far cheaper than inflating and
+ * parsing) or any key the caller knows identifies the content, such as the S3
+ * ETag, for {@link #execute(CompiledQuery, String, InputStream, LogParser)}.
+ * The fingerprint (see {@link #getFingerprint(CompiledQuery, LogParser)})
+ * covers the query text and its compiled plan as well as the parser's
+ * sampling settings and whether it quarantines malformed lines, since those
+ * change the result.
+ * <p/>
+ * Each result is stored in its own file as a serialized {@link QueryResult};
+ * per-file results are merged with {@link QueryResult#merge(QueryResult)}, so
+ * {@link #execute(CompiledQuery, File[], LogParser)} only parses the files
+ * that aren't cached yet. The total size of the cache files is bounded; the
+ * least recently used are deleted to stay under it. Use order survives
+ * restarts through the modification time of the files, which is updated on
+ * every hit.
+ * <p/>
+ * Files are written to a temporary file and renamed into place, and files
+ * that can't be read back (e.g. truncated or from an incompatible version)
+ * are deleted and treated as a miss. Instances are thread-safe, but a
+ * directory must not be shared by more than one instance.
+ */
+public class QueryResultCache {
+	/**
+	 * Default bound on the total size of the cache files (256MB).
+	 */
+	public static final long DEFAULT_MAX_SIZE = 256 * 1024 * 1024L;
+
+	static final String FILE_SUFFIX = ".qr";
+	static final String TEMP_FILE_SUFFIX = ".tmp";
+
+	/**
+	 * Written at the start of every cache file; bump when the format or the
+	 * fingerprint changes so old entries are dropped instead of misread.
+	 */
+	private static final int FORMAT_VERSION = 1;
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private File directory;
+	private long maxSize;
+
+	/**
+	 * Name of every cache file mapped to its size, in least to most recently
+	 * used order.
+	 */
+	private LinkedHashMap<String, Long> entries;
+	private long size;
+
+	private long hitCount;
+	private long missCount;
+	private long evictionCount;
+
+	public QueryResultCache(File directory) throws IllegalArgumentException,
+			IOException {
+		this(directory, DEFAULT_MAX_SIZE);
+	}
+
+	/**
+	 * Create a new cache over the given directory, picking up any entries
+	 * already stored in it.
+	 * 
+	 * @param directory
+	 *            The directory to store cached results in; created if it does
+	 *            not exist.
+	 * @param maxSize
+	 *            The bound on the total size of the cache files in bytes.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>directory</code> is <code>null</code> or if
+	 *             <code>maxSize</code> is &lt; 1.
+	 * @throws IOException
+	 *             if the directory does not exist and cannot be created.
+	 */
+	public QueryResultCache(File directory, long maxSize)
+			throws IllegalArgumentException, IOException {
+		if (directory == null)
+			throw new IllegalArgumentException("directory cannot be null");
+		if (maxSize < 1)
+			throw new IllegalArgumentException("maxSize [" + maxSize
+					+ "] must be >= 1");
+
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Unable to create the cache directory ["
+					+ directory + "]");
+
+		this.directory = directory;
+		this.maxSize = maxSize;
+
+		entries = new LinkedHashMap<String, Long>(64, 0.75f, true);
+		load();
+	}
+
+	public String toString() {
+		return this.getClass().getName() + "@" + hashCode() + "[directory="
+				+ directory + ", maxSize=" + maxSize + ", size=" + size
+				+ ", entryCount=" + entries.size() + ", hitCount=" + hitCount
+				+ ", missCount=" + missCount + ", evictionCount="
+				+ evictionCount + "]";
+	}
+
+	/**
+	 * Convenience method used to run the query over a single file with a new
+	 * parser, see {@link #execute(CompiledQuery, File, LogParser)}.
+	 */
+	public QueryResult execute(CompiledQuery query, File file)
+			throws IllegalArgumentException, IOException,
+			MalformedContentException {
+		return execute(query, file, new LogParser());
+	}
+
+	/**
+	 * Used to get the result of the query over the given GZIP-compressed log
+	 * file from the cache or, if it isn't cached, to run the query with the
+	 * given parser and cache the result.
+	 */
+	public QueryResult execute(CompiledQuery query, File file,
+			LogParser parser) throws IllegalArgumentException, IOException,
+			MalformedContentException {
+		if (file == null)
+			throw new IllegalArgumentException("file cannot be null");
+
+		return execute(query, getContentHash(file), new FileInputStream(file),
+				parser);
+	}
+
+	/**
+	 * Used to run the query over many files, returning their merged result.
+	 * Only the files without a cached result are parsed.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>files</code> is <code>null</code> or empty.
+	 */
+	public QueryResult execute(CompiledQuery query, File[] files,
+			LogParser parser) throws IllegalArgumentException, IOException,
+			MalformedContentException {
+		if (files == null || files.length == 0)
+			throw new IllegalArgumentException(
+					"files cannot be null or empty");
+
+		QueryResult result = null;
+
+		for (int i = 0; i < files.length; i++) {
+			QueryResult fileResult = execute(query, files[i], parser);
+			result = (result == null ? fileResult : result.merge(fileResult));
+		}
+
+		return result;
+	}
+
+	/**
+	 * Used to get the result of the query over the content identified by the
+	 * given key from the cache or, if it isn't cached, to run the query over
+	 * the given stream and cache the result.
+	 * <p/>
+	 * The stream is only read on a miss, but is closed in either case.
+	 * 
+	 * @param query
+	 *            The query to run.
+	 * @param contentKey
+	 *            A key that changes whenever the content of the stream does,
+	 *            e.g. a hash of the file or its S3 ETag.
+	 * @param stream
+	 *            The GZIP-compressed log file.
+	 * @param parser
+	 *            The parser to run the query with on a miss.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if any argument is <code>null</code>.
+	 */
+	public QueryResult execute(CompiledQuery query, String contentKey,
+			InputStream stream, LogParser parser)
+			throws IllegalArgumentException, IOException,
+			MalformedContentException {
+		if (query == null)
+			throw new IllegalArgumentException("query cannot be null");
+		if (contentKey == null)
+			throw new IllegalArgumentException("contentKey cannot be null");
+		if (stream == null)
+			throw new IllegalArgumentException("stream cannot be null");
+		if (parser == null)
+			throw new IllegalArgumentException("parser cannot be null");
+
+		try {
+			String fingerprint = getFingerprint(query, parser);
+			QueryResult result = get(contentKey, fingerprint);
+
+			if (result == null) {
+				result = query.execute(stream, parser);
+				put(contentKey, fingerprint, result);
+			}
+
+			return result;
+		} finally {
+			// The parser normally closes it, but not if it fails early.
+			stream.close();
+		}
+	}
+
+	/**
+	 * Used to look up a cached result.
+	 * 
+	 * @return the result or <code>null</code> if there is none.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>contentKey</code> or <code>fingerprint</code> is
+	 *             <code>null</code>.
+	 */
+	public QueryResult get(String contentKey, String fingerprint)
+			throws IllegalArgumentException {
+		if (contentKey == null)
+			throw new IllegalArgumentException("contentKey cannot be null");
+		if (fingerprint == null)
+			throw new IllegalArgumentException("fingerprint cannot be null");
+
+		String name = getFileName(contentKey, fingerprint);
+
+		synchronized (this) {
+			// Marks the entry as most recently used.
+			if (entries.get(name) == null) {
+				missCount++;
+				return null;
+			}
+		}
+
+		File file = new File(directory, name);
+		QueryResult result = read(file, contentKey, fingerprint);
+
+		synchronized (this) {
+			if (result == null) {
+				remove(name);
+				missCount++;
+			} else {
+				file.setLastModified(System.currentTimeMillis());
+				hitCount++;
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Used to store a result, deleting the least recently used results if the
+	 * cache grows beyond its maximum size.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if any argument is <code>null</code>.
+	 * @throws IOException
+	 *             if the result could not be written.
+	 */
+	public void put(String contentKey, String fingerprint, QueryResult result)
+			throws IllegalArgumentException, IOException {
+		if (contentKey == null)
+			throw new IllegalArgumentException("contentKey cannot be null");
+		if (fingerprint == null)
+			throw new IllegalArgumentException("fingerprint cannot be null");
+		if (result == null)
+			throw new IllegalArgumentException("result cannot be null");
+
+		String name = getFileName(contentKey, fingerprint);
+		File temp = File.createTempFile("result", TEMP_FILE_SUFFIX, directory);
+
+		try {
+			ObjectOutputStream out = new ObjectOutputStream(
+					new BufferedOutputStream(new FileOutputStream(temp)));
+
+			try {
+				out.writeInt(FORMAT_VERSION);
+				out.writeUTF(contentKey);
+				out.writeUTF(fingerprint);
+				out.writeObject(result);
+			} finally {
+				out.close();
+			}
+
+			synchronized (this) {
+				File file = new File(directory, name);
+
+				remove(name);
+
+				if (!temp.renameTo(file))
+					throw new IOException("Unable to move [" + temp
+							+ "] to [" + file + "]");
+
+				long length = file.length();
+
+				entries.put(name, Long.valueOf(length));
+				size += length;
+
+				evict();
+			}
+		} finally {
+			// No-op once renamed.
+			temp.delete();
+		}
+	}
+
+	/**
+	 * Used to delete every cached result.
+	 */
+	public synchronized void clear() {
+		for (Iterator<String> names = entries.keySet().iterator(); names
+				.hasNext();) {
+			new File(directory, names.next()).delete();
+			names.remove();
+		}
+
+		size = 0;
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	public long getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * @return the total size of the cache files in bytes.
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	public synchronized int getEntryCount() {
+		return entries.size();
+	}
+
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+	/**
+	 * @return the number of results deleted to stay under the maximum size.
+	 */
+	public synchronized long getEvictionCount() {
+		return evictionCount;
+	}
+
+	/**
+	 * Used to compute the fingerprint of a query as executed by the given
+	 * parser: a hash of its text and compiled plan (see
+	 * {@link CompiledQuery#explain()}), the parser's sampling settings and
+	 * whether it quarantines malformed lines instead of failing.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>query</code> or <code>parser</code> is
+	 *             <code>null</code>.
+	 */
+	public static String getFingerprint(CompiledQuery query, LogParser parser)
+			throws IllegalArgumentException {
+		if (query == null)
+			throw new IllegalArgumentException("query cannot be null");
+		if (parser == null)
+			throw new IllegalArgumentException("parser cannot be null");
+
+		FieldHandle sampleField = parser.getSampleField();
+		String plan = query.explain() + "\nSampling: 1-in-"
+				+ parser.getSampleRate() + " on "
+				+ (sampleField == null ? "<line>" : sampleField.getName())
+				+ "\nQuarantine: " + (parser.getQuarantineCallback() != null);
+
+		MessageDigest digest = createDigest();
+		update(digest, plan);
+
+		return toHex(digest.digest());
+	}
+
+	/**
+	 * Used to compute the SHA-1 hash of the content of the given file.
+	 * 
+	 * @return the hash as a hex string.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>file</code> is <code>null</code>.
+	 * @throws IOException
+	 *             if the file cannot be read.
+	 */
+	public static String getContentHash(File file)
+			throws IllegalArgumentException, IOException {
+		if (file == null)
+			throw new IllegalArgumentException("file cannot be null");
+
+		MessageDigest digest = createDigest();
+		BufferPool pool = BufferPool.getSharedPool();
+		byte[] buffer = pool.acquire(65536);
+		InputStream in = new FileInputStream(file);
+
+		try {
+			int read;
+
+			while ((read = in.read(buffer)) != -1)
+				digest.update(buffer, 0, read);
+		} finally {
+			in.close();
+			pool.release(buffer);
+		}
+
+		return toHex(digest.digest());
+	}
+
+	/**
+	 * Used to pick up the cache files already in the directory, oldest first,
+	 * and delete any temporary files left behind by an interrupted write.
+	 */
+	private void load() {
+		File[] files = directory.listFiles();
+
+		if (files == null)
+			return;
+
+		Arrays.sort(files, new Comparator<File>() {
+			public int compare(File f1, File f2) {
+				long m1 = f1.lastModified();
+				long m2 = f2.lastModified();
+
+				return (m1 < m2 ? -1 : (m1 == m2 ? 0 : 1));
+			}
+		});
+
+		for (int i = 0; i < files.length; i++) {
+			String name = files[i].getName();
+
+			if (name.endsWith(TEMP_FILE_SUFFIX))
+				files[i].delete();
+			else if (name.endsWith(FILE_SUFFIX)) {
+				long length = files[i].length();
+
+				entries.put(name, Long.valueOf(length));
+				size += length;
+			}
+		}
+
+		evict();
+	}
+
+	private QueryResult read(File file, String contentKey, String fingerprint) {
+		try {
+			ObjectInputStream in = new ObjectInputStream(
+					new BufferedInputStream(new FileInputStream(file)));
+
+			try {
+				if (in.readInt() != FORMAT_VERSION
+						|| !contentKey.equals(in.readUTF())
+						|| !fingerprint.equals(in.readUTF()))
+					return null;
+
+				return (QueryResult) in.readObject();
+			} finally {
+				in.close();
+			}
+		} catch (Exception e) {
+			// Missing, truncated or incompatible; re-computed by the caller.
+			return null;
+		}
+	}
+
+	private void evict() {
+		Iterator<Map.Entry<String, Long>> eldest = entries.entrySet()
+				.iterator();
+
+		// Always keep the most recent entry, even if it's too big alone.
+		while (size > maxSize && entries.size() > 1) {
+			Map.Entry<String, Long> entry = eldest.next();
+
+			new File(directory, entry.getKey()).delete();
+			size -= entry.getValue().longValue();
+			eldest.remove();
+
+			evictionCount++;
+		}
+	}
+
+	private void remove(String name) {
+		Long length = entries.remove(name);
+
+		if (length != null) {
+			new File(directory, name).delete();
+			size -= length.longValue();
+		}
+	}
+
+	private static String getFileName(String contentKey, String fingerprint) {
+		MessageDigest digest = createDigest();
+
+		update(digest, contentKey);
+		digest.update((byte) 0);
+		update(digest, fingerprint);
+
+		return toHex(digest.digest()) + FILE_SUFFIX;
+	}
+
+	private static MessageDigest createDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform is required to support SHA-1.
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static void update(MessageDigest digest, String value) {
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+
+			digest.update((byte) (c >>> 8));
+			digest.update((byte) c);
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		char[] hex = new char[bytes.length * 2];
+
+		for (int i = 0; i < bytes.length; i++) {
+			hex[i * 2] = HEX[(bytes[i] >>> 4) & 0x0F];
+			hex[i * 2 + 1] = HEX[bytes[i] & 0x0F];
+		}
+
+		return new String(hex);
+	}
+}
\ No newline at end of file
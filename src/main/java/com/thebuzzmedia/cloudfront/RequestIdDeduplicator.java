@@ -0,0 +1,263 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.cloudfront;
+
+/**
+ * Class used to detect DOWNLOAD log entries that have already been seen, based
+ * on their <code>x-edge-request-id</code>; CloudFront occasionally delivers
+ * the same request in more than one log file and re-processing files after a
+ * failure does the same.
+ * <p/>
+ * Request IDs are reduced to a 64-bit hash and kept in two off-heap
+ * open-addressing tables (generations), so tracking hundreds of millions of
+ * IDs costs no heap and creates no garbage. New IDs go into the current
+ * generation; once it spans more than the expiry time (in log time, see
+ * {@link TimestampUtils#getTimestamp(ILogEntry)}) or fills up, the previous
+ * generation is dropped and the current one takes its place. An ID is
+ * therefore remembered for at least the expiry time unless more than
+ * <code>capacity</code> IDs arrive within it.
+ * <p/>
+ * With a 64-bit hash the chance of two different IDs colliding (and the
+ * second being reported as a duplicate) stays below 1 in 10,000 up to ~60
+ * million tracked IDs.
+ * <p/>
+ * Each generation holds up to <code>capacity</code> IDs at a load factor of
+ * at most 0.5, so the direct memory used is roughly
+ * <code>2 * 16 * capacity</code> bytes (rounded up to a power of 2).
+ * <p/>
+ * Instances are not thread-safe.
+ */
+public class RequestIdDeduplicator {
+	/**
+	 * IDs tracked per generation by default; 32MB of direct memory.
+	 */
+	public static final int DEFAULT_CAPACITY = 1 << 20;
+
+	/**
+	 * Minimum time IDs are remembered for by default. CloudFront may deliver
+	 * a log entry up to 24 hours after the request.
+	 */
+	public static final long DEFAULT_EXPIRY_MILLIS = 24 * 60 * 60 * 1000L;
+
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private long capacity;
+	private long expiryMillis;
+
+	private OffHeapLongSet current;
+	private OffHeapLongSet previous;
+
+	private long generationStart = TimestampUtils.INVALID_TIMESTAMP;
+	private long latestTimestamp = TimestampUtils.INVALID_TIMESTAMP;
+
+	private long duplicateCount;
+	private int rotationCount;
+
+	public RequestIdDeduplicator() {
+		this(DEFAULT_CAPACITY, DEFAULT_EXPIRY_MILLIS);
+	}
+
+	/**
+	 * Create a new deduplicator.
+	 * 
+	 * @param capacity
+	 *            The number of IDs each of the two generations can hold.
+	 * @param expiryMillis
+	 *            The (log) time span covered by each generation.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>capacity</code> is &lt; 1 or
+	 *             <code>expiryMillis</code> is &lt; 1.
+	 */
+	public RequestIdDeduplicator(long capacity, long expiryMillis)
+			throws IllegalArgumentException {
+		if (capacity < 1)
+			throw new IllegalArgumentException("capacity [" + capacity
+					+ "] must be >= 1");
+		if (expiryMillis < 1)
+			throw new IllegalArgumentException("expiryMillis [" + expiryMillis
+					+ "] must be >= 1");
+
+		this.capacity = capacity;
+		this.expiryMillis = expiryMillis;
+
+		current = new OffHeapLongSet(capacity);
+		previous = new OffHeapLongSet(capacity);
+	}
+
+	public String toString() {
+		return this.getClass().getName() + "@" + hashCode() + "[capacity="
+				+ capacity + ", expiryMillis=" + expiryMillis + ", size="
+				+ getSize() + ", duplicateCount=" + duplicateCount
+				+ ", rotationCount=" + rotationCount + "]";
+	}
+
+	/**
+	 * Used to check if the given entry was already seen and remember it if it
+	 * wasn't.
+	 * 
+	 * @return <code>true</code> if an entry with the same
+	 *         <code>x-edge-request-id</code> was seen before. Entries without
+	 *         a request ID (including all STREAMING entries) are never
+	 *         considered duplicates.
+	 */
+	public boolean isDuplicate(ILogEntry entry) {
+		if (entry == null || entry.getType() != ILogEntry.Type.DOWNLOAD)
+			return false;
+
+		char[] requestId = entry.getFieldValue(DownloadLogEntry.EDGE_REQUEST_ID);
+
+		if (requestId == null)
+			return false;
+
+		return !add(requestId, TimestampUtils.getTimestamp(entry));
+	}
+
+	/**
+	 * Used to remember the given request ID.
+	 * 
+	 * @param requestId
+	 *            The request ID.
+	 * @param timestamp
+	 *            The log time of the request or
+	 *            {@link TimestampUtils#INVALID_TIMESTAMP} if unknown.
+	 * 
+	 * @return <code>true</code> if the ID was new, <code>false</code> if it
+	 *         was already being tracked.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>requestId</code> is <code>null</code>.
+	 */
+	public boolean add(char[] requestId, long timestamp)
+			throws IllegalArgumentException {
+		if (requestId == null)
+			throw new IllegalArgumentException("requestId cannot be null");
+
+		// Entries can be slightly out of order, only ever move time forward.
+		if (timestamp > latestTimestamp)
+			latestTimestamp = timestamp;
+
+		if (generationStart == TimestampUtils.INVALID_TIMESTAMP)
+			generationStart = latestTimestamp;
+		else if (latestTimestamp - generationStart >= expiryMillis
+				|| current.isFull())
+			rotate();
+
+		long key = hash(requestId);
+
+		if (previous.contains(key) || !current.add(key)) {
+			duplicateCount++;
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * @return <code>true</code> if the given request ID is being tracked.
+	 */
+	public boolean contains(char[] requestId) {
+		if (requestId == null)
+			return false;
+
+		long key = hash(requestId);
+		return current.contains(key) || previous.contains(key);
+	}
+
+	/**
+	 * Used to forget every tracked ID and reset the counters.
+	 */
+	public void clear() {
+		current.clear();
+		previous.clear();
+
+		generationStart = TimestampUtils.INVALID_TIMESTAMP;
+		latestTimestamp = TimestampUtils.INVALID_TIMESTAMP;
+
+		duplicateCount = 0;
+		rotationCount = 0;
+	}
+
+	public long getCapacity() {
+		return capacity;
+	}
+
+	public long getExpiryMillis() {
+		return expiryMillis;
+	}
+
+	/**
+	 * @return the number of IDs currently tracked across both generations.
+	 */
+	public long getSize() {
+		return current.getSize() + previous.getSize();
+	}
+
+	/**
+	 * @return the number of duplicates detected.
+	 */
+	public long getDuplicateCount() {
+		return duplicateCount;
+	}
+
+	/**
+	 * @return the number of times the oldest generation was dropped.
+	 */
+	public int getRotationCount() {
+		return rotationCount;
+	}
+
+	/**
+	 * @return the direct (off-heap) memory held, in bytes.
+	 */
+	public long getMemoryUsage() {
+		return current.getCapacityBytes() + previous.getCapacityBytes();
+	}
+
+	private void rotate() {
+		OffHeapLongSet expired = previous;
+		expired.clear();
+
+		previous = current;
+		current = expired;
+
+		generationStart = latestTimestamp;
+		rotationCount++;
+	}
+
+	/**
+	 * 64-bit FNV-1a with a final avalanche (MurmurHash3 fmix64) so the low
+	 * bits used to pick a slot are well mixed; never returns 0, which marks
+	 * an empty slot.
+	 */
+	static long hash(char[] value) {
+		long h = FNV_OFFSET_BASIS;
+
+		for (int i = 0; i < value.length; i++) {
+			h ^= value[i];
+			h *= FNV_PRIME;
+		}
+
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+
+		return (h == 0 ? 1 : h);
+	}
+}
\ No newline at end of file
@@ -15,39 +15,47 @@
  */
 package com.thebuzzmedia.cloudfront;
 
-import java.util.HashMap;
-import java.util.Map;
-
 public class StreamingLogEntry extends AbstractLogEntry {
-	protected static final String[] FIELD_NAMES = { "date", "time",
-			"x-edge-location", "c-ip", "x-event", "sc-bytes", "x-cf-status",
-			"x-cf-client-id", "cs-uri-stem", "cs-uri-query", "c-referrer",
-			"x-page-url", "c-user-agent", "x-sname", "x-sname-query",
-			"x-file-ext", "x-sid" };
-
-	protected static final Map<String, Integer> FIELD_INDEX_MAP = new HashMap<String, Integer>(
-			MAX_STREAMING_FIELDS * 5);
-
-	static {
-		for (int i = 0; i < FIELD_NAMES.length; i++)
-			FIELD_INDEX_MAP.put(FIELD_NAMES[i], i);
-	}
+	public static final LogSchema SCHEMA = LogSchema.STREAMING;
+
+	public static final FieldHandle DATE = SCHEMA.getFieldHandle("date");
+	public static final FieldHandle TIME = SCHEMA.getFieldHandle("time");
+	public static final FieldHandle EDGE_LOCATION = SCHEMA
+			.getFieldHandle("x-edge-location");
+	public static final FieldHandle CLIENT_IP = SCHEMA.getFieldHandle("c-ip");
+	public static final FieldHandle EVENT = SCHEMA.getFieldHandle("x-event");
+	public static final FieldHandle BYTES = SCHEMA.getFieldHandle("sc-bytes");
+	public static final FieldHandle STATUS = SCHEMA
+			.getFieldHandle("x-cf-status");
+	public static final FieldHandle CLIENT_ID = SCHEMA
+			.getFieldHandle("x-cf-client-id");
+	public static final FieldHandle URI_STEM = SCHEMA
+			.getFieldHandle("cs-uri-stem");
+	public static final FieldHandle URI_QUERY = SCHEMA
+			.getFieldHandle("cs-uri-query");
+	public static final FieldHandle REFERRER = SCHEMA
+			.getFieldHandle("c-referrer");
+	public static final FieldHandle PAGE_URL = SCHEMA
+			.getFieldHandle("x-page-url");
+	public static final FieldHandle USER_AGENT = SCHEMA
+			.getFieldHandle("c-user-agent");
+	public static final FieldHandle STREAM_NAME = SCHEMA
+			.getFieldHandle("x-sname");
+	public static final FieldHandle STREAM_NAME_QUERY = SCHEMA
+			.getFieldHandle("x-sname-query");
+	public static final FieldHandle FILE_EXTENSION = SCHEMA
+			.getFieldHandle("x-file-ext");
+	public static final FieldHandle STREAM_ID = SCHEMA.getFieldHandle("x-sid");
 
 	public StreamingLogEntry() throws IllegalArgumentException {
-		super(Type.STREAMING, new char[MAX_STREAMING_FIELDS][]);
-	}
-
-	public String[] getFieldNames() {
-		return FIELD_NAMES;
-	}
-
-	public int getFieldIndex(String fieldName) {
-		Integer index = FIELD_INDEX_MAP.get(fieldName);
-		return (index == null ? INVALID_INDEX : index.intValue());
+		super(SCHEMA);
 	}
 
-	public char[] getFieldValue(String fieldName) {
-		Integer index = FIELD_INDEX_MAP.get(fieldName);
-		return (index == null ? null : values[index.intValue()]);
+	/**
+	 * Used by the {@link LogParser} to create entries of its own extension of
+	 * {@link #SCHEMA}.
+	 */
+	StreamingLogEntry(LogSchema schema) throws IllegalArgumentException {
+		super(schema);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,133 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.cloudfront;
+
+/**
+ * Class used to describe a viewing session (all the events sharing an
+ * <code>x-sid</code>) reconstructed from STREAMING log entries by a
+ * {@link StreamingSessionizer}.
+ * <p/>
+ * Like {@link ILogEntry}, a single instance is re-used for every session
+ * reported to an {@link IStreamingSessionCallback}.
+ */
+public class StreamingSession {
+	public enum CloseReason {
+		/**
+		 * A <code>disconnect</code> event was logged for the session.
+		 */
+		DISCONNECT,
+		/**
+		 * No event was logged for the session within the idle timeout.
+		 */
+		IDLE,
+		/**
+		 * The session was closed to make room for a new one because the
+		 * maximum number of open sessions was reached.
+		 */
+		EVICTED,
+		/**
+		 * The session was still open when
+		 * {@link StreamingSessionizer#flush()} was called.
+		 */
+		FLUSH;
+	}
+
+	long streamId;
+	long startTime;
+	long endTime;
+	long bytes;
+	int eventCount;
+	int streamCount;
+	String[] streamNames;
+	CloseReason closeReason;
+
+	public String toString() {
+		StringBuilder names = new StringBuilder();
+
+		for (int i = 0; streamNames != null && i < streamNames.length; i++) {
+			if (i > 0)
+				names.append(',');
+
+			names.append(streamNames[i]);
+		}
+
+		return this.getClass().getName() + "@" + hashCode() + "[streamId="
+				+ streamId + ", startTime=" + startTime + ", endTime="
+				+ endTime + ", bytes=" + bytes + ", eventCount=" + eventCount
+				+ ", streamCount=" + streamCount + ", streamNames={"
+				+ names.toString() + "}, closeReason=" + closeReason + "]";
+	}
+
+	/**
+	 * @return the <code>x-sid</code> of the session.
+	 */
+	public long getStreamId() {
+		return streamId;
+	}
+
+	/**
+	 * @return the timestamp (milliseconds since the epoch, UTC) of the first
+	 *         event of the session.
+	 */
+	public long getStartTime() {
+		return startTime;
+	}
+
+	/**
+	 * @return the timestamp of the last event of the session.
+	 */
+	public long getEndTime() {
+		return endTime;
+	}
+
+	public long getDuration() {
+		return endTime - startTime;
+	}
+
+	/**
+	 * @return the number of bytes sent to the client over the session (the
+	 *         largest of the cumulative <code>sc-bytes</code> values logged).
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+
+	public int getEventCount() {
+		return eventCount;
+	}
+
+	/**
+	 * @return the number of distinct stream names played during the session;
+	 *         may be larger than the number of names returned by
+	 *         {@link #getStreamNames()}.
+	 */
+	public int getStreamCount() {
+		return streamCount;
+	}
+
+	/**
+	 * @return the distinct stream names (<code>x-sname</code>) played during
+	 *         the session in the order they were first seen, up to
+	 *         {@link StreamingSessionizer#MAX_STREAM_NAMES}.
+	 */
+	public String[] getStreamNames() {
+		return streamNames;
+	}
+
+	public CloseReason getCloseReason() {
+		return closeReason;
+	}
+}
\ No newline at end of file
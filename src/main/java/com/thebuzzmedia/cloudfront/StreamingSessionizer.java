@@ -0,0 +1,786 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.cloudfront;
+
+import java.util.Arrays;
+
+import com.thebuzzmedia.cloudfront.StreamingSession.CloseReason;
+
+/**
+ * Class used to reconstruct viewing sessions from STREAMING log entries,
+ * grouping events by their <code>x-sid</code> and reporting a
+ * {@link StreamingSession} summary (duration, bytes, stream names) to an
+ * {@link IStreamingSessionCallback} when each session is closed.
+ * <p/>
+ * A session is closed when a <code>disconnect</code> event is logged for it or
+ * when no event was logged for it within the idle timeout. Time is log time
+ * (the <code>date</code> and <code>time</code> of the entries, see
+ * {@link TimestampUtils}) and only moves forward; idle sessions are looked for
+ * every quarter of the timeout, so they are closed at most 1.25x the timeout
+ * after their last event. Sessions still open at the end of the data are
+ * closed by {@link #flush()}.
+ * <p/>
+ * State is kept in parallel primitive arrays indexed by an open-addressing
+ * (linear probing) table of stream IDs. Closing a session frees its slot
+ * (shifting back the entries that probed past it), so memory is proportional
+ * to the number of sessions open at once rather than the number seen. Stream
+ * names are interned into a reference-counted table of their own (a name is
+ * dropped once no open session uses it) and each session keeps the IDs of up
+ * to {@link #MAX_STREAM_NAMES} of them; the IDs of any further names go into a
+ * small hash set of the session's own so repeats are still recognized. The
+ * slots in use are also linked in
+ * the order of their last event, so when an upper bound on open sessions is
+ * given, the least recently active session is evicted to make room for a new
+ * one without searching for it.
+ * <p/>
+ * Entries that aren't STREAMING entries or are missing a numeric
+ * <code>x-sid</code> or a valid timestamp are ignored and counted (see
+ * {@link #getIgnoredCount()}).
+ * <p/>
+ * Instances are not thread-safe.
+ */
+public class StreamingSessionizer implements ILogParserCallback {
+	/**
+	 * Default idle timeout (30 minutes).
+	 */
+	public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 30 * 60 * 1000L;
+
+	/**
+	 * Maximum number of distinct stream names remembered per session.
+	 */
+	public static final int MAX_STREAM_NAMES = 4;
+
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private static final char[] DISCONNECT_EVENT = "disconnect".toCharArray();
+
+	private IStreamingSessionCallback callback;
+	private long idleTimeoutMillis;
+	private int maxOpenSessions;
+
+	private long sweepIntervalMillis;
+	private long watermark = Long.MIN_VALUE;
+	private long nextSweep = Long.MAX_VALUE;
+
+	/*
+	 * Per-session state; slot i is in use if used[i] is true.
+	 */
+	private int mask;
+	private boolean[] used;
+	private long[] streamIds;
+	private long[] startTimes;
+	private long[] lastSeenTimes;
+	private long[] bytes;
+	private int[] eventCounts;
+	private int[] streamCounts;
+	private int[] streamNameIds;
+
+	/*
+	 * Names of a session past the first MAX_STREAM_NAMES; an open-addressing
+	 * table of (id + 1) with 0 marking an empty slot, null until needed.
+	 */
+	private int[][] extraNameIds;
+
+	private int openCount;
+
+	/*
+	 * Slots in the order of their last event, linked through olderSlots and
+	 * newerSlots (-1 ends the list).
+	 */
+	private int[] olderSlots;
+	private int[] newerSlots;
+	private int oldestSlot;
+	private int newestSlot;
+
+	/*
+	 * Interned stream names; nameTable holds (id + 1) with 0 marking an empty
+	 * slot. IDs of names no session refers to anymore are re-used.
+	 */
+	private int[] nameTable;
+	private char[][] names;
+	private String[] nameStrings;
+	private int[] nameHashes;
+	private int[] nameRefCounts;
+	private int nameCount;
+
+	private int[] freeNameIds;
+	private int freeNameCount;
+	private int nameIdCount;
+
+	private long closedCount;
+	private long evictedCount;
+	private long ignoredCount;
+
+	private StreamingSession session;
+
+	public StreamingSessionizer(IStreamingSessionCallback callback)
+			throws IllegalArgumentException {
+		this(callback, DEFAULT_IDLE_TIMEOUT_MILLIS, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @param callback
+	 *            The callback to report closed sessions to.
+	 * @param idleTimeoutMillis
+	 *            The (log) time after its last event that a session is closed.
+	 * @param maxOpenSessions
+	 *            The maximum number of sessions kept open at once.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>callback</code> is <code>null</code>, if
+	 *             <code>idleTimeoutMillis</code> is &lt; 1 or if
+	 *             <code>maxOpenSessions</code> is &lt; 1.
+	 */
+	public StreamingSessionizer(IStreamingSessionCallback callback,
+			long idleTimeoutMillis, int maxOpenSessions)
+			throws IllegalArgumentException {
+		if (callback == null)
+			throw new IllegalArgumentException("callback cannot be null");
+		if (idleTimeoutMillis < 1)
+			throw new IllegalArgumentException("idleTimeoutMillis ["
+					+ idleTimeoutMillis + "] must be >= 1");
+		if (maxOpenSessions < 1)
+			throw new IllegalArgumentException("maxOpenSessions ["
+					+ maxOpenSessions + "] must be >= 1");
+
+		this.callback = callback;
+		this.idleTimeoutMillis = idleTimeoutMillis;
+		this.maxOpenSessions = maxOpenSessions;
+
+		sweepIntervalMillis = Math.max(1, idleTimeoutMillis / 4);
+		session = new StreamingSession();
+
+		allocate(INITIAL_CAPACITY);
+		allocateNames(INITIAL_CAPACITY);
+	}
+
+	public String toString() {
+		return this.getClass().getName() + "@" + hashCode()
+				+ "[idleTimeoutMillis=" + idleTimeoutMillis
+				+ ", maxOpenSessions=" + maxOpenSessions + ", openCount="
+				+ openCount + ", closedCount=" + closedCount
+				+ ", evictedCount=" + evictedCount + ", ignoredCount="
+				+ ignoredCount + ", streamNameCount=" + nameCount
+				+ ", capacity=" + used.length + "]";
+	}
+
+	public void logEntryParsed(ILogEntry entry) {
+		if (entry.getType() != ILogEntry.Type.STREAMING) {
+			ignoredCount++;
+			return;
+		}
+
+		long streamId = parseLong(entry
+				.getFieldValue(StreamingLogEntry.STREAM_ID));
+		long timestamp = TimestampUtils.getTimestamp(entry);
+
+		if (streamId < 0 || timestamp == TimestampUtils.INVALID_TIMESTAMP) {
+			ignoredCount++;
+			return;
+		}
+
+		if (timestamp > watermark) {
+			watermark = timestamp;
+
+			if (nextSweep == Long.MAX_VALUE)
+				nextSweep = watermark + sweepIntervalMillis;
+			else if (watermark >= nextSweep) {
+				closeIdleSessions();
+				nextSweep = watermark + sweepIntervalMillis;
+			}
+		}
+
+		int slot = find(streamId);
+
+		if (slot == -1)
+			slot = open(streamId, timestamp);
+		else if (slot != newestSlot) {
+			unlink(slot);
+			link(slot);
+		}
+
+		if (timestamp < startTimes[slot])
+			startTimes[slot] = timestamp;
+		if (timestamp > lastSeenTimes[slot])
+			lastSeenTimes[slot] = timestamp;
+
+		eventCounts[slot]++;
+
+		// sc-bytes is the running total for the connection.
+		long sent = parseLong(entry.getFieldValue(StreamingLogEntry.BYTES));
+
+		if (sent > bytes[slot])
+			bytes[slot] = sent;
+
+		char[] streamName = entry.getFieldValue(StreamingLogEntry.STREAM_NAME);
+
+		if (streamName != null)
+			addStreamName(slot, streamName);
+
+		if (Arrays.equals(DISCONNECT_EVENT, entry
+				.getFieldValue(StreamingLogEntry.EVENT)))
+			close(slot, CloseReason.DISCONNECT);
+	}
+
+	/**
+	 * Used to close every session that is still open (e.g. once all the logs
+	 * for a period have been parsed).
+	 */
+	public void flush() {
+		for (int i = 0; i < used.length; i++) {
+			// Closing shifts the next entry back into this slot.
+			while (used[i])
+				close(i, CloseReason.FLUSH);
+		}
+
+		nextSweep = Long.MAX_VALUE;
+	}
+
+	/**
+	 * Used to drop every open session without reporting it, along with the
+	 * interned stream names and counters.
+	 */
+	public void clear() {
+		allocate(INITIAL_CAPACITY);
+		allocateNames(INITIAL_CAPACITY);
+
+		watermark = Long.MIN_VALUE;
+		nextSweep = Long.MAX_VALUE;
+
+		closedCount = 0;
+		evictedCount = 0;
+		ignoredCount = 0;
+	}
+
+	public IStreamingSessionCallback getCallback() {
+		return callback;
+	}
+
+	public long getIdleTimeoutMillis() {
+		return idleTimeoutMillis;
+	}
+
+	public int getMaxOpenSessions() {
+		return maxOpenSessions;
+	}
+
+	public int getOpenCount() {
+		return openCount;
+	}
+
+	/**
+	 * @return the number of sessions reported to the callback.
+	 */
+	public long getClosedCount() {
+		return closedCount;
+	}
+
+	/**
+	 * @return the number of sessions closed early to stay within the maximum
+	 *         number of open sessions.
+	 */
+	public long getEvictedCount() {
+		return evictedCount;
+	}
+
+	public long getIgnoredCount() {
+		return ignoredCount;
+	}
+
+	/**
+	 * @return the number of distinct stream names held by open sessions.
+	 */
+	public int getStreamNameCount() {
+		return nameCount;
+	}
+
+	/**
+	 * @return the latest log time seen or <code>Long.MIN_VALUE</code> if no
+	 *         entry has been seen.
+	 */
+	public long getWatermark() {
+		return watermark;
+	}
+
+	private void closeIdleSessions() {
+		long cutoff = watermark - idleTimeoutMillis;
+
+		for (int i = 0; i < used.length; i++) {
+			while (used[i] && lastSeenTimes[i] < cutoff)
+				close(i, CloseReason.IDLE);
+		}
+	}
+
+	private int find(long streamId) {
+		for (int i = home(streamId);; i = (i + 1) & mask) {
+			if (!used[i])
+				return -1;
+			if (streamIds[i] == streamId)
+				return i;
+		}
+	}
+
+	private int open(long streamId, long timestamp) {
+		if (openCount >= maxOpenSessions)
+			evictLeastRecent();
+
+		// Keep the load factor under 0.5.
+		if ((openCount + 1) * 2 > used.length)
+			grow();
+
+		int i = home(streamId);
+
+		while (used[i])
+			i = (i + 1) & mask;
+
+		used[i] = true;
+		streamIds[i] = streamId;
+		startTimes[i] = timestamp;
+		lastSeenTimes[i] = timestamp;
+		bytes[i] = 0;
+		eventCounts[i] = 0;
+		streamCounts[i] = 0;
+		link(i);
+
+		openCount++;
+		return i;
+	}
+
+	private void evictLeastRecent() {
+		evictedCount++;
+		close(oldestSlot, CloseReason.EVICTED);
+	}
+
+	/**
+	 * Used to append the given slot to the activity list as the newest.
+	 */
+	private void link(int slot) {
+		olderSlots[slot] = newestSlot;
+		newerSlots[slot] = -1;
+
+		if (newestSlot == -1)
+			oldestSlot = slot;
+		else
+			newerSlots[newestSlot] = slot;
+
+		newestSlot = slot;
+	}
+
+	private void unlink(int slot) {
+		int older = olderSlots[slot];
+		int newer = newerSlots[slot];
+
+		if (older == -1)
+			oldestSlot = newer;
+		else
+			newerSlots[older] = newer;
+
+		if (newer == -1)
+			newestSlot = older;
+		else
+			olderSlots[newer] = older;
+	}
+
+	/**
+	 * Used to report the session in the given slot and free the slot.
+	 */
+	private void close(int slot, CloseReason reason) {
+		int count = Math.min(streamCounts[slot], MAX_STREAM_NAMES);
+		String[] sessionNames = new String[count];
+
+		for (int i = 0; i < count; i++) {
+			int id = streamNameIds[slot * MAX_STREAM_NAMES + i];
+
+			sessionNames[i] = nameStrings[id];
+			releaseName(id);
+		}
+
+		int[] extra = extraNameIds[slot];
+
+		for (int i = 0; extra != null && i < extra.length; i++) {
+			if (extra[i] != 0)
+				releaseName(extra[i] - 1);
+		}
+
+		session.streamId = streamIds[slot];
+		session.startTime = startTimes[slot];
+		session.endTime = lastSeenTimes[slot];
+		session.bytes = bytes[slot];
+		session.eventCount = eventCounts[slot];
+		session.streamCount = streamCounts[slot];
+		session.streamNames = sessionNames;
+		session.closeReason = reason;
+
+		remove(slot);
+		closedCount++;
+
+		callback.sessionClosed(session);
+	}
+
+	/**
+	 * Used to free the given slot, shifting back any entries further along
+	 * the probe sequence that can no longer be reached otherwise (so no
+	 * tombstones are needed).
+	 */
+	private void remove(int slot) {
+		unlink(slot);
+		used[slot] = false;
+		extraNameIds[slot] = null;
+		openCount--;
+
+		for (int i = slot, j = (slot + 1) & mask; used[j]; j = (j + 1) & mask) {
+			int home = home(streamIds[j]);
+
+			// Leave the entry if its home lies cyclically within (i, j].
+			if (i <= j ? (i < home && home <= j) : (i < home || home <= j))
+				continue;
+
+			move(j, i);
+			used[j] = false;
+			i = j;
+		}
+	}
+
+	private void move(int from, int to) {
+		used[to] = true;
+		streamIds[to] = streamIds[from];
+		startTimes[to] = startTimes[from];
+		lastSeenTimes[to] = lastSeenTimes[from];
+		bytes[to] = bytes[from];
+		eventCounts[to] = eventCounts[from];
+		streamCounts[to] = streamCounts[from];
+		System.arraycopy(streamNameIds, from * MAX_STREAM_NAMES, streamNameIds,
+				to * MAX_STREAM_NAMES, MAX_STREAM_NAMES);
+		extraNameIds[to] = extraNameIds[from];
+		extraNameIds[from] = null;
+
+		// Keep the slot's place in the activity list.
+		int older = olderSlots[from];
+		int newer = newerSlots[from];
+
+		olderSlots[to] = older;
+		newerSlots[to] = newer;
+
+		if (older == -1)
+			oldestSlot = to;
+		else
+			newerSlots[older] = to;
+
+		if (newer == -1)
+			newestSlot = to;
+		else
+			olderSlots[newer] = to;
+	}
+
+	private void grow() {
+		boolean[] oldUsed = used;
+		long[] oldStreamIds = streamIds;
+		long[] oldStartTimes = startTimes;
+		long[] oldLastSeenTimes = lastSeenTimes;
+		long[] oldBytes = bytes;
+		int[] oldEventCounts = eventCounts;
+		int[] oldStreamCounts = streamCounts;
+		int[] oldStreamNameIds = streamNameIds;
+		int[][] oldExtraNameIds = extraNameIds;
+		int[] oldNewerSlots = newerSlots;
+		int oldest = oldestSlot;
+
+		allocate(oldUsed.length * 2);
+
+		// Re-insert oldest first so the activity order carries over.
+		for (int i = oldest; i != -1; i = oldNewerSlots[i]) {
+			int j = home(oldStreamIds[i]);
+
+			while (used[j])
+				j = (j + 1) & mask;
+
+			used[j] = true;
+			streamIds[j] = oldStreamIds[i];
+			startTimes[j] = oldStartTimes[i];
+			lastSeenTimes[j] = oldLastSeenTimes[i];
+			bytes[j] = oldBytes[i];
+			eventCounts[j] = oldEventCounts[i];
+			streamCounts[j] = oldStreamCounts[i];
+			System.arraycopy(oldStreamNameIds, i * MAX_STREAM_NAMES,
+					streamNameIds, j * MAX_STREAM_NAMES, MAX_STREAM_NAMES);
+			extraNameIds[j] = oldExtraNameIds[i];
+			link(j);
+			openCount++;
+		}
+	}
+
+	private void allocate(int capacity) {
+		mask = capacity - 1;
+		used = new boolean[capacity];
+		streamIds = new long[capacity];
+		startTimes = new long[capacity];
+		lastSeenTimes = new long[capacity];
+		bytes = new long[capacity];
+		eventCounts = new int[capacity];
+		streamCounts = new int[capacity];
+		streamNameIds = new int[capacity * MAX_STREAM_NAMES];
+		extraNameIds = new int[capacity][];
+		olderSlots = new int[capacity];
+		newerSlots = new int[capacity];
+		oldestSlot = -1;
+		newestSlot = -1;
+		openCount = 0;
+	}
+
+	private void allocateNames(int capacity) {
+		nameTable = new int[capacity];
+		names = new char[capacity / 2][];
+		nameStrings = new String[capacity / 2];
+		nameHashes = new int[capacity / 2];
+		nameRefCounts = new int[capacity / 2];
+		freeNameIds = new int[capacity / 2];
+		nameCount = 0;
+		freeNameCount = 0;
+		nameIdCount = 0;
+	}
+
+	private int home(long streamId) {
+		long h = streamId * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+
+	private void addStreamName(int slot, char[] streamName) {
+		int hash = hashName(streamName);
+		int id = findName(streamName, hash);
+		int base = slot * MAX_STREAM_NAMES;
+		int count = Math.min(streamCounts[slot], MAX_STREAM_NAMES);
+
+		if (id != -1) {
+			for (int i = 0; i < count; i++) {
+				if (streamNameIds[base + i] == id)
+					return;
+			}
+
+			if (containsExtraName(slot, id))
+				return;
+		} else
+			id = addName(streamName, hash);
+
+		if (streamCounts[slot] < MAX_STREAM_NAMES)
+			streamNameIds[base + streamCounts[slot]] = id;
+		else
+			addExtraName(slot, id);
+
+		nameRefCounts[id]++;
+		streamCounts[slot]++;
+	}
+
+	private boolean containsExtraName(int slot, int id) {
+		int[] extra = extraNameIds[slot];
+
+		if (extra == null)
+			return false;
+
+		int extraMask = extra.length - 1;
+
+		for (int i = hashId(id) & extraMask;; i = (i + 1) & extraMask) {
+			if (extra[i] == 0)
+				return false;
+			if (extra[i] == id + 1)
+				return true;
+		}
+	}
+
+	private void addExtraName(int slot, int id) {
+		int[] extra = extraNameIds[slot];
+		int extraCount = streamCounts[slot] - MAX_STREAM_NAMES;
+
+		// Keep the load factor under 0.5.
+		if (extra == null || (extraCount + 1) * 2 > extra.length) {
+			int[] grown = new int[extra == null ? 8 : extra.length * 2];
+
+			for (int i = 0; extra != null && i < extra.length; i++) {
+				if (extra[i] != 0)
+					insertId(grown, extra[i] - 1);
+			}
+
+			extraNameIds[slot] = extra = grown;
+		}
+
+		insertId(extra, id);
+	}
+
+	private static void insertId(int[] table, int id) {
+		int tableMask = table.length - 1;
+		int i = hashId(id) & tableMask;
+
+		while (table[i] != 0)
+			i = (i + 1) & tableMask;
+
+		table[i] = id + 1;
+	}
+
+	private static int hashId(int id) {
+		return id * 0x9E3779B9;
+	}
+
+	/**
+	 * @return the ID of the given name or <code>-1</code> if it isn't
+	 *         interned.
+	 */
+	private int findName(char[] name, int hash) {
+		int nameMask = nameTable.length - 1;
+
+		for (int i = hash & nameMask;; i = (i + 1) & nameMask) {
+			int id = nameTable[i] - 1;
+
+			if (id == -1)
+				return -1;
+			if (nameHashes[id] == hash && Arrays.equals(names[id], name))
+				return id;
+		}
+	}
+
+	private int addName(char[] name, int hash) {
+		if ((nameCount + 1) * 2 > nameTable.length)
+			growNames();
+
+		int id = (freeNameCount > 0 ? freeNameIds[--freeNameCount]
+				: nameIdCount++);
+		int nameMask = nameTable.length - 1;
+		int i = hash & nameMask;
+
+		while (nameTable[i] != 0)
+			i = (i + 1) & nameMask;
+
+		// Values reported by the parser are copies; safe to keep.
+		names[id] = name;
+		nameStrings[id] = new String(name);
+		nameHashes[id] = hash;
+		nameRefCounts[id] = 0;
+		nameTable[i] = id + 1;
+		nameCount++;
+
+		return id;
+	}
+
+	/**
+	 * Used to drop a session's reference to the given name, removing the
+	 * name (the same way {@link #remove(int)} frees a session slot) once no
+	 * session refers to it.
+	 */
+	private void releaseName(int id) {
+		if (--nameRefCounts[id] > 0)
+			return;
+
+		int nameMask = nameTable.length - 1;
+		int i = nameHashes[id] & nameMask;
+
+		while (nameTable[i] != id + 1)
+			i = (i + 1) & nameMask;
+
+		nameTable[i] = 0;
+
+		for (int j = (i + 1) & nameMask; nameTable[j] != 0; j = (j + 1)
+				& nameMask) {
+			int home = nameHashes[nameTable[j] - 1] & nameMask;
+
+			if (i <= j ? (i < home && home <= j) : (i < home || home <= j))
+				continue;
+
+			nameTable[i] = nameTable[j];
+			nameTable[j] = 0;
+			i = j;
+		}
+
+		names[id] = null;
+		nameStrings[id] = null;
+		freeNameIds[freeNameCount++] = id;
+		nameCount--;
+	}
+
+	private void growNames() {
+		int[] table = new int[nameTable.length * 2];
+		int nameMask = table.length - 1;
+
+		for (int id = 0; id < nameIdCount; id++) {
+			if (names[id] == null)
+				continue;
+
+			int i = nameHashes[id] & nameMask;
+
+			while (table[i] != 0)
+				i = (i + 1) & nameMask;
+
+			table[i] = id + 1;
+		}
+
+		int size = table.length / 2;
+
+		char[][] grownNames = new char[size][];
+		System.arraycopy(names, 0, grownNames, 0, nameIdCount);
+
+		String[] grownStrings = new String[size];
+		System.arraycopy(nameStrings, 0, grownStrings, 0, nameIdCount);
+
+		int[] grownHashes = new int[size];
+		System.arraycopy(nameHashes, 0, grownHashes, 0, nameIdCount);
+
+		int[] grownRefCounts = new int[size];
+		System.arraycopy(nameRefCounts, 0, grownRefCounts, 0, nameIdCount);
+
+		int[] grownFreeIds = new int[size];
+		System.arraycopy(freeNameIds, 0, grownFreeIds, 0, freeNameCount);
+
+		nameTable = table;
+		names = grownNames;
+		nameStrings = grownStrings;
+		nameHashes = grownHashes;
+		nameRefCounts = grownRefCounts;
+		freeNameIds = grownFreeIds;
+	}
+
+	/**
+	 * 32-bit FNV-1a.
+	 */
+	private static int hashName(char[] name) {
+		int h = 0x811c9dc5;
+
+		for (int i = 0; i < name.length; i++) {
+			h ^= name[i];
+			h *= 0x01000193;
+		}
+
+		return h;
+	}
+
+	/**
+	 * @return the value of the given run of digits or <code>-1</code> if it
+	 *         is <code>null</code>, empty or not made up of digits only.
+	 */
+	private static long parseLong(char[] value) {
+		if (value == null || value.length == 0 || value.length > 18)
+			return -1;
+
+		long result = 0;
+
+		for (int i = 0; i < value.length; i++) {
+			char c = value[i];
+
+			if (c < '0' || c > '9')
+				return -1;
+
+			result = result * 10 + (c - '0');
+		}
+
+		return result;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,116 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.cloudfront;
+
+/**
+ * Class used to define utility methods for converting the <code>date</code>
+ * (<code>YYYY-MM-DD</code>) and <code>time</code> (<code>HH:MM:SS</code>)
+ * values of a log entry into a UTC epoch timestamp without any allocation or
+ * use of {@link java.util.Calendar}.
+ */
+public class TimestampUtils {
+	public static final long INVALID_TIMESTAMP = -1;
+
+	private static final long MILLIS_PER_SECOND = 1000;
+	private static final long MILLIS_PER_DAY = 86400 * MILLIS_PER_SECOND;
+
+	/**
+	 * Convenience method used to get the timestamp of a DOWNLOAD or STREAMING
+	 * log entry from its <code>date</code> and <code>time</code> fields.
+	 * 
+	 * @return the timestamp of the entry in milliseconds since the epoch (UTC)
+	 *         or {@link #INVALID_TIMESTAMP} if the entry is missing either
+	 *         field or they are malformed.
+	 */
+	public static long getTimestamp(ILogEntry entry) {
+		if (entry == null)
+			return INVALID_TIMESTAMP;
+
+		if (entry.getType() == ILogEntry.Type.STREAMING)
+			return toEpochMillis(entry.getFieldValue(StreamingLogEntry.DATE),
+					entry.getFieldValue(StreamingLogEntry.TIME));
+		else
+			return toEpochMillis(entry.getFieldValue(DownloadLogEntry.DATE),
+					entry.getFieldValue(DownloadLogEntry.TIME));
+	}
+
+	/**
+	 * Used to convert the given CloudFront <code>date</code> and
+	 * <code>time</code> values to milliseconds since the epoch (UTC).
+	 * 
+	 * @return the timestamp or {@link #INVALID_TIMESTAMP} if either value is
+	 *         <code>null</code> or malformed.
+	 */
+	public static long toEpochMillis(char[] date, char[] time) {
+		if (date == null || time == null || date.length != 10
+				|| time.length < 8 || date[4] != '-' || date[7] != '-'
+				|| time[2] != ':' || time[5] != ':')
+			return INVALID_TIMESTAMP;
+
+		int year = digits(date, 0, 4);
+		int month = digits(date, 5, 2);
+		int day = digits(date, 8, 2);
+		int hour = digits(time, 0, 2);
+		int minute = digits(time, 3, 2);
+		int second = digits(time, 6, 2);
+
+		if (year < 1970 || month < 1 || month > 12 || day < 1 || day > 31
+				|| hour < 0 || hour > 23 || minute < 0 || minute > 59
+				|| second < 0 || second > 60)
+			return INVALID_TIMESTAMP;
+
+		return daysSinceEpoch(year, month, day) * MILLIS_PER_DAY
+				+ ((hour * 60 + minute) * 60 + second) * MILLIS_PER_SECOND;
+	}
+
+	/**
+	 * @return the value of the given run of decimal digits or <code>-1</code>
+	 *         if any of them is not a digit.
+	 */
+	private static int digits(char[] value, int index, int length) {
+		int result = 0;
+
+		for (int end = index + length; index < end; index++) {
+			int digit = value[index] - '0';
+
+			if (digit < 0 || digit > 9)
+				return -1;
+
+			result = result * 10 + digit;
+		}
+
+		return result;
+	}
+
+	/**
+	 * Proleptic Gregorian calendar day count, shifting the year to start in
+	 * March so the leap day falls at the end of it.
+	 */
+	private static long daysSinceEpoch(int year, int month, int day) {
+		if (month <= 2)
+			year--;
+
+		int era = year / 400;
+		int yearOfEra = year - era * 400;
+		int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5
+				+ day - 1;
+		int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100
+				+ dayOfYear;
+
+		// 719468 is the number of days from 0000-03-01 to 1970-01-01
+		return era * 146097L + dayOfEra - 719468;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,82 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.cloudfront;
+
+/**
+ * Class used to represent the classification of a User-Agent value as
+ * determined by a {@link UserAgentClassifier}.
+ * <p/>
+ * Instances are immutable and shared between all the entries that reported the
+ * same raw User-Agent value, so they can be safely stored.
+ */
+public class UserAgent {
+	public enum Browser {
+		CHROME, FIREFOX, SAFARI, INTERNET_EXPLORER, EDGE, OPERA, OTHER;
+	}
+
+	public enum OperatingSystem {
+		WINDOWS, MAC_OS_X, IOS, ANDROID, LINUX, OTHER;
+	}
+
+	private String value;
+	private Browser browser;
+	private OperatingSystem operatingSystem;
+	private boolean bot;
+
+	public UserAgent(String value, Browser browser,
+			OperatingSystem operatingSystem, boolean bot)
+			throws IllegalArgumentException {
+		if (browser == null)
+			throw new IllegalArgumentException("browser cannot be null");
+		if (operatingSystem == null)
+			throw new IllegalArgumentException("operatingSystem cannot be null");
+
+		this.value = value;
+		this.browser = browser;
+		this.operatingSystem = operatingSystem;
+		this.bot = bot;
+	}
+
+	public String toString() {
+		return this.getClass().getName() + "@" + hashCode() + "[browser="
+				+ browser + ", operatingSystem=" + operatingSystem + ", bot="
+				+ bot + ", value=" + value + "]";
+	}
+
+	/**
+	 * @return the fully decoded User-Agent value or <code>null</code> if the
+	 *         entry didn't have one.
+	 */
+	public String getValue() {
+		return value;
+	}
+
+	public Browser getBrowser() {
+		return browser;
+	}
+
+	public OperatingSystem getOperatingSystem() {
+		return operatingSystem;
+	}
+
+	/**
+	 * @return <code>true</code> if the User-Agent identifies itself as a
+	 *         crawler, spider or other automated client.
+	 */
+	public boolean isBot() {
+		return bot;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,275 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.cloudfront;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Class used to classify the User-Agent values reported in log entries by
+ * browser, operating system and whether or not they belong to a bot.
+ * <p/>
+ * Busy distributions typically see a few thousand distinct User-Agent values
+ * across millions of log entries, so classifications are kept in a bounded
+ * LRU cache keyed on the raw (still encoded) value exactly as it appears in
+ * the log. A cache hit costs a hash over the raw chars and a map lookup; the
+ * value is never decoded or inspected again.
+ * <p/>
+ * The cache is split into segments, each guarded by its own lock, so a single
+ * classifier can be shared by many {@link LogParser}s running on different
+ * threads without them all contending on one lock.
+ */
+public class UserAgentClassifier {
+	public static final int DEFAULT_MAX_SIZE = 8192;
+
+	private static final int SEGMENT_COUNT = 16;
+
+	private static final String[] BOT_MARKERS = { "bot", "crawl", "spider",
+			"slurp", "fetch", "monitor", "curl/", "wget/", "python",
+			"java/", "httpclient" };
+
+	private static final UserAgent EMPTY_USER_AGENT = new UserAgent(null,
+			UserAgent.Browser.OTHER, UserAgent.OperatingSystem.OTHER, false);
+
+	private Segment[] segments;
+
+	public UserAgentClassifier() {
+		this(DEFAULT_MAX_SIZE);
+	}
+
+	/**
+	 * Create a new classifier.
+	 * 
+	 * @param maxSize
+	 *            The maximum number of classifications to keep cached.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>maxSize</code> is &lt; 1.
+	 */
+	public UserAgentClassifier(int maxSize) throws IllegalArgumentException {
+		if (maxSize < 1)
+			throw new IllegalArgumentException("maxSize [" + maxSize
+					+ "] must be >= 1");
+
+		// Fewer segments for tiny caches, each must hold at least one entry.
+		int segmentCount = Integer.highestOneBit(Math.min(SEGMENT_COUNT,
+				maxSize));
+		segments = new Segment[segmentCount];
+
+		// Spread maxSize exactly, the first segments take the remainder.
+		for (int i = 0; i < segmentCount; i++)
+			segments[i] = new Segment(maxSize / segmentCount
+					+ (i < maxSize % segmentCount ? 1 : 0));
+	}
+
+	/**
+	 * Used to classify the User-Agent reported by the given entry; the
+	 * <code>cs(User-Agent)</code> field for DOWNLOAD entries and
+	 * <code>c-user-agent</code> for STREAMING entries.
+	 * 
+	 * @param entry
+	 *            The entry to classify.
+	 * 
+	 * @return the classification for the entry's User-Agent.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>entry</code> is <code>null</code>.
+	 */
+	public UserAgent classify(ILogEntry entry) throws IllegalArgumentException {
+		if (entry == null)
+			throw new IllegalArgumentException("entry cannot be null");
+
+		return classify(entry
+				.getFieldValue(entry.getType() == ILogEntry.Type.DOWNLOAD ? DownloadLogEntry.USER_AGENT
+						: StreamingLogEntry.USER_AGENT));
+	}
+
+	/**
+	 * Used to classify the given raw (still URL-encoded) User-Agent value.
+	 * 
+	 * @param rawValue
+	 *            The raw value, exactly as it appears in the log.
+	 * 
+	 * @return the classification for the value.
+	 */
+	public UserAgent classify(char[] rawValue) {
+		if (rawValue == null || rawValue.length == 0)
+			return EMPTY_USER_AGENT;
+
+		int hash = hash(rawValue);
+		Segment segment = segments[(hash >>> 28) & (segments.length - 1)];
+
+		// The lookup key wraps the caller's array; it is never stored.
+		Key key = new Key(rawValue, hash);
+		UserAgent userAgent;
+
+		synchronized (segment) {
+			userAgent = segment.get(key);
+		}
+
+		if (userAgent == null) {
+			// Classify outside the lock; racing threads compute the same value.
+			userAgent = createUserAgent(rawValue);
+
+			synchronized (segment) {
+				segment.put(new Key(rawValue.clone(), hash), userAgent);
+			}
+		}
+
+		return userAgent;
+	}
+
+	/**
+	 * @return the number of classifications currently cached.
+	 */
+	public int getSize() {
+		int size = 0;
+
+		for (int i = 0; i < segments.length; i++) {
+			synchronized (segments[i]) {
+				size += segments[i].size();
+			}
+		}
+
+		return size;
+	}
+
+	public void clear() {
+		for (int i = 0; i < segments.length; i++) {
+			synchronized (segments[i]) {
+				segments[i].clear();
+			}
+		}
+	}
+
+	/**
+	 * Used to perform the (comparatively expensive) classification of a value
+	 * that wasn't found in the cache. Subclasses can override this to provide
+	 * their own classification rules.
+	 * 
+	 * @param rawValue
+	 *            The raw (still URL-encoded) value.
+	 * 
+	 * @return the classification for the value.
+	 */
+	protected UserAgent createUserAgent(char[] rawValue) {
+		// CloudFront double-encodes User-Agents, see DownloadLogEntry.
+		String value = new String(PercentDecodingUtils.decode(rawValue, 2));
+		String ua = value.toLowerCase();
+
+		boolean bot = false;
+
+		for (int i = 0; !bot && i < BOT_MARKERS.length; i++)
+			bot = (ua.indexOf(BOT_MARKERS[i]) != -1);
+
+		UserAgent.Browser browser;
+
+		// Order matters; most UAs claim to be several browsers at once.
+		if (ua.indexOf("edge/") != -1 || ua.indexOf("edg/") != -1)
+			browser = UserAgent.Browser.EDGE;
+		else if (ua.indexOf("opera") != -1 || ua.indexOf("opr/") != -1)
+			browser = UserAgent.Browser.OPERA;
+		else if (ua.indexOf("msie") != -1 || ua.indexOf("trident/") != -1)
+			browser = UserAgent.Browser.INTERNET_EXPLORER;
+		else if (ua.indexOf("firefox/") != -1)
+			browser = UserAgent.Browser.FIREFOX;
+		else if (ua.indexOf("chrome/") != -1 || ua.indexOf("crios/") != -1)
+			browser = UserAgent.Browser.CHROME;
+		else if (ua.indexOf("safari/") != -1)
+			browser = UserAgent.Browser.SAFARI;
+		else
+			browser = UserAgent.Browser.OTHER;
+
+		UserAgent.OperatingSystem os;
+
+		if (ua.indexOf("android") != -1)
+			os = UserAgent.OperatingSystem.ANDROID;
+		else if (ua.indexOf("iphone") != -1 || ua.indexOf("ipad") != -1
+				|| ua.indexOf("ipod") != -1)
+			os = UserAgent.OperatingSystem.IOS;
+		else if (ua.indexOf("windows") != -1)
+			os = UserAgent.OperatingSystem.WINDOWS;
+		else if (ua.indexOf("mac os x") != -1
+				|| ua.indexOf("macintosh") != -1)
+			os = UserAgent.OperatingSystem.MAC_OS_X;
+		else if (ua.indexOf("linux") != -1)
+			os = UserAgent.OperatingSystem.LINUX;
+		else
+			os = UserAgent.OperatingSystem.OTHER;
+
+		return new UserAgent(value, browser, os, bot);
+	}
+
+	private static int hash(char[] value) {
+		int hash = 0;
+
+		for (int i = 0; i < value.length; i++)
+			hash = 31 * hash + value[i];
+
+		// Spread the bits so the top bits (segment selector) are well mixed.
+		hash ^= (hash >>> 16);
+		hash *= 0x85EBCA6B;
+		hash ^= (hash >>> 13);
+
+		return hash;
+	}
+
+	/**
+	 * Cache key wrapping the raw chars of a User-Agent value.
+	 */
+	private static class Key {
+		private char[] value;
+		private int hash;
+
+		Key(char[] value, int hash) {
+			this.value = value;
+			this.hash = hash;
+		}
+
+		public int hashCode() {
+			return hash;
+		}
+
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key))
+				return false;
+
+			Key other = (Key) obj;
+
+			return (hash == other.hash && Arrays.equals(value, other.value));
+		}
+	}
+
+	/**
+	 * Access-ordered map that evicts its least-recently used entry once it
+	 * grows past its max size.
+	 */
+	private static class Segment extends LinkedHashMap<Key, UserAgent> {
+		private static final long serialVersionUID = 1L;
+
+		private int maxSize;
+
+		Segment(int maxSize) {
+			super(16, 0.75f, true);
+			this.maxSize = maxSize;
+		}
+
+		protected boolean removeEldestEntry(Map.Entry<Key, UserAgent> eldest) {
+			return size() > maxSize;
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,239 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.cloudfront;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class CompiledQueryTest {
+	static final String LOG = "#Version: 1.0\n"
+			+ "#Fields: date time x-edge-location sc-bytes c-ip cs-method cs(Host) cs-uri-stem sc-status time-taken\n"
+			+ "2011-06-14\t05:00:00\tFRA2\t100\t1.1.1.1\tGET\ta.net\t/img/a.png\t200\t0.010\n"
+			+ "2011-06-14\t05:00:01\tFRA2\t200\t1.1.1.1\tGET\tb.net\t/img/b.png\t503\t1.500\n"
+			+ "2011-06-14\t05:00:02\tIAD1\t300\t2.2.2.2\tPOST\ta.net\t/api/c\t500\t0.250\n"
+			+ "2011-06-14\t05:00:03\tIAD1\t-\t2.2.2.2\tGET\ta.net\t/img/d.jpg\t404\t-\n"
+			+ "2011-06-14\t05:00:04\t-\t500\t3.3.3.3\tGET\ta.net\t/api/e\t502\t0.125\n";
+
+	@Test
+	public void testGroupBy() throws IOException {
+		CompiledQuery query = CompiledQuery
+				.compile("status >= 500 AND host = 'a.net' GROUP BY edge");
+		QueryResult result = query.execute(LogParserTest.gzip(LOG));
+
+		assertEquals(5, result.getScannedCount());
+		assertEquals(2, result.getMatchedCount());
+		assertEquals(2, result.getRowCount());
+		assertEquals("x-edge-location", result.getGroupBy());
+		assertEquals(1, result.getValue("IAD1", 0), 0);
+		assertEquals(1, result.getValue(null, 0), 0);
+		assertTrue(Double.isNaN(result.getValue("FRA2", 0)));
+	}
+
+	@Test
+	public void testFractionalLiterals() throws IOException {
+		String log = LogParserTest
+				.header("date time sc-status time-taken")
+				+ "2011-06-14\t05:00:00\t200\t0.3\n"
+				+ "2011-06-14\t05:00:01\t200\t1.7\n"
+				+ "2011-06-14\t05:00:02\t200\t0.123\n";
+
+		// Values must parse to the same double as the literals.
+		assertEquals(1, CompiledQuery.compile(
+				"SELECT count(*) WHERE time-taken = 0.3").execute(
+				LogParserTest.gzip(log)).getValue(0, 0), 0);
+		assertEquals(2, CompiledQuery.compile(
+				"SELECT count(*) WHERE time-taken <= 0.3").execute(
+				LogParserTest.gzip(log)).getValue(0, 0), 0);
+		assertEquals(2, CompiledQuery.compile(
+				"SELECT count(*) WHERE time-taken = 1.7 OR time-taken = 0.123")
+				.execute(LogParserTest.gzip(log)).getValue(0, 0), 0);
+		assertEquals(1.7, CompiledQuery.compile("SELECT max(time-taken)")
+				.execute(LogParserTest.gzip(log)).getValue(0, 0), 0);
+	}
+
+	@Test
+	public void testAggregates() throws IOException {
+		QueryResult result = CompiledQuery.compile(
+				"SELECT count(*), count(bytes), sum(bytes), min(time-taken), "
+						+ "max(time-taken), avg(bytes) "
+						+ "WHERE (uri LIKE '/img/%' OR method != 'GET') "
+						+ "AND NOT cs(Host) LIKE '%b%'").execute(
+				LogParserTest.gzip(LOG));
+
+		assertEquals(1, result.getRowCount());
+		assertNull(result.getGroupKey(0));
+		assertEquals(3, result.getValue(0, 0), 0);
+		assertEquals(2, result.getValue(0, 1), 0);
+		assertEquals(400, result.getValue(0, 2), 0);
+		assertEquals(0.010, result.getValue(0, 3), 0.0001);
+		assertEquals(0.250, result.getValue(0, 4), 0.0001);
+		assertEquals(200, result.getValue(0, 5), 0);
+	}
+
+	@Test
+	public void testNull() throws IOException {
+		QueryResult result = CompiledQuery.compile(
+				"SELECT edge, count(*) WHERE bytes = NULL OR edge = NULL "
+						+ "GROUP BY edge").execute(LogParserTest.gzip(LOG));
+
+		assertEquals(2, result.getRowCount());
+		assertEquals(1, result.getValue("IAD1", 0), 0);
+		assertEquals(1, result.getValue(null, 0), 0);
+	}
+
+	@Test
+	public void testExplain() {
+		String explain = CompiledQuery.compile(
+				"SELECT sum(bytes) WHERE agent LIKE '%Chrome%' "
+						+ "AND status >= 500 AND ip != NULL GROUP BY edge")
+				.explain();
+
+		// Cheapest predicates run first.
+		assertTrue(explain,
+				explain.indexOf("Filter: (c-ip != NULL [null check] AND "
+						+ "sc-status >= 500 [numeric] AND "
+						+ "cs(User-Agent) LIKE '%Chrome%' [contains])") != -1);
+		assertTrue(explain, explain.indexOf("Projection: [x-edge-location, "
+				+ "sc-bytes, c-ip, sc-status, cs(User-Agent)]") != -1);
+	}
+
+	@Test
+	public void testMalformed() {
+		String[] queries = { "status >=", "status = 'a", "nosuch = 1",
+				"status LIKE 'a%b'", "status < 'a'", "SELECT bytes",
+				"status = 1 GROUP edge", "(status = 1" };
+
+		for (int i = 0; i < queries.length; i++) {
+			try {
+				CompiledQuery.compile(queries[i]);
+				fail("Expected [" + queries[i] + "] to fail");
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void testSample() throws IOException {
+		// Same numbers computed by a hand-written callback.
+		final Map<String, long[]> expected = new HashMap<String, long[]>();
+
+		new LogParser().parse(CompiledQueryTest.class
+				.getResourceAsStream("samples/example-100k.gz"),
+				new ILogParserCallback() {
+					public void logEntryParsed(ILogEntry entry) {
+						char[] status = entry
+								.getFieldValue(DownloadLogEntry.STATUS);
+
+						if (status[0] != '2')
+							return;
+
+						String stem = new String(entry
+								.getFieldValue(DownloadLogEntry.URI_STEM));
+						String key = stem.substring(stem.lastIndexOf('.'));
+						long[] totals = expected.get(key);
+
+						if (totals == null)
+							expected.put(key, totals = new long[2]);
+
+						totals[0]++;
+						totals[1] += Long.parseLong(new String(entry
+								.getFieldValue(DownloadLogEntry.BYTES)));
+					}
+				});
+
+		// No extension field in DOWNLOAD logs; group per stem, roll up after.
+		QueryResult result = CompiledQuery.compile(
+				"SELECT count(*), sum(bytes) WHERE status >= 200 "
+						+ "AND status < 300 GROUP BY uri").execute(
+				CompiledQueryTest.class
+						.getResourceAsStream("samples/example-100k.gz"));
+		Map<String, long[]> actual = new HashMap<String, long[]>();
+
+		for (int row = 0; row < result.getRowCount(); row++) {
+			String stem = result.getGroupKey(row);
+			String key = stem.substring(stem.lastIndexOf('.'));
+			long[] totals = actual.get(key);
+
+			if (totals == null)
+				actual.put(key, totals = new long[2]);
+
+			totals[0] += (long) result.getValue(row, 0);
+			totals[1] += (long) result.getValue(row, 1);
+		}
+
+		assertEquals(expected.keySet(), actual.keySet());
+
+		for (String key : expected.keySet()) {
+			assertEquals(expected.get(key)[0], actual.get(key)[0]);
+			assertEquals(expected.get(key)[1], actual.get(key)[1]);
+		}
+	}
+
+	@Test
+	public void testMergeAndSerialize() throws Exception {
+		CompiledQuery query = CompiledQuery
+				.compile("SELECT count(*), max(bytes) GROUP BY method");
+		QueryResult result = query.execute(LogParserTest.gzip(LOG)).merge(
+				query.execute(LogParserTest.gzip(LOG)));
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(result);
+		out.close();
+
+		result = (QueryResult) new ObjectInputStream(new ByteArrayInputStream(
+				bytes.toByteArray())).readObject();
+
+		assertEquals(10, result.getScannedCount());
+		assertEquals(8, result.getValue("GET", 0), 0);
+		assertEquals(500, result.getValue("GET", 1), 0);
+		assertEquals(2, result.getValue("POST", 0), 0);
+		assertEquals("cs-method\tcount(*)\tmax(sc-bytes)\nGET\t8\t500\n"
+				+ "POST\t2\t300", result.toString());
+	}
+
+	@Test
+	public void testProjection() throws IOException {
+		LogParser parser = new LogParser();
+		parser.setProjection(new FieldHandle[] { DownloadLogEntry.HOST });
+
+		final int[] count = new int[1];
+
+		parser.parse(LogParserTest.gzip(LOG), new ILogParserCallback() {
+			public void logEntryParsed(ILogEntry entry) {
+				assertTrue(entry.getFieldValue(DownloadLogEntry.HOST) != null);
+				assertNull(entry.getFieldValue(DownloadLogEntry.CLIENT_IP));
+				assertNull(entry.getFieldValue(DownloadLogEntry.STATUS));
+				count[0]++;
+			}
+		});
+
+		assertEquals(5, count[0]);
+	}
+}
\ No newline at end of file
@@ -0,0 +1,70 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.cloudfront;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class DelimiterScannerTest {
+	static final byte[] ALPHABET = { 'a', 'Z', '0', '-', '%', ' ', '\t', '\r',
+			'\n', 0, (byte) 0x80, (byte) 0xA0, (byte) 0x89, 0x2A, 0x0B };
+
+	@Test
+	public void testMatchesNaiveScan() {
+		DelimiterScanner scanner = new DelimiterScanner();
+		Random random = new Random(1);
+
+		for (int run = 0; run < 1000; run++) {
+			byte[] buffer = new byte[random.nextInt(300)];
+
+			for (int i = 0; i < buffer.length; i++)
+				buffer[i] = ALPHABET[random.nextInt(ALPHABET.length)];
+
+			// Use odd offsets to check the unaligned and trailing-byte paths.
+			int index = (buffer.length == 0 ? 0 : random.nextInt(buffer.length));
+			int length = buffer.length - index;
+
+			scanner.scan(buffer, index, length);
+
+			int count = 0;
+
+			for (int i = index; i < index + length; i++) {
+				byte b = buffer[i];
+
+				if (b == ' ' || b == '\t' || b == '\r' || b == '\n')
+					assertEquals(i, scanner.positions[count++]);
+			}
+
+			assertEquals(count, scanner.size);
+		}
+	}
+
+	@Test
+	public void testLastIndexOf() {
+		DelimiterScanner scanner = new DelimiterScanner();
+		byte[] buffer = "a b\nc\td\ne f".getBytes();
+
+		scanner.scan(buffer, 0, buffer.length);
+
+		assertEquals(5, scanner.size);
+		assertEquals(7, scanner.positions[scanner.lastIndexOf(LogParser.LF,
+				buffer)]);
+		assertEquals(-1, scanner.lastIndexOf((byte) 'x', buffer));
+	}
+}
\ No newline at end of file
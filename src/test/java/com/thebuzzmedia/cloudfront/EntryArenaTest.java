@@ -0,0 +1,193 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.cloudfront;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class EntryArenaTest {
+	@Test
+	public void testRetainSample() throws IOException {
+		final EntryArena arena = new EntryArena(64 * 1024);
+		final long[][] handles = new long[][] { new long[1024] };
+		final int[] count = new int[1];
+
+		new LogParser().parse(
+				EntryArenaTest.class
+						.getResourceAsStream("samples/example-100k.gz"),
+				new ILogParserCallback() {
+					public void logEntryParsed(ILogEntry entry) {
+						if (count[0] == handles[0].length) {
+							long[] grown = new long[count[0] * 2];
+							System.arraycopy(handles[0], 0, grown, 0, count[0]);
+							handles[0] = grown;
+						}
+
+						handles[0][count[0]++] = arena.add(entry);
+					}
+				});
+
+		assertEquals(100000, count[0]);
+		assertEquals(100000, arena.getEntryCount());
+		assertTrue(arena.getChunkCount() > 1);
+
+		// Parse again, comparing every entry with its stored copy.
+		final ArenaLogEntry view = arena.createView();
+		count[0] = 0;
+
+		new LogParser().parse(
+				EntryArenaTest.class
+						.getResourceAsStream("samples/example-100k.gz"),
+				new ILogParserCallback() {
+					public void logEntryParsed(ILogEntry entry) {
+						view.setHandle(handles[0][count[0]++]);
+
+						assertEquals(entry.getType(), view.getType());
+						assertEquals(entry.getFieldCount(),
+								view.getFieldCount());
+
+						for (int i = 0; i < entry.getFieldCount(); i++)
+							assertArrayEquals(entry.getFieldValue(i),
+									view.getFieldValue(i));
+
+						assertArrayEquals(entry
+								.getDecodedFieldValue(DownloadLogEntry.USER_AGENT),
+								view.getDecodedFieldValue(DownloadLogEntry.USER_AGENT));
+					}
+				});
+
+		assertEquals(100000, count[0]);
+
+		arena.close();
+		assertEquals(0, arena.getMemoryUsage());
+
+		try {
+			view.setHandle(handles[0][0]);
+			fail();
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testHeaderDrivenFields() throws IOException {
+		final EntryArena arena = new EntryArena(1024);
+		final long[] handle = new long[1];
+		final char[][] parsed = new char[1][];
+		final int[] fieldCount = new int[1];
+
+		new LogParser().parse(LogParserTest.gzip(LogParserTest
+				.header("date time cs-uri-stem sc-status x-foo")
+				+ "2011-06-14\t05:00:00\t/a.png\t200\tBAR\n"),
+				new ILogParserCallback() {
+					public void logEntryParsed(ILogEntry entry) {
+						handle[0] = arena.add(entry);
+						parsed[0] = entry.getFieldValue("x-foo");
+						fieldCount[0] = entry.getFieldCount();
+					}
+				});
+
+		// The view reads through the schema the entry had, not the base one.
+		ArenaLogEntry view = arena.view(handle[0]);
+		FieldHandle foo = view.getSchema().getFieldHandle("x-foo");
+
+		assertEquals("BAR", new String(parsed[0]));
+		assertEquals(fieldCount[0], view.getFieldCount());
+		assertEquals(LogSchema.DOWNLOAD.getFieldCount() + 1,
+				view.getFieldCount());
+		assertEquals("BAR", new String(view.getFieldValue("x-foo")));
+		assertEquals("BAR", new String(view.getFieldValue(foo)));
+		assertEquals("BAR", new String(arena.getFieldValue(handle[0], foo)));
+		assertEquals("/a.png", new String(view
+				.getFieldValue(DownloadLogEntry.URI_STEM)));
+	}
+
+	@Test
+	public void testRecordLayout() {
+		EntryArena arena = new EntryArena(1024);
+
+		DownloadLogEntry entry = new DownloadLogEntry();
+		entry.setFieldValue(DownloadLogEntry.DATE.getIndex(),
+				"2011-06-14".toCharArray());
+		entry.setFieldValue(DownloadLogEntry.URI_STEM.getIndex(),
+				"/caf\uFFFD.png".toCharArray());
+		long small = arena.add(entry);
+
+		// Needs 4 byte offsets and a chunk of its own.
+		char[] big = new char[70000];
+		Arrays.fill(big, 'x');
+		entry.setFieldValue(DownloadLogEntry.URI_QUERY.getIndex(), big);
+		long wide = arena.add(entry);
+
+		long empty = arena.add(new StreamingLogEntry());
+
+		assertEquals(3, arena.getEntryCount());
+		assertEquals(2, arena.getChunkCount());
+
+		ArenaLogEntry view = arena.view(small);
+		assertEquals("2011-06-14",
+				new String(view.getFieldValue(DownloadLogEntry.DATE)));
+		assertEquals("/caf\uFFFD.png",
+				new String(arena.getFieldValue(small,
+						DownloadLogEntry.URI_STEM)));
+		assertNull(view.getFieldValue(DownloadLogEntry.TIME));
+		assertNull(view.getFieldValue(DownloadLogEntry.URI_QUERY));
+
+		view.setHandle(wide);
+		assertArrayEquals(big, view.getFieldValue(DownloadLogEntry.URI_QUERY));
+		assertEquals("/caf\uFFFD.png",
+				new String(view.getFieldValue(DownloadLogEntry.URI_STEM)));
+
+		view.setHandle(empty);
+		assertEquals(ILogEntry.Type.STREAMING, view.getType());
+		assertNull(view.getFieldValue(StreamingLogEntry.DATE));
+
+		try {
+			view.setFieldValue(0, null);
+			fail();
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+
+		// Chunks are kept (and re-filled) by clear.
+		long memory = arena.getMemoryUsage();
+		arena.clear();
+
+		try {
+			view.setHandle(wide);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+
+		arena.add(entry);
+		entry.setFieldValue(DownloadLogEntry.URI_QUERY.getIndex(), null);
+
+		for (int i = 0; i < 10; i++)
+			arena.add(entry);
+
+		assertEquals(memory, arena.getMemoryUsage());
+		assertEquals(2, arena.getChunkCount());
+	}
+}
\ No newline at end of file
@@ -0,0 +1,90 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.cloudfront;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class LogExporterTest {
+	static final String LOG = "#Version: 1.0\n"
+			+ "#Fields: date time cs-uri-stem cs(User-Agent) cs-uri-query\n"
+			+ "2011-06-14\t05:06:48\t/a,b.png\tMozilla/5.0%2520(Windows)\tq=%22x%22\n"
+			+ "2011-06-14\t05:06:49\t/c.png\t-\tline%0Abreak%5C\n";
+
+	@Test
+	public void testCSV() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		CSVLogExporter exporter = new CSVLogExporter(out);
+
+		new LogParser().parse(LogParserTest.gzip(LOG), exporter);
+		exporter.close();
+
+		assertEquals("date,time,cs-uri-stem,cs(User-Agent),cs-uri-query\n"
+				+ "2011-06-14,05:06:48,\"/a,b.png\",Mozilla/5.0 (Windows),\"q=\"\"x\"\"\"\n"
+				+ "2011-06-14,05:06:49,/c.png,,\"line\nbreak\\\"\n",
+				out.toString("UTF-8"));
+	}
+
+	@Test
+	public void testJSON() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		JSONLogExporter exporter = new JSONLogExporter(out, true, new String[] {
+				"cs-uri-stem", "cs(User-Agent)", "cs-uri-query" });
+
+		new LogParser().parse(LogParserTest.gzip(LOG), exporter);
+		exporter.close();
+
+		assertEquals(
+				"{\"cs-uri-stem\":\"/a,b.png\",\"cs(User-Agent)\":\"Mozilla/5.0 (Windows)\",\"cs-uri-query\":\"q=\\\"x\\\"\"}\n"
+						+ "{\"cs-uri-stem\":\"/c.png\",\"cs(User-Agent)\":null,\"cs-uri-query\":\"line\\nbreak\\\\\"}\n",
+				out.toString("UTF-8"));
+	}
+
+	@Test
+	public void testUndecoded() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		CSVLogExporter exporter = new CSVLogExporter(out, false,
+				new String[] { "cs-uri-query" });
+
+		new LogParser().parse(LogParserTest.gzip(LOG), exporter);
+		exporter.close();
+
+		assertEquals("cs-uri-query\nq=%22x%22\nline%0Abreak%5C\n",
+				out.toString("UTF-8"));
+	}
+
+	@Test
+	public void testUnknownField() throws IOException {
+		CSVLogExporter exporter = new CSVLogExporter(
+				new ByteArrayOutputStream(), false,
+				new String[] { "cs-uri-stme" });
+
+		try {
+			new LogParser().parse(LogParserTest.gzip(LOG), exporter);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+
+		assertNull(LogSchema.DOWNLOAD.getFieldHandle("cs-uri-stme"));
+	}
+}
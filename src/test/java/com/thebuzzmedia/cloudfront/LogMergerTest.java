@@ -0,0 +1,144 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.cloudfront;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.Test;
+
+public class LogMergerTest {
+	static final String HEADER = LogParserTest
+			.header("date time x-edge-location cs-uri-stem sc-status");
+
+	@Test
+	public void testMerge() throws IOException {
+		InputStream[] streams = new InputStream[] {
+				LogParserTest.gzip(HEADER
+						+ "2011-06-14\t05:00:01\tFRA2\t/a1\t200\n"
+						+ "2011-06-14\t05:00:04\tFRA2\t/a2\t200\n"
+						+ "2011-06-14\t05:00:04\tFRA2\t/a3\t200"),
+				LogParserTest.gzip(HEADER),
+				LogParserTest.gzip(HEADER
+						+ "2011-06-14\t05:00:00\tIAD1\t/b1\t200\n"
+						+ "#Fields: date time cs-uri-stem sc-status\n"
+						+ "2011-06-14\t05:00:04\t/b2\t200\n"
+						+ "2011-06-14\t05:00:09\t/b3\t200\n"),
+				LogParserTest.gzip(HEADER
+						+ "2011-06-14\t05:00:02\tSFO4\t/c1\t200\n") };
+
+		final StringBuilder stems = new StringBuilder();
+		LogMerger merger = new LogMerger();
+
+		long count = merger.merge(streams, new ILogParserCallback() {
+			public void logEntryParsed(ILogEntry entry) {
+				stems.append(entry.getFieldValue(DownloadLogEntry.URI_STEM));
+			}
+		});
+
+		// Ties keep source order, the unterminated last line isn't lost.
+		assertEquals(7, count);
+		assertEquals("/b1/a1/c1/a2/a3/b2/b3", stems.toString());
+		assertEquals(0, merger.getOutOfOrderCount());
+	}
+
+	@Test
+	public void testMergeRaw() throws IOException {
+		InputStream[] streams = new InputStream[] {
+				LogParserTest.gzip(HEADER
+						+ "2011-06-14\t05:00:01\tFRA2\t/a1\t200\n"),
+				LogParserTest.gzip(HEADER
+						+ "2011-06-14\t05:00:00\tIAD1\t/b1\t200\n") };
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		CSVLogExporter exporter = new CSVLogExporter(out);
+
+		new LogMerger().merge(streams, exporter);
+		exporter.close();
+
+		// Directives reach raw callbacks, so only the header's fields export.
+		assertEquals("date,time,x-edge-location,cs-uri-stem,sc-status\n"
+				+ "2011-06-14,05:00:00,IAD1,/b1,200\n"
+				+ "2011-06-14,05:00:01,FRA2,/a1,200\n", out.toString("UTF-8"));
+	}
+
+	@Test
+	public void testMergeDirectives() throws IOException {
+		String otherHeader = LogParserTest
+				.header("date time cs-uri-stem sc-status");
+		InputStream[] streams = new InputStream[] {
+				LogParserTest.gzip(HEADER
+						+ "2011-06-14\t05:00:01\tFRA2\t/a1\t200\n"
+						+ "2011-06-14\t05:00:03\tFRA2\t/a2\t200\n"),
+				LogParserTest.gzip(HEADER
+						+ "2011-06-14\t05:00:00\tIAD1\t/b1\t200\n"),
+				LogParserTest.gzip(otherHeader
+						+ "2011-06-14\t05:00:02\t/c1\t200\n") };
+
+		final StringBuilder out = new StringBuilder();
+
+		new LogMerger().merge(streams, new IRawLogParserCallback() {
+			public void directiveParsed(byte[] line, int index, int length) {
+				out.append(new String(line, index, length));
+			}
+
+			public void logEntryParsed(ILogEntry entry, byte[] line,
+					int index, int length) {
+				out.append(new String(line, index, length));
+			}
+
+			public void logEntryParsed(ILogEntry entry) {
+				throw new AssertionError("raw line expected");
+			}
+		});
+
+		// Matching headers are written once, each entry follows its own.
+		assertEquals(HEADER + "2011-06-14\t05:00:00\tIAD1\t/b1\t200\n"
+				+ "2011-06-14\t05:00:01\tFRA2\t/a1\t200\n" + otherHeader
+				+ "2011-06-14\t05:00:02\t/c1\t200\n" + HEADER
+				+ "2011-06-14\t05:00:03\tFRA2\t/a2\t200\n", out.toString());
+	}
+
+	@Test
+	public void testMergeSamples() throws IOException {
+		InputStream[] streams = new InputStream[] {
+				LogMergerTest.class
+						.getResourceAsStream("samples/example-100k.gz"),
+				LogMergerTest.class
+						.getResourceAsStream("samples/example-100.gz"),
+				LogMergerTest.class
+						.getResourceAsStream("samples/example-100k.gz") };
+
+		final long[] last = new long[] { Long.MIN_VALUE };
+		LogMerger merger = new LogMerger();
+
+		long count = merger.merge(streams, new ILogParserCallback() {
+			public void logEntryParsed(ILogEntry entry) {
+				long timestamp = TimestampUtils.getTimestamp(entry);
+
+				assertTrue(timestamp != TimestampUtils.INVALID_TIMESTAMP);
+				last[0] = Math.max(last[0], timestamp);
+			}
+		});
+
+		assertEquals(200100, count);
+		assertTrue(last[0] > 0);
+	}
+}
\ No newline at end of file
@@ -16,12 +16,20 @@
 package com.thebuzzmedia.cloudfront;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -121,4 +129,265 @@ public class LogParserTest {
 		reader.close();
 		inputStream.close();
 	}
+
+	@Test
+	public void testMetrics() throws IOException {
+		InputStream inputStream = LogParserTest.class
+				.getResourceAsStream("samples/example-100.gz");
+
+		PARSER.parse(inputStream, new ILogParserCallback() {
+			public void logEntryParsed(ILogEntry entry) {
+				// no-op
+			}
+		});
+
+		inputStream.close();
+
+		// Count the inflated bytes the JDK way for comparison.
+		GZIPInputStream gzipStream = new GZIPInputStream(LogParserTest.class
+				.getResourceAsStream("samples/example-100.gz"));
+		long decompressedBytes = 0;
+
+		while (gzipStream.read() != -1)
+			decompressedBytes++;
+
+		gzipStream.close();
+
+		LogParserMetrics metrics = PARSER.getMetrics();
+
+		assertEquals(100, metrics.getLineCount());
+		assertEquals(2, metrics.getDirectiveCount());
+		assertEquals(decompressedBytes, metrics.getDecompressedBytes());
+		assertTrue(metrics.getCompressedBytes() > 0);
+		assertTrue(metrics.getReadCount() > 0);
+		assertTrue(metrics.getSampledLineCount() > 0);
+	}
+
+	@Test
+	public void testHeaderDrivenFields() throws IOException {
+		InputStream inputStream = gzip("#Version: 1.0\n"
+				+ "#Fields: date time x-edge-location sc-bytes c-ip cs-method cs(Host) cs-uri-stem sc-status cs(Referer) cs(User-Agent) cs-uri-query cs(Cookie) x-edge-result-type x-edge-request-id time-taken x-test-only-field\n"
+				+ "2011-04-27\t22:55:23\tFRA2\t30783\t46.118.100.87\tGET\tx.cloudfront.net\t/a.png\t200\t-\tMozilla\t-\t-\tHit\tabc==\t0.002\tnew-value\n");
+
+		final int[] count = { 0 };
+		LogParser parser = new LogParser();
+
+		parser.parse(inputStream, new ILogParserCallback() {
+			public void logEntryParsed(ILogEntry entry) {
+				count[0]++;
+
+				// Known to this parser only.
+				FieldHandle testHandle = entry.getSchema().getFieldHandle(
+						"x-test-only-field");
+				assertNotNull(testHandle);
+				assertEquals(LogSchema.DOWNLOAD, entry.getSchema().getBase());
+
+				assertEquals("/a.png",
+						new String(entry.getFieldValue(DownloadLogEntry.URI_STEM)));
+				assertEquals("0.002", new String(entry
+						.getFieldValue(DownloadLogEntry.TIME_TAKEN)));
+				assertEquals("new-value",
+						new String(entry.getFieldValue(testHandle)));
+				assertEquals("new-value",
+						new String(entry.getFieldValue("x-test-only-field")));
+
+				// Known, but not part of this log
+				assertNull(entry.getFieldValue(DownloadLogEntry.SSL_CIPHER));
+			}
+		});
+
+		assertEquals(1, count[0]);
+		assertEquals(0, parser.getMetrics().getSkippedFieldCount());
+		assertNull(LogSchema.DOWNLOAD.getFieldHandle("x-test-only-field"));
+	}
+
+	@Test
+	public void testSampling() throws IOException {
+		final int[] count = { 0 };
+		LogParser parser = new LogParser();
+
+		parser.setSampling(100);
+		parser.parse(LogParserTest.class
+				.getResourceAsStream("samples/example-100k.gz"),
+				new ILogParserCallback() {
+					public void logEntryParsed(ILogEntry entry) {
+						count[0]++;
+					}
+				});
+
+		LogParserMetrics metrics = parser.getMetrics();
+
+		assertEquals(1000, count[0]);
+		assertEquals(1000, metrics.getLineCount());
+		assertEquals(99000, metrics.getUnsampledLineCount());
+		assertEquals(100, metrics.getSampleRate());
+		assertNull(metrics.getSampleFieldName());
+	}
+
+	@Test
+	public void testFieldSampling() throws IOException {
+		final Map<String, int[]> all = new HashMap<String, int[]>();
+		final Map<String, int[]> sampled = new HashMap<String, int[]>();
+		LogParser parser = new LogParser();
+
+		parser.parse(LogParserTest.class
+				.getResourceAsStream("samples/example-100k.gz"),
+				new CountingCallback(all));
+
+		// Samples only have one client IP, the stem works the same way.
+		parser.setSampling(4, DownloadLogEntry.URI_STEM);
+		parser.parse(LogParserTest.class
+				.getResourceAsStream("samples/example-100k.gz"),
+				new CountingCallback(sampled));
+
+		// Every line of a sampled key is kept.
+		assertTrue(sampled.size() > 0 && sampled.size() < all.size());
+
+		for (String stem : sampled.keySet())
+			assertEquals(all.get(stem)[0], sampled.get(stem)[0]);
+
+		assertEquals("cs-uri-stem", parser.getMetrics().getSampleFieldName());
+		assertEquals(100000, parser.getMetrics().getLineCount()
+				+ parser.getMetrics().getUnsampledLineCount());
+	}
+
+	@Test
+	public void testLongLine() throws IOException {
+		StringBuilder stem = new StringBuilder("/");
+
+		while (stem.length() < LogParser.BUFFER_SIZE * 3)
+			stem.append("abcdefghij");
+
+		final String expected = stem.toString();
+		final int[] count = { 0 };
+		LogParser parser = new LogParser();
+
+		parser.parse(gzip(HEADER + line("/a.png") + line(expected)
+				+ line("/b.png")), new ILogParserCallback() {
+			public void logEntryParsed(ILogEntry entry) {
+				if (count[0]++ == 1)
+					assertEquals(expected, new String(entry
+							.getFieldValue(DownloadLogEntry.URI_STEM)));
+			}
+		});
+
+		assertEquals(3, count[0]);
+		assertTrue(parser.getMetrics().getPeakBufferSize() > LogParser.BUFFER_SIZE * 3);
+	}
+
+	@Test
+	public void testQuarantine() throws IOException {
+		StringBuilder stem = new StringBuilder("/");
+
+		while (stem.length() <= LogParser.MAX_BUFFER_SIZE)
+			stem.append("abcdefghij");
+
+		final StringBuilder stems = new StringBuilder();
+		final StringBuilder reasons = new StringBuilder();
+		LogParser parser = new LogParser();
+
+		parser.setQuarantineCallback(new IQuarantineCallback() {
+			public void lineQuarantined(byte[] line, int index, int length,
+					String reason) {
+				reasons.append(reason.substring(0, 4)).append(',');
+			}
+		});
+		parser.parse(gzip("#Fields: nothing useful\n" + line("/no-fields")
+				+ HEADER + line("/a.png") + line(stem.toString())
+				+ line("/b.png") + "2011-04-27\t22:55:23\tFRA2\t30783\n"
+				+ line("/c.png")),
+				new ILogParserCallback() {
+					public void logEntryParsed(ILogEntry entry) {
+						stems.append(entry
+								.getFieldValue(DownloadLogEntry.URI_STEM));
+					}
+				});
+
+		assertEquals("/a.png/b.png/c.png", stems.toString());
+		assertEquals("Unab,Log ,Line,Line,", reasons.toString());
+		assertEquals(4, parser.getMetrics().getQuarantinedLineCount());
+	}
+
+	@Test(expected = MalformedContentException.class)
+	public void testOversizedLine() throws IOException {
+		StringBuilder stem = new StringBuilder("/");
+
+		while (stem.length() <= LogParser.MAX_BUFFER_SIZE)
+			stem.append("abcdefghij");
+
+		new LogParser().parse(gzip(HEADER + line(stem.toString())),
+				new ILogParserCallback() {
+					public void logEntryParsed(ILogEntry entry) {
+						// no-op
+					}
+				});
+	}
+
+	@Test
+	public void testBufferPool() throws IOException {
+		BufferPool pool = new BufferPool(4);
+		LogParser parser = new LogParser(pool);
+		ILogParserCallback callback = new ILogParserCallback() {
+			public void logEntryParsed(ILogEntry entry) {
+				// no-op
+			}
+		};
+
+		// The read and GZIP buffers go back to the pool after every parse.
+		parser.parse(gzip(HEADER + line("/a.png")), callback);
+		assertEquals(2, pool.getPooledCount());
+
+		parser.parse(gzip(HEADER + line("/a.png")), callback);
+		new LogParser(pool).parse(gzip(HEADER + line("/b.png")), callback);
+		assertEquals(2, pool.getPooledCount());
+
+		byte[] buffer = pool.acquire(1000);
+		assertEquals(1024, buffer.length);
+		assertEquals(1024, BufferPool.getBufferSize(1000));
+		assertEquals(BufferPool.MAX_POOLED_SIZE + 1, BufferPool
+				.getBufferSize(BufferPool.MAX_POOLED_SIZE + 1));
+
+		pool.release(buffer);
+		assertTrue(buffer == pool.acquire(1024));
+	}
+
+	static final String HEADER = header("date time x-edge-location sc-bytes c-ip cs-method cs(Host) cs-uri-stem sc-status");
+
+	static String header(String fields) {
+		return "#Version: 1.0\n#Fields: " + fields + "\n";
+	}
+
+	static String line(String stem) {
+		return "2011-04-27\t22:55:23\tFRA2\t30783\t46.118.100.87\tGET\tx.cloudfront.net\t"
+				+ stem + "\t200\n";
+	}
+
+	static class CountingCallback implements ILogParserCallback {
+		private Map<String, int[]> counts;
+
+		CountingCallback(Map<String, int[]> counts) {
+			this.counts = counts;
+		}
+
+		public void logEntryParsed(ILogEntry entry) {
+			String stem = new String(entry
+					.getFieldValue(DownloadLogEntry.URI_STEM));
+			int[] count = counts.get(stem);
+
+			if (count == null)
+				counts.put(stem, count = new int[1]);
+
+			count[0]++;
+		}
+	}
+
+	static InputStream gzip(String content) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		GZIPOutputStream gzipStream = new GZIPOutputStream(bytes);
+
+		gzipStream.write(content.getBytes("US-ASCII"));
+		gzipStream.close();
+
+		return new ByteArrayInputStream(bytes.toByteArray());
+	}
 }
\ No newline at end of file
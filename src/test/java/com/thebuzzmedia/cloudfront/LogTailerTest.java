@@ -0,0 +1,182 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.cloudfront;
+
+import static com.thebuzzmedia.cloudfront.LogParserTest.HEADER;
+import static com.thebuzzmedia.cloudfront.LogParserTest.line;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LogTailerTest {
+	File file;
+	LogTailer tailer;
+	List<String> stems;
+	ILogParserCallback callback;
+
+	@Before
+	public void setup() throws IOException {
+		file = File.createTempFile("cloudfront-tail", ".log");
+		tailer = new LogTailer(file);
+		stems = new ArrayList<String>();
+		callback = new ILogParserCallback() {
+			public void logEntryParsed(ILogEntry entry) {
+				stems.add(new String(entry
+						.getFieldValue(DownloadLogEntry.URI_STEM)));
+			}
+		};
+	}
+
+	@After
+	public void cleanup() throws IOException {
+		tailer.close();
+		file.delete();
+	}
+
+	@Test
+	public void testPartialLines() throws IOException {
+		write(HEADER + line("/a.png") + "2011-04-27\t22:55", false);
+		assertEquals(1, tailer.poll(callback));
+
+		// Nothing new yet
+		assertEquals(0, tailer.poll(callback));
+
+		write(":24\tFRA2\t100\t1.2.3.4\tGET\tx.net\t/b.png\t200\n", true);
+		assertEquals(1, tailer.poll(callback));
+
+		write(line("/c.png") + line("/d.png"), true);
+		assertEquals(2, tailer.poll(callback));
+
+		assertEquals(4, stems.size());
+		assertEquals("/b.png", stems.get(1));
+		assertEquals(file.length(), tailer.getPosition());
+	}
+
+	@Test
+	public void testTruncation() throws IOException {
+		write(HEADER + line("/a.png") + line("/b.png"), false);
+		assertEquals(2, tailer.poll(callback));
+
+		write(HEADER + line("/c.png"), false);
+		assertEquals(1, tailer.poll(callback));
+
+		assertEquals("/c.png", stems.get(2));
+		assertEquals(1, tailer.getRotationCount());
+	}
+
+	@Test
+	public void testRotation() throws IOException {
+		write(HEADER + line("/a.png"), false);
+		assertEquals(1, tailer.poll(callback));
+
+		// Last line written to the old file before it is rotated
+		write(line("/b.png"), true);
+
+		File rotated = new File(file.getPath() + ".1");
+		assertTrue(file.renameTo(rotated));
+
+		try {
+			write(HEADER + line("/rotated-1.png") + line("/rotated-2.png"),
+					false);
+			assertEquals(3, tailer.poll(callback));
+		} finally {
+			tailer.close();
+			rotated.delete();
+		}
+
+		assertEquals("/b.png", stems.get(1));
+		assertEquals("/rotated-1.png", stems.get(2));
+		assertEquals(1, tailer.getRotationCount());
+	}
+
+	@Test
+	public void testRotationToShorterFile() throws IOException {
+		write(HEADER + line("/a.png") + line("/b.png") + line("/c.png"), false);
+		assertEquals(3, tailer.poll(callback));
+
+		write(line("/d.png"), true);
+
+		File rotated = new File(file.getPath() + ".1");
+		assertTrue(file.renameTo(rotated));
+
+		try {
+			// Shorter than the position in the old file, but not a truncation
+			write(HEADER + line("/e.png"), false);
+			assertEquals(2, tailer.poll(callback));
+		} finally {
+			tailer.close();
+			rotated.delete();
+		}
+
+		assertEquals("/d.png", stems.get(3));
+		assertEquals("/e.png", stems.get(4));
+		assertEquals(1, tailer.getRotationCount());
+	}
+
+	@Test
+	public void testRotationToSameSizeFile() throws IOException {
+		String last = line("/b.png");
+
+		// The old file's last line is missing its \n.
+		write(HEADER + line("/a.png") + last.substring(0, last.length() - 1),
+				false);
+		assertEquals(1, tailer.poll(callback));
+
+		File rotated = new File(file.getPath() + ".1");
+		assertTrue(file.renameTo(rotated));
+
+		try {
+			write(HEADER + line("/c.png") + line("/d.pn"), false);
+			assertEquals(rotated.length(), file.length());
+			assertEquals(3, tailer.poll(callback));
+		} finally {
+			tailer.close();
+			rotated.delete();
+		}
+
+		assertEquals("/b.png", stems.get(1));
+		assertEquals("/d.pn", stems.get(3));
+		assertEquals(1, tailer.getRotationCount());
+	}
+
+	@Test
+	public void testRewrite() throws IOException {
+		write(HEADER + line("/a.png"), false);
+		assertEquals(1, tailer.poll(callback));
+
+		// Same file rewritten in place with longer, different content
+		write(HEADER + line("/rewritten-1.png") + line("/rewritten-2.png"),
+				false);
+		assertEquals(2, tailer.poll(callback));
+
+		assertEquals("/rewritten-1.png", stems.get(1));
+	}
+
+	void write(String content, boolean append) throws IOException {
+		FileOutputStream out = new FileOutputStream(file, append);
+		out.write(content.getBytes("US-ASCII"));
+		out.close();
+	}
+}
\ No newline at end of file
@@ -0,0 +1,264 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.cloudfront;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ParseSchedulerTest {
+	static final long MB = 1024 * 1024;
+
+	ParseScheduler scheduler;
+	List<String> order;
+
+	CountDownLatch started;
+	CountDownLatch gate;
+
+	@Before
+	public void setup() throws InterruptedException {
+		// One worker so jobs run in exactly the order they are scheduled.
+		scheduler = new ParseScheduler(1);
+		order = new ArrayList<String>();
+
+		// Hold the worker until every job is queued.
+		started = new CountDownLatch(1);
+		gate = new CountDownLatch(1);
+
+		scheduler.submit("gate", new IParseJob<Void>() {
+			public Void run(LogParser parser) throws Exception {
+				started.countDown();
+				gate.await();
+				return null;
+			}
+		}, 1);
+
+		started.await();
+	}
+
+	@After
+	public void cleanup() throws InterruptedException {
+		gate.countDown();
+		scheduler.shutdown();
+		assertTrue(scheduler.awaitTermination(10000));
+	}
+
+	IParseJob<String> record(final String name) {
+		return new IParseJob<String>() {
+			public String run(LogParser parser) {
+				synchronized (order) {
+					order.add(name);
+				}
+
+				return name;
+			}
+		};
+	}
+
+	String run() throws InterruptedException {
+		gate.countDown();
+		scheduler.shutdown();
+		assertTrue(scheduler.awaitTermination(10000));
+
+		StringBuilder builder = new StringBuilder();
+
+		for (int i = 0; i < order.size(); i++)
+			builder.append(order.get(i));
+
+		return builder.toString();
+	}
+
+	@Test
+	public void testFairShare() throws InterruptedException {
+		// A deep backlog submitted first doesn't hold up the small queue.
+		for (int i = 0; i < 10; i++)
+			scheduler.submit("big", record("B"), MB);
+
+		scheduler.submit("small", record("s"), MB);
+		scheduler.submit("small", record("s"), MB);
+
+		assertEquals("BsBsBBBBBBBB", run());
+	}
+
+	@Test
+	public void testWeights() throws InterruptedException {
+		scheduler.register("heavy", 3, false);
+
+		for (int i = 0; i < 6; i++)
+			scheduler.submit("heavy", record("H"), MB);
+		for (int i = 0; i < 3; i++)
+			scheduler.submit("light", record("l"), MB);
+
+		assertEquals("HHHlHHHll", run());
+	}
+
+	@Test
+	public void testCost() throws InterruptedException {
+		// One 4MB file costs the same share as four 1MB files.
+		scheduler.submit("a", record("A"), 4 * MB);
+		scheduler.submit("a", record("A"), 4 * MB);
+
+		for (int i = 0; i < 6; i++)
+			scheduler.submit("b", record("b"), MB);
+
+		assertEquals("bbbAbbbA", run());
+	}
+
+	@Test
+	public void testHugeCost() throws InterruptedException {
+		// Billions of rounds of credit; these must not be gone through.
+		scheduler.submit("a", record("A"), Long.MAX_VALUE / 8);
+		scheduler.submit("b", record("B"), Long.MAX_VALUE / 4);
+		scheduler.submit("c", record("c"), 3 * MB);
+
+		assertEquals("cAB", run());
+
+		try {
+			scheduler.submit("a", record("A"), 0);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testRealtimeLane() throws InterruptedException {
+		scheduler.register("live", 1, true);
+
+		for (int i = 0; i < 3; i++)
+			scheduler.submit("batch", record("b"), MB);
+		for (int i = 0; i < 2; i++)
+			scheduler.submit("live", record("L"), MB);
+
+		assertEquals("LLbbb", run());
+	}
+
+	@Test
+	public void testMetrics() throws Exception {
+		Future<String> ok = scheduler.submit("a", record("a"), 10);
+		Future<String> failed = scheduler.submit("a", new IParseJob<String>() {
+			public String run(LogParser parser) {
+				throw new IllegalStateException("bad file");
+			}
+		}, 20);
+		scheduler.submit("b", record("b"), 5);
+
+		Thread.sleep(25);
+
+		DistributionMetrics a = scheduler.getMetrics("a");
+		assertEquals(2, a.getQueueDepth());
+		assertEquals(30, a.getQueuedCost());
+		assertTrue(a.getLagMillis() >= 20);
+		assertEquals(3, scheduler.getQueueDepth());
+		assertEquals(1, scheduler.getRunningCount());
+		assertEquals(3, scheduler.getMetrics().length);
+
+		run();
+
+		assertEquals("a", ok.get());
+
+		try {
+			failed.get();
+			fail();
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+
+		a = scheduler.getMetrics("a");
+		assertEquals(0, a.getQueueDepth());
+		assertEquals(0, a.getLagMillis());
+		assertEquals(2, a.getCompletedCount());
+		assertEquals(1, a.getFailedCount());
+		assertTrue(a.getAverageWaitMillis() >= 20);
+		assertEquals(0, scheduler.getQueueDepth());
+
+		try {
+			scheduler.submit("a", record("a"), 1);
+			fail();
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testShutdownNow() throws InterruptedException {
+		Future<String> queued = scheduler.submit("a", record("a"), 1);
+
+		assertEquals(1, scheduler.shutdownNow());
+		assertTrue(queued.isCancelled());
+		assertEquals("", run());
+	}
+
+	@Test
+	public void testParseFiles() throws Exception {
+		gate.countDown();
+
+		File file = File.createTempFile("cloudfront-schedule", ".gz");
+
+		try {
+			InputStream in = ParseSchedulerTest.class
+					.getResourceAsStream("samples/example-100k.gz");
+			OutputStream out = new FileOutputStream(file);
+			byte[] buffer = new byte[8192];
+			int read;
+
+			while ((read = in.read(buffer)) != -1)
+				out.write(buffer, 0, read);
+
+			in.close();
+			out.close();
+
+			ParseScheduler workers = new ParseScheduler(4);
+			final AtomicLong count = new AtomicLong();
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+
+			for (int i = 0; i < 6; i++)
+				futures.add(workers.submit("dist-" + (i % 3), file,
+						new ILogParserCallback() {
+							public void logEntryParsed(ILogEntry entry) {
+								count.incrementAndGet();
+							}
+						}));
+
+			for (int i = 0; i < futures.size(); i++)
+				futures.get(i).get();
+
+			workers.shutdown();
+			assertTrue(workers.awaitTermination(10000));
+
+			assertEquals(600000, count.get());
+			assertEquals(2, workers.getMetrics("dist-1").getCompletedCount());
+			assertEquals(0, workers.getMetrics("dist-1").getFailedCount());
+		} finally {
+			file.delete();
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,188 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.cloudfront;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PartitionedLogWriterTest {
+	/**
+	 * The samples all come from one edge on one day, so partition on the first
+	 * char of the file name instead to get plenty of partitions.
+	 */
+	static final IPartitioner BY_STEM_PREFIX = new IPartitioner() {
+		char[][] keys = new char[128][];
+
+		public char[] getPartitionKey(ILogEntry entry) {
+			char c = entry.getFieldValue(DownloadLogEntry.URI_STEM)[1];
+
+			if (keys[c] == null)
+				keys[c] = new char[] { c };
+
+			return keys[c];
+		}
+	};
+
+	File directory;
+
+	@Before
+	public void setup() throws IOException {
+		directory = File.createTempFile("cloudfront-partitions", "");
+		directory.delete();
+	}
+
+	@After
+	public void cleanup() {
+		File[] files = directory.listFiles();
+
+		for (int i = 0; files != null && i < files.length; i++)
+			files[i].delete();
+
+		directory.delete();
+	}
+
+	@Test
+	public void testPartition() throws IOException {
+		// Tiny limits to exercise file eviction and buffer recycling
+		PartitionedLogWriter writer = new PartitionedLogWriter(directory,
+				BY_STEM_PREFIX, 2, 2, 4096);
+
+		InputStream inputStream = PartitionedLogWriterTest.class
+				.getResourceAsStream("samples/example-100k.gz");
+		new LogParser().parse(inputStream, writer);
+		inputStream.close();
+
+		writer.close();
+
+		File[] files = directory.listFiles();
+		assertEquals(writer.getPartitionCount(), files.length);
+		assertTrue(files.length > 2);
+
+		final int[] count = { 0 };
+		LogParser parser = new LogParser();
+
+		for (int i = 0; i < files.length; i++) {
+			String name = files[i].getName();
+			final String key = name.substring(0, name.length()
+					- PartitionedLogWriter.FILE_EXTENSION.length());
+
+			FileInputStream fileStream = new FileInputStream(files[i]);
+
+			// Every partition is a complete log; directives and all.
+			parser.parse(fileStream, new ILogParserCallback() {
+				public void logEntryParsed(ILogEntry entry) {
+					count[0]++;
+					assertEquals(key, new String(BY_STEM_PREFIX
+							.getPartitionKey(entry)));
+				}
+			});
+
+			fileStream.close();
+		}
+
+		assertEquals(100000, count[0]);
+	}
+
+	@Test
+	public void testPartitionByEdge() throws IOException {
+		PartitionedLogWriter writer = new PartitionedLogWriter(directory,
+				FieldPartitioner.BY_EDGE);
+
+		InputStream inputStream = PartitionedLogWriterTest.class
+				.getResourceAsStream("samples/example-100.gz");
+		new LogParser().parse(inputStream, writer);
+		inputStream.close();
+
+		writer.close();
+
+		assertEquals(1, writer.getPartitionCount());
+		assertTrue(writer.getPartitionFile("FRA2").exists());
+	}
+
+	@Test
+	public void testDistinctFileNames() {
+		PartitionedLogWriter writer = new PartitionedLogWriter(directory,
+				FieldPartitioner.BY_EDGE);
+
+		assertEquals("a%2Fb.log.gz", writer.getPartitionFile("a/b").getName());
+		assertEquals("a%20b.log.gz", writer.getPartitionFile("a b").getName());
+		assertEquals("a_b.log.gz", writer.getPartitionFile("a_b").getName());
+		assertEquals("%2E..log.gz", writer.getPartitionFile("..").getName());
+		assertEquals("a%25b.log.gz", writer.getPartitionFile("a%b").getName());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownPartitionField() {
+		new FieldPartitioner("x-no-such-field");
+	}
+
+	@Test
+	public void testEntriesWithoutRawBytes() throws IOException {
+		final PartitionedLogWriter writer = new PartitionedLogWriter(
+				directory, FieldPartitioner.BY_EDGE);
+		final StringBuilder expected = new StringBuilder();
+
+		// Only forwards the parsed entries, not the raw bytes or directives.
+		new LogParser().parse(PartitionedLogWriterTest.class
+				.getResourceAsStream("samples/example-100.gz"),
+				new ILogParserCallback() {
+					public void logEntryParsed(ILogEntry entry) {
+						expected.append(toLine(entry));
+						writer.logEntryParsed(entry);
+					}
+				});
+
+		writer.close();
+
+		final StringBuilder actual = new StringBuilder();
+		FileInputStream fileStream = new FileInputStream(writer
+				.getPartitionFile("FRA2"));
+
+		new LogParser().parse(fileStream, new ILogParserCallback() {
+			public void logEntryParsed(ILogEntry entry) {
+				actual.append(toLine(entry));
+			}
+		});
+
+		fileStream.close();
+
+		assertTrue(expected.length() > 0);
+		assertEquals(expected.toString(), actual.toString());
+	}
+
+	static String toLine(ILogEntry entry) {
+		StringBuilder line = new StringBuilder();
+		char[][] values = entry.getFieldValues();
+
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] != null)
+				line.append(values[i]);
+
+			line.append('|');
+		}
+
+		return line.append('\n').toString();
+	}
+}
@@ -0,0 +1,222 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.cloudfront;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class QueryResultCacheTest {
+	static final CompiledQuery QUERY = CompiledQuery
+			.compile("SELECT count(*), sum(bytes) WHERE status = 200 GROUP BY uri");
+
+	File directory;
+	File cacheDirectory;
+	File small;
+	File large;
+
+	@Before
+	public void setup() throws IOException {
+		directory = File.createTempFile("cloudfront-cache", "");
+		directory.delete();
+		directory.mkdirs();
+
+		cacheDirectory = new File(directory, "cache");
+		small = copy("samples/example-100.gz");
+		large = copy("samples/example-100k.gz");
+	}
+
+	@After
+	public void cleanup() {
+		File[] files = cacheDirectory.listFiles();
+
+		for (int i = 0; files != null && i < files.length; i++)
+			files[i].delete();
+
+		cacheDirectory.delete();
+		small.delete();
+		large.delete();
+		directory.delete();
+	}
+
+	@Test
+	public void testHitAndMiss() throws IOException {
+		QueryResultCache cache = new QueryResultCache(cacheDirectory);
+
+		QueryResult first = cache.execute(QUERY, large);
+		assertEquals(1, cache.getMissCount());
+		assertEquals(1, cache.getEntryCount());
+
+		QueryResult second = cache.execute(QUERY, large);
+		assertEquals(1, cache.getHitCount());
+		assertEquals(first.toString(), second.toString());
+		assertEquals(100000, second.getScannedCount());
+
+		// A different query, or sampling, is a different entry.
+		cache.execute(CompiledQuery.compile("SELECT count(*)"), large);
+
+		LogParser sampling = new LogParser();
+		sampling.setSampling(10);
+		QueryResult sampled = cache.execute(QUERY, large, sampling);
+
+		assertEquals(3, cache.getMissCount());
+		assertEquals(3, cache.getEntryCount());
+		assertTrue(sampled.getMatchedCount() < first.getMatchedCount());
+
+		// Entries are picked up again by a new instance.
+		cache = new QueryResultCache(cacheDirectory);
+		assertEquals(3, cache.getEntryCount());
+		assertEquals(first.toString(), cache.execute(QUERY, large).toString());
+		assertEquals(1, cache.getHitCount());
+		assertEquals(0, cache.getMissCount());
+	}
+
+	@Test
+	public void testMerge() throws IOException {
+		QueryResultCache cache = new QueryResultCache(cacheDirectory);
+		LogParser parser = new LogParser();
+
+		cache.execute(QUERY, small, parser);
+
+		// Only the large file is parsed.
+		QueryResult merged = cache.execute(QUERY, new File[] { small, large },
+				parser);
+
+		assertEquals(1, cache.getHitCount());
+		assertEquals(2, cache.getMissCount());
+		assertEquals(100100, merged.getScannedCount());
+		assertEquals(QUERY.execute(new FileInputStream(small)).merge(
+				QUERY.execute(new FileInputStream(large))).toString(),
+				merged.toString());
+	}
+
+	@Test
+	public void testEviction() throws IOException {
+		QueryResultCache cache = new QueryResultCache(cacheDirectory);
+		cache.execute(QUERY, small);
+
+		long entrySize = cache.getSize();
+		cache = new QueryResultCache(cacheDirectory, entrySize * 2 + 1);
+
+		cache.execute(CompiledQuery.compile("SELECT count(*) GROUP BY uri"),
+				small);
+		cache.execute(QUERY, small);
+		assertEquals(1, cache.getHitCount());
+
+		// The count(*) entry is now the least recently used.
+		cache.execute(CompiledQuery.compile("SELECT max(bytes) GROUP BY uri"),
+				small);
+
+		assertEquals(1, cache.getEvictionCount());
+		assertEquals(2, cache.getEntryCount());
+		assertTrue(cache.getSize() <= cache.getMaxSize());
+		assertEquals(2, cacheDirectory.listFiles().length);
+		assertNotNull(cache.get(QueryResultCache.getContentHash(small),
+				QueryResultCache.getFingerprint(QUERY, new LogParser())));
+	}
+
+	@Test
+	public void testCorruptEntry() throws IOException {
+		QueryResultCache cache = new QueryResultCache(cacheDirectory);
+		QueryResult expected = cache.execute(QUERY, small);
+
+		File entry = cacheDirectory.listFiles()[0];
+		OutputStream out = new FileOutputStream(entry);
+		out.write(new byte[] { 1, 2, 3 });
+		out.close();
+
+		String key = QueryResultCache.getContentHash(small);
+		String fingerprint = QueryResultCache.getFingerprint(QUERY,
+				new LogParser());
+
+		assertNull(cache.get(key, fingerprint));
+		assertEquals(0, cache.getEntryCount());
+		assertEquals(expected.toString(), cache.execute(QUERY, small)
+				.toString());
+	}
+
+	@Test
+	public void testFailedParse() throws IOException {
+		QueryResultCache cache = new QueryResultCache(cacheDirectory);
+		final boolean[] closed = new boolean[1];
+		InputStream stream = new ByteArrayInputStream(
+				"not GZIP content".getBytes("US-ASCII")) {
+			public void close() {
+				closed[0] = true;
+			}
+		};
+
+		try {
+			cache.execute(QUERY, "not-gzip", stream, new LogParser());
+			fail("content isn't GZIP-compressed");
+		} catch (IOException e) {
+			// expected
+		}
+
+		assertTrue(closed[0]);
+		assertEquals(0, cache.getEntryCount());
+	}
+
+	@Test
+	public void testQuarantineFingerprint() {
+		LogParser parser = new LogParser();
+		String fingerprint = QueryResultCache.getFingerprint(QUERY, parser);
+
+		parser.setQuarantineCallback(new IQuarantineCallback() {
+			public void lineQuarantined(byte[] line, int index, int length,
+					String reason) {
+				// no-op
+			}
+		});
+
+		// Skipping malformed lines can change the result.
+		assertFalse(fingerprint.equals(QueryResultCache.getFingerprint(QUERY,
+				parser)));
+	}
+
+	File copy(String resource) throws IOException {
+		File file = new File(directory, resource.substring(resource
+				.indexOf('/') + 1));
+		InputStream in = QueryResultCacheTest.class
+				.getResourceAsStream(resource);
+		OutputStream out = new FileOutputStream(file);
+		byte[] buffer = new byte[8192];
+		int read;
+
+		while ((read = in.read(buffer)) != -1)
+			out.write(buffer, 0, read);
+
+		in.close();
+		out.close();
+
+		return file;
+	}
+}
\ No newline at end of file
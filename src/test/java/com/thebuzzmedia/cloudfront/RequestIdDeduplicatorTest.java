@@ -0,0 +1,107 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.cloudfront;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class RequestIdDeduplicatorTest {
+	static final String HEADER = LogParserTest
+			.header("date time cs-uri-stem x-edge-request-id");
+
+	static final String FILE_A = HEADER
+			+ "2011-06-14\t05:06:48\t/a.png\tid-1\n"
+			+ "2011-06-14\t05:06:49\t/b.png\tid-2\n"
+			+ "2011-06-14\t05:06:50\t/c.png\tid-3\n";
+
+	// Overlaps with FILE_A on id-2 and id-3.
+	static final String FILE_B = HEADER
+			+ "2011-06-14\t05:06:49\t/b.png\tid-2\n"
+			+ "2011-06-14\t05:06:50\t/c.png\tid-3\n"
+			+ "2011-06-14\t05:06:51\t/d.png\tid-4\n"
+			+ "2011-06-14\t05:06:52\t/e.png\t-\n";
+
+	@Test
+	public void testOverlappingFiles() throws IOException {
+		final StringBuilder stems = new StringBuilder();
+		DeduplicatingCallback callback = new DeduplicatingCallback(
+				new ILogParserCallback() {
+					public void logEntryParsed(ILogEntry entry) {
+						stems.append(entry
+								.getFieldValue(DownloadLogEntry.URI_STEM));
+					}
+				}, new RequestIdDeduplicator(1000, 60000));
+
+		LogParser parser = new LogParser();
+		parser.parse(LogParserTest.gzip(FILE_A), callback);
+		parser.parse(LogParserTest.gzip(FILE_B), callback);
+
+		// Entries without an ID are always passed along.
+		assertEquals("/a.png/b.png/c.png/d.png/e.png", stems.toString());
+		assertEquals(2, callback.getDeduplicator().getDuplicateCount());
+		assertEquals(4, callback.getDeduplicator().getSize());
+	}
+
+	@Test
+	public void testExpiry() {
+		RequestIdDeduplicator deduplicator = new RequestIdDeduplicator(1000,
+				1000);
+		char[] id = "id-1".toCharArray();
+
+		assertTrue(deduplicator.add(id, 0));
+		assertFalse(deduplicator.add(id, 500));
+
+		// Still held in the previous generation after one rotation.
+		assertTrue(deduplicator.add("id-2".toCharArray(), 1500));
+		assertEquals(1, deduplicator.getRotationCount());
+		assertTrue(deduplicator.contains(id));
+
+		// Dropped after the second.
+		deduplicator.add("id-3".toCharArray(), 2500);
+		assertFalse(deduplicator.contains(id));
+		assertTrue(deduplicator.add(id, 2600));
+	}
+
+	@Test
+	public void testCapacity() {
+		RequestIdDeduplicator deduplicator = new RequestIdDeduplicator(100,
+				Long.MAX_VALUE);
+
+		for (int i = 0; i < 1000; i++)
+			assertTrue(deduplicator.add(Integer.toString(i).toCharArray(), 0));
+
+		// Full generations rotate early, bounding the size.
+		assertTrue(deduplicator.getSize() <= 200);
+		assertTrue(deduplicator.contains("999".toCharArray()));
+		assertFalse(deduplicator.contains("0".toCharArray()));
+	}
+
+	@Test
+	public void testTimestamp() {
+		assertEquals(1308027988000L, TimestampUtils.toEpochMillis(
+				"2011-06-14".toCharArray(), "05:06:28".toCharArray()));
+		assertEquals(951782400000L, TimestampUtils.toEpochMillis(
+				"2000-02-29".toCharArray(), "00:00:00".toCharArray()));
+		assertEquals(TimestampUtils.INVALID_TIMESTAMP, TimestampUtils
+				.toEpochMillis("2011-6-14".toCharArray(),
+						"05:06:28".toCharArray()));
+	}
+}
\ No newline at end of file
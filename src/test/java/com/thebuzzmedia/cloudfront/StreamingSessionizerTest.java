@@ -0,0 +1,176 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.cloudfront;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class StreamingSessionizerTest {
+	static final String HEADER = LogParserTest
+			.header("date time x-event sc-bytes x-sname x-sid");
+
+	static String line(String time, String event, long bytes,
+			String streamName, long streamId) {
+		return "2011-06-14\t" + time + "\t" + event + "\t" + bytes + "\t"
+				+ streamName + "\t" + streamId + "\n";
+	}
+
+	/**
+	 * Copies the values of every session it is given.
+	 */
+	static class Collector implements IStreamingSessionCallback {
+		List<String> summaries = new ArrayList<String>();
+		List<String[]> streamNames = new ArrayList<String[]>();
+		long bytes;
+
+		public void sessionClosed(StreamingSession session) {
+			summaries.add(session.getStreamId() + ":"
+					+ session.getCloseReason() + ":" + session.getDuration()
+					+ ":" + session.getBytes() + ":"
+					+ session.getEventCount());
+			streamNames.add(session.getStreamNames());
+			bytes += session.getBytes();
+		}
+	}
+
+	@Test
+	public void testSessions() throws IOException {
+		String log = HEADER
+				+ line("05:00:00", "connect", 0, "-", 1)
+				+ line("05:00:01", "play", 100, "movie-a", 1)
+				+ line("05:00:02", "connect", 0, "-", 2)
+				+ line("05:00:03", "play", 50, "movie-b", 2)
+				+ line("05:00:10", "stop", 5000, "movie-a", 1)
+				+ line("05:00:11", "play", 5100, "movie-b", 1)
+				+ line("05:00:20", "disconnect", 9000, "-", 1)
+				// Session 2 goes quiet, session 3 moves log time along.
+				+ line("05:16:00", "connect", 0, "-", 3)
+				+ line("05:20:00", "play", 10, "movie-a", 3)
+				+ line("05:20:00", "play", 10, "movie-a", 3)
+				+ "2011-06-14\t05:20:00\tplay\t10\tmovie-a\tnot-a-number\n";
+
+		Collector collector = new Collector();
+		StreamingSessionizer sessionizer = new StreamingSessionizer(
+				collector, 5 * 60 * 1000L, Integer.MAX_VALUE);
+
+		new LogParser().parse(LogParserTest.gzip(log), sessionizer);
+
+		assertEquals(2, collector.summaries.size());
+		assertEquals("1:DISCONNECT:20000:9000:5", collector.summaries.get(0));
+		assertArrayEquals(new String[] { "movie-a", "movie-b" },
+				collector.streamNames.get(0));
+		assertEquals("2:IDLE:1000:50:2", collector.summaries.get(1));
+		assertEquals(1, sessionizer.getOpenCount());
+		assertEquals(1, sessionizer.getIgnoredCount());
+
+		sessionizer.flush();
+
+		assertEquals("3:FLUSH:240000:10:3", collector.summaries.get(2));
+		assertArrayEquals(new String[] { "movie-a" },
+				collector.streamNames.get(2));
+		assertEquals(0, sessionizer.getOpenCount());
+		assertEquals(3, sessionizer.getClosedCount());
+	}
+
+	@Test
+	public void testManySessions() throws IOException {
+		StringBuilder log = new StringBuilder(HEADER);
+
+		// Open 5000 sessions, then disconnect every other one.
+		for (int i = 0; i < 5000; i++)
+			log.append(line("05:00:00", "play", i, "movie-" + i, i));
+
+		for (int i = 0; i < 5000; i += 2)
+			log.append(line("05:00:01", "disconnect", i + 1, "-", i));
+
+		Collector collector = new Collector();
+		StreamingSessionizer sessionizer = new StreamingSessionizer(collector);
+
+		new LogParser().parse(LogParserTest.gzip(log.toString()), sessionizer);
+
+		// Every remaining session must still be found after the removals.
+		assertEquals(2500, sessionizer.getOpenCount());
+		assertEquals(2500, sessionizer.getStreamNameCount());
+		log = new StringBuilder(HEADER);
+
+		for (int i = 1; i < 5000; i += 2)
+			log.append(line("05:00:02", "disconnect", i + 1, "-", i));
+
+		new LogParser().parse(LogParserTest.gzip(log.toString()), sessionizer);
+
+		assertEquals(0, sessionizer.getOpenCount());
+		assertEquals(0, sessionizer.getStreamNameCount());
+		assertEquals(5000, collector.summaries.size());
+		assertArrayEquals(new String[] { "movie-4999" },
+				collector.streamNames.get(4999));
+
+		// Each session reports i + 1 bytes.
+		assertEquals(5000L * 5001 / 2, collector.bytes);
+	}
+
+	@Test
+	public void testManyStreams() throws IOException {
+		String[] plays = { "a", "b", "c", "d", "e", "e", "e", "e", "f", "a",
+				"f", "g", "e" };
+		StringBuilder log = new StringBuilder(HEADER);
+
+		for (int i = 0; i < plays.length; i++)
+			log.append(line("05:00:0" + (i % 10), "play", i, plays[i], 1));
+
+		final StreamingSession[] closed = new StreamingSession[1];
+		StreamingSessionizer sessionizer = new StreamingSessionizer(
+				new IStreamingSessionCallback() {
+					public void sessionClosed(StreamingSession session) {
+						closed[0] = session;
+					}
+				});
+
+		new LogParser().parse(LogParserTest.gzip(log.toString()), sessionizer);
+		assertEquals(7, sessionizer.getStreamNameCount());
+
+		sessionizer.flush();
+
+		// Repeats past MAX_STREAM_NAMES are still recognized.
+		assertEquals(7, closed[0].getStreamCount());
+		assertArrayEquals(new String[] { "a", "b", "c", "d" }, closed[0]
+				.getStreamNames());
+		assertEquals(0, sessionizer.getStreamNameCount());
+	}
+
+	@Test
+	public void testEviction() throws IOException {
+		String log = HEADER + line("05:00:00", "play", 1, "a", 1)
+				+ line("05:00:01", "play", 1, "a", 2)
+				+ line("05:00:02", "play", 1, "a", 1)
+				+ line("05:00:03", "play", 1, "a", 3);
+
+		Collector collector = new Collector();
+		StreamingSessionizer sessionizer = new StreamingSessionizer(
+				collector, StreamingSessionizer.DEFAULT_IDLE_TIMEOUT_MILLIS, 2);
+
+		new LogParser().parse(LogParserTest.gzip(log), sessionizer);
+
+		assertEquals(1, sessionizer.getEvictedCount());
+		assertEquals("2:EVICTED:0:1:1", collector.summaries.get(0));
+		assertEquals(2, sessionizer.getOpenCount());
+	}
+}
\ No newline at end of file
@@ -0,0 +1,134 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.cloudfront;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.Test;
+
+public class UserAgentClassifierTest {
+	static final String CHROME_UA = "Mozilla/5.0%2520(X11;%2520U;%2520Linux%2520i686;%2520en-US)%2520AppleWebKit/534.10%2520(KHTML,%2520like%2520Gecko)%2520Chrome/8.0.552.237%2520Safari/534.10";
+	static final String BOT_UA = "Mozilla/5.0%2520(compatible;%2520Googlebot/2.1;%2520+http://www.google.com/bot.html)";
+
+	@Test
+	public void testDecode() {
+		char[] plain = "/images/logo.png".toCharArray();
+
+		// No escapes, no allocation
+		assertSame(plain, PercentDecodingUtils.decode(plain));
+		assertNull(PercentDecodingUtils.decode(null));
+
+		assertArrayEquals("a b%zz%4".toCharArray(),
+				PercentDecodingUtils.decode("a%20b%zz%4".toCharArray()));
+		assertArrayEquals("a%20b".toCharArray(),
+				PercentDecodingUtils.decode("a%2520b".toCharArray()));
+		assertArrayEquals("a b".toCharArray(),
+				PercentDecodingUtils.decode("a%2520b".toCharArray(), 2));
+		assertArrayEquals("caf\u00E9".toCharArray(),
+				PercentDecodingUtils.decode("caf%C3%A9".toCharArray()));
+	}
+
+	@Test
+	public void testDecodedFieldValue() {
+		DownloadLogEntry entry = new DownloadLogEntry();
+		int uaIndex = entry.getFieldIndex("cs(User-Agent)");
+		int stemIndex = entry.getFieldIndex("cs-uri-stem");
+
+		entry.setFieldValue(uaIndex, BOT_UA.toCharArray());
+		entry.setFieldValue(stemIndex, "/a%20b.png".toCharArray());
+
+		assertEquals(
+				"Mozilla/5.0 (compatible; Googlebot/2.1; +http://www.google.com/bot.html)",
+				new String(entry.getDecodedFieldValue(uaIndex)));
+		assertEquals("/a b.png",
+				new String(entry.getDecodedFieldValue("cs-uri-stem")));
+
+		// Decoded values are cached until the entry is reset
+		assertSame(entry.getDecodedFieldValue(uaIndex),
+				entry.getDecodedFieldValue(uaIndex));
+
+		entry.reset();
+		assertNull(entry.getDecodedFieldValue(uaIndex));
+		assertNull(entry.getDecodedFieldValue("unknown"));
+	}
+
+	@Test
+	public void testClassify() {
+		UserAgentClassifier classifier = new UserAgentClassifier();
+
+		UserAgent chrome = classifier.classify(CHROME_UA.toCharArray());
+		assertEquals(UserAgent.Browser.CHROME, chrome.getBrowser());
+		assertEquals(UserAgent.OperatingSystem.LINUX,
+				chrome.getOperatingSystem());
+		assertFalse(chrome.isBot());
+
+		UserAgent bot = classifier.classify(BOT_UA.toCharArray());
+		assertTrue(bot.isBot());
+
+		// Same raw value, same cached instance
+		assertSame(chrome, classifier.classify(CHROME_UA.toCharArray()));
+		assertEquals(2, classifier.getSize());
+	}
+
+	@Test
+	public void testCacheIsBounded() {
+		UserAgentClassifier classifier = new UserAgentClassifier(64);
+
+		for (int i = 0; i < 10000; i++)
+			classifier.classify(("agent-" + i).toCharArray());
+
+		assertTrue(classifier.getSize() <= 64);
+
+		// Small and uneven sizes are honored exactly.
+		int[] maxSizes = { 1, 3, 15, 16, 100 };
+
+		for (int i = 0; i < maxSizes.length; i++) {
+			classifier = new UserAgentClassifier(maxSizes[i]);
+
+			for (int j = 0; j < 10000; j++)
+				classifier.classify(("agent-" + j).toCharArray());
+
+			assertEquals(maxSizes[i], classifier.getSize());
+		}
+	}
+
+	@Test
+	public void testClassifyEntries() throws IOException {
+		final UserAgentClassifier classifier = new UserAgentClassifier();
+		InputStream inputStream = UserAgentClassifierTest.class
+				.getResourceAsStream("samples/example-100.gz");
+
+		new LogParser().parse(inputStream, new ILogParserCallback() {
+			public void logEntryParsed(ILogEntry entry) {
+				UserAgent userAgent = classifier.classify(entry);
+				assertEquals(
+						new String(entry.getDecodedFieldValue("cs(User-Agent)")),
+						userAgent.getValue());
+			}
+		});
+
+		inputStream.close();
+		assertTrue(classifier.getSize() > 0);
+	}
+}
\ No newline at end of file